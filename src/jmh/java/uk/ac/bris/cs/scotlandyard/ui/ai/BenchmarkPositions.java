@@ -0,0 +1,160 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import uk.ac.bris.cs.scotlandyard.model.GameSetup;
+import uk.ac.bris.cs.scotlandyard.model.Piece;
+import uk.ac.bris.cs.scotlandyard.model.Player;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The fixed suite of mid-game positions every benchmark runs over, read from
+ * {@code benchmark-positions.bin}, a {@link SnapshotLog} checked in under {@code src/jmh/resources}.
+ * The suite is the same on every machine and for every engine build, whatever the move generator
+ * under test does; only the code under test changes between runs.
+ * <p>
+ * The file was made by {@link #main} from standard games played out with random legal moves, one per
+ * seed. Regenerating it changes the suite, which makes results before and after incomparable.
+ */
+final class BenchmarkPositions {
+
+    private static final String RESOURCE = "/benchmark-positions.bin";
+
+    /**
+     * Games played out for the suite, one per seed; those that end early are left out
+     */
+    static final int POSITIONS = 16;
+
+    private static final int MIN_PLIES = 6;
+    private static final int MAX_PLIES = 40;
+
+    /**
+     * A position with Mr X's true location, which the board only shows when he surfaces.
+     */
+    static final class Position {
+        final ImmutableGameState state;
+        final int mrXLocation;
+
+        Position(ImmutableGameState state, int mrXLocation) {
+            this.state = state;
+            this.mrXLocation = mrXLocation;
+        }
+
+        @Nonnull
+        SearchState toSearchState() {
+            return SearchState.fromBoard(state, mrXLocation);
+        }
+    }
+
+    private BenchmarkPositions() {}
+
+    @Nonnull
+    static GameSetup standardSetup() {
+        try {
+            return new GameSetup(ScotlandYard.standardGraph(), ScotlandYard.STANDARD24MOVES);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return the positions of the suite, in the order of the file
+     */
+    @Nonnull
+    static List<Position> suite() {
+        final GameSetup setup = standardSetup();
+        final List<Position> positions = new ArrayList<>();
+        for (PositionSnapshot snapshot : SnapshotLog.read(copyResource(), setup)) {
+            final SearchState state = snapshot.toSearchState(setup, 0);
+            positions.add(new Position(state.toGameState(), state.mrXLocation()));
+        }
+        return positions;
+    }
+
+    /* SnapshotLog reads files, which the resource is not once packed in the benchmarks jar */
+    private static Path copyResource() {
+        try (InputStream in = BenchmarkPositions.class.getResourceAsStream(RESOURCE)) {
+            if (in == null) throw new IllegalStateException("Missing " + RESOURCE + " on the classpath");
+            final Path file = Files.createTempFile("benchmark-positions", ".bin");
+            file.toFile().deleteOnExit();
+            Files.copy(in, file, StandardCopyOption.REPLACE_EXISTING);
+            return file;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes the suite afresh, as {@code --file src/jmh/resources/benchmark-positions.bin} by default.
+     */
+    public static void main(String[] args) throws IOException {
+        Path file = Paths.get("src/jmh/resources/benchmark-positions.bin");
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].equals("--file")) throw new IllegalArgumentException("Unknown option " + args[i]);
+            file = Paths.get(args[i + 1]);
+        }
+        final GameSetup setup = standardSetup();
+        Files.deleteIfExists(file);
+        int written = 0;
+        try (SnapshotLog log = SnapshotLog.open(file, setup)) {
+            for (int seed = 0; seed < POSITIONS; seed++) {
+                final PositionSnapshot position = play(setup, new Random(seed));
+                if (position == null) continue;
+                log.append(position);
+                written++;
+            }
+        }
+        System.out.println(written + " positions written to " + file);
+    }
+
+    /* the position a random game reaches, with the move it went on with, or null if it ended first */
+    @Nullable
+    private static PositionSnapshot play(GameSetup setup, Random random) {
+        final List<Integer> locations = new ArrayList<>(ScotlandYard.DETECTIVE_LOCATIONS);
+        Collections.shuffle(locations, random);
+        final Piece.Detective[] pieces = Piece.Detective.values();
+        final List<Player> detectives = new ArrayList<>();
+        for (int i = 0; i < pieces.length; i++) {
+            detectives.add(new Player(pieces[i], ScotlandYard.defaultDetectiveTickets(), locations.get(i)));
+        }
+        int mrXLocation = ScotlandYard.MRX_LOCATIONS.get(random.nextInt(ScotlandYard.MRX_LOCATIONS.size()));
+        ImmutableGameState state = ImmutableGameState.of(setup, ImmutableSet.of(Piece.MrX.MRX), ImmutableList.of(),
+                new Player(Piece.MrX.MRX, ScotlandYard.defaultMrXTickets(), mrXLocation), detectives);
+
+        final int plies = MIN_PLIES + random.nextInt(MAX_PLIES - MIN_PLIES);
+        for (int ply = 0; ply < plies; ply++) {
+            if (state.getAvailableMoves().isEmpty()) return null;
+            // the set's iteration order is not part of its contract, so pick from the encoded moves
+            final SearchState encoder = SearchState.fromBoard(state, mrXLocation);
+            final int[] moves = state.getAvailableMoves().stream()
+                    .mapToInt(m -> Moves.fromMove(m, encoder))
+                    .sorted()
+                    .toArray();
+            final int move = moves[random.nextInt(moves.length)];
+            if (Moves.player(move) == SearchState.MRX) mrXLocation = Moves.destination(move);
+            state = state.newState(Moves.toMove(move, encoder));
+        }
+        if (!state.getWinner().isEmpty()) return null;
+        final SearchState encoder = SearchState.fromBoard(state, mrXLocation);
+        final int[] moves = state.getAvailableMoves().stream()
+                .mapToInt(m -> Moves.fromMove(m, encoder))
+                .sorted()
+                .toArray();
+        return PositionSnapshot.capture(state, mrXLocation, Moves.toMove(moves[random.nextInt(moves.length)], encoder),
+                0, null);
+    }
+}
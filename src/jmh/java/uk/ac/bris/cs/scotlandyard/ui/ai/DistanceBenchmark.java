@@ -0,0 +1,72 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link DistanceOracle} queries: single lookups between random node pairs, with and without ticket
+ * limits, and a sweep over all pairs of the standard graph.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DistanceBenchmark {
+
+    private static final int PAIRS = 1024;  // a power of two
+
+    private DistanceOracle oracle;
+    private final int[] from = new int[PAIRS];
+    private final int[] to = new int[PAIRS];
+    private final int[][] tickets = new int[PAIRS][];
+    private int next;
+
+    @Setup
+    public void setUp() {
+        oracle = DistanceOracle.of(BenchmarkPositions.standardSetup());
+        final Random random = new Random(0);
+        for (int i = 0; i < PAIRS; i++) {
+            from[i] = 1 + random.nextInt(oracle.size() - 1);
+            to[i] = 1 + random.nextInt(oracle.size() - 1);
+            tickets[i] = new int[]{random.nextInt(11), random.nextInt(9), random.nextInt(5), random.nextInt(3)};
+        }
+    }
+
+    @Benchmark
+    public int single() {
+        final int i = next++ & (PAIRS - 1);
+        return oracle.distance(from[i], to[i]);
+    }
+
+    @Benchmark
+    public int withTickets() {
+        final int i = next++ & (PAIRS - 1);
+        final int[] t = tickets[i];
+        return oracle.distance(from[i], to[i], t[0], t[1], t[2], t[3]);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public long allPairs() {
+        long sum = 0;
+        for (int a = 1; a < oracle.size(); a++) {
+            for (int b = 1; b < oracle.size(); b++) {
+                sum += oracle.distance(a, b);
+            }
+        }
+        return sum;
+    }
+}
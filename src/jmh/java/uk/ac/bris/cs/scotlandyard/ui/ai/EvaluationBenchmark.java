@@ -0,0 +1,50 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Leaf evaluation with the configured weights, over the position suite. Scores are per suite pass.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EvaluationBenchmark {
+
+    @Param({"true", "false"})
+    public boolean mrXLocationKnown;
+
+    private SearchState[] states;
+    private Evaluator evaluator;
+
+    @Setup
+    public void setUp() {
+        states = BenchmarkPositions.suite().stream()
+                .map(BenchmarkPositions.Position::toSearchState)
+                .toArray(SearchState[]::new);
+        evaluator = Evaluator.fromConfig();
+    }
+
+    @Benchmark
+    public double evaluate() {
+        double sum = 0.0;
+        for (SearchState state : states) {
+            sum += evaluator.evaluate(state, mrXLocationKnown);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,108 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Move generation and make/unmake over the whole position suite, for the search's
+ * {@link SearchState} and for {@link ImmutableGameState}, which computes its available moves as part
+ * of every {@code advance}. Scores are per suite pass.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MoveGenerationBenchmark {
+
+    private List<BenchmarkPositions.Position> positions;
+    private SearchState[] states;
+    private int[][] firstMoves;
+    private final MoveBuffer buffer = new MoveBuffer();
+
+    @Setup
+    public void setUp() {
+        positions = BenchmarkPositions.suite();
+        states = new SearchState[positions.size()];
+        firstMoves = new int[positions.size()][];
+        for (int i = 0; i < states.length; i++) {
+            states[i] = positions.get(i).toSearchState();
+            buffer.release(0);
+            states[i].generateMoves(buffer);
+            firstMoves[i] = new int[buffer.size()];
+            for (int m = 0; m < buffer.size(); m++) firstMoves[i][m] = buffer.get(m);
+        }
+    }
+
+    @Benchmark
+    public int generateMoves() {
+        int count = 0;
+        for (SearchState state : states) {
+            buffer.release(0);
+            count += state.generateMoves(buffer);
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int generateJointMoves() {
+        int count = 0;
+        for (SearchState state : states) {
+            buffer.release(0);
+            count += state.generateJointMoves(buffer);
+        }
+        return count;
+    }
+
+    /**
+     * Every legal move of every position, made and unmade
+     */
+    @Benchmark
+    public long makeUnmake() {
+        long hash = 0;
+        for (int i = 0; i < states.length; i++) {
+            final SearchState state = states[i];
+            for (int move : firstMoves[i]) {
+                state.make(move);
+                hash ^= state.hash();
+                state.unmake(move);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * One successor per position through {@link ImmutableGameState#newState}, which copies the
+     * state, advances it and generates the successor's moves
+     */
+    @Benchmark
+    public void newState(Blackhole blackhole) {
+        for (int i = 0; i < states.length; i++) {
+            final SearchState state = states[i];
+            blackhole.consume(positions.get(i).state.newState(Moves.toMove(firstMoves[i][0], state)));
+        }
+    }
+
+    /**
+     * A state rebuilt from a board, which is how every {@code pickMove} starts
+     */
+    @Benchmark
+    public void fromBoard(Blackhole blackhole) {
+        for (BenchmarkPositions.Position position : positions) {
+            blackhole.consume(position.toSearchState());
+        }
+    }
+}
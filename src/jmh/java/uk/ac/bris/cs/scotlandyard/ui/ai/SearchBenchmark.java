@@ -0,0 +1,80 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import io.atlassian.fugue.Pair;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fixed-depth searches of the whole position suite from a cleared transposition table. Besides the
+ * time per suite the {@code nodes} counter reports nodes per second, as counted by the search's
+ * {@link SearchReport} over all its threads. The depth is passed to the search through
+ * {@code scotlandyard.ai.maxDepth}; the time limit is far beyond any depth benchmarked.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class SearchBenchmark {
+
+    private static final Pair<Long, TimeUnit> NO_LIMIT = new Pair<>(1L, TimeUnit.HOURS);
+
+    @Param({"6", "8"})
+    public int depth;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private List<BenchmarkPositions.Position> positions;
+    private GameTree gameTree;
+
+    /**
+     * Nodes searched, reported by JMH as a rate
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Nodes {
+        public long nodes;
+    }
+
+    @Setup
+    public void setUp() {
+        System.setProperty("scotlandyard.ai.maxDepth", Integer.toString(depth));
+        // read once per JVM by the shared helpers; every parameter combination runs in its own fork
+        System.setProperty("scotlandyard.ai.threads", Integer.toString(threads));
+        positions = BenchmarkPositions.suite();
+        gameTree = new GameTree(new TranspositionTable(SearchConfig.transpositionTableMegabytes()), threads);
+    }
+
+    @Setup(Level.Invocation)
+    public void clearTable() {
+        gameTree.getTable().clear();
+    }
+
+    @Benchmark
+    public int search(Nodes counter) {
+        int moves = 0;
+        for (BenchmarkPositions.Position position : positions) {
+            gameTree.getTable().newSearch();
+            final SearchClock clock = SearchClock.start(NO_LIMIT);
+            moves ^= gameTree.search(position.toSearchState(), true, clock);
+            counter.nodes += gameTree.takeReport(clock).getNodes();
+        }
+        return moves;
+    }
+}
@@ -0,0 +1,203 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.graph.ImmutableValueGraph;
+import jakarta.websocket.DeploymentException;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard;
+import uk.ac.bris.cs.wskit.KryoCodec;
+import uk.ac.bris.cs.wskit.WebSockets;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Plays many games at once against a websocket judge, without the desktop UI. Each session is a
+ * connection that joins the judge's pool, plays the game it is given with {@link MrXAI} or
+ * {@link DetectivesAI} and joins again; every session's searches share one {@link SearchPool} sized to
+ * the machine, and a session only joins a new game once the pool has room for it, which it keeps
+ * until the game is over. The board graph is loaded
+ * once, so every game shares the same {@link DistanceOracle} and {@link BoardGraph}. Run it as
+ * <pre>
+ * java -cp ... uk.ac.bris.cs.scotlandyard.ui.ai.AiServer --uri ws://judge:8080/pool --sessions 200 \
+ *     --username ai --password secret
+ * </pre>
+ * or with {@code --local 8090 --timeout 2000} instead of {@code --uri} to play against an in-process
+ * {@link LocalJudge} that gives each move 2s. Search threads and table size default to 1 and 16MB per game and pondering is
+ * off, since the pool decides what runs; other {@code scotlandyard.ai.*} settings apply as usual.
+ */
+public final class AiServer {
+
+    private static final String VIRTUAL_EXECUTOR = "newVirtualThreadPerTaskExecutor";
+
+    /**
+     * What every session of a server joins with
+     */
+    static final class Options {
+        final ImmutableValueGraph<Integer, ImmutableSet<ScotlandYard.Transport>> graph;
+        final String displayName;
+        final String username;
+        final String password;
+        final int games;  // per session, 0 for no limit
+
+        Options(@Nonnull ImmutableValueGraph<Integer, ImmutableSet<ScotlandYard.Transport>> graph,
+                @Nonnull String displayName, @Nonnull String username, @Nonnull String password, int games) {
+            this.graph = graph;
+            this.displayName = displayName;
+            this.username = username;
+            this.password = password;
+            this.games = games;
+        }
+    }
+
+    private final String uri;
+    private final int sessions;
+    private final Options options;
+    private final SearchPool pool;
+    private final ExecutorService sessionThreads = sessionExecutor();
+    private int played;
+    private int won;
+
+    /**
+     * @param searchers searches running at once
+     * @param queue     searches waiting for a searcher; at most {@code searchers + queue} games are
+     *                  played at once
+     */
+    public AiServer(@Nonnull String uri, int sessions, @Nonnull String displayName, @Nonnull String username,
+                    @Nonnull String password, int games, int searchers, int queue) throws IOException {
+        if (sessions < 1) throw new IllegalArgumentException("Need at least one session");
+        this.uri = uri;
+        this.sessions = sessions;
+        this.options = new Options(ScotlandYard.standardGraph(), displayName, username, password, games);
+        this.pool = new SearchPool(searchers, queue);
+    }
+
+    public static void main(String[] args) throws Exception {
+        String uri = null;
+        int local = 0;
+        long timeout = 2000;
+        int sessions = 8;
+        String name = "AI";
+        String username = "ai";
+        String password = "";
+        int games = 0;
+        int searchers = Runtime.getRuntime().availableProcessors();
+        int queue = -1;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            final String value = args[i + 1];
+            switch (args[i]) {
+                case "--uri":
+                    uri = value;
+                    break;
+                case "--local":
+                    local = Integer.parseInt(value);
+                    break;
+                case "--timeout":
+                    timeout = Long.parseLong(value);
+                    break;
+                case "--sessions":
+                    sessions = Integer.parseInt(value);
+                    break;
+                case "--name":
+                    name = value;
+                    break;
+                case "--username":
+                    username = value;
+                    break;
+                case "--password":
+                    password = value;
+                    break;
+                case "--games":
+                    games = Integer.parseInt(value);
+                    break;
+                case "--searchers":
+                    searchers = Integer.parseInt(value);
+                    break;
+                case "--queue":
+                    queue = Integer.parseInt(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        if (args.length % 2 != 0)
+            throw new IllegalArgumentException("Option " + args[args.length - 1] + " has no value");
+        if ((uri == null) == (local == 0))
+            throw new IllegalArgumentException("Give either --uri or --local");
+        if (queue < 0) queue = searchers;
+        // the local judge pairs our own sessions, so a game there holds a game permit for each side
+        if (local != 0 && searchers + queue < 2)
+            throw new IllegalArgumentException("--local needs --searchers and --queue to add up to 2 or more");
+        defaultProperty("scotlandyard.ai.threads", "1");
+        defaultProperty("scotlandyard.ai.ttMegabytes", "16");
+        // a pondering thread per game would run outside the pool and take its cores
+        defaultProperty("scotlandyard.ai.ponder", "false");
+
+        final LocalJudge judge = local == 0 ? null : LocalJudge.start(local, Duration.ofMillis(timeout), 0);
+        final AiServer server = new AiServer(judge == null ? uri : judge.uri(), sessions, name, username, password,
+                games, searchers, queue);
+        try {
+            server.run();
+            System.out.println(server.summary());
+        } finally {
+            server.close();
+            if (judge != null) judge.close();
+        }
+    }
+
+    private static void defaultProperty(String key, String value) {
+        if (System.getProperty(key) == null) System.setProperty(key, value);
+    }
+
+    /**
+     * A thread per session: virtual where the runtime has them, platform threads otherwise, which
+     * spend their time waiting on the inbox or the pool and cost only their stacks.
+     */
+    private static ExecutorService sessionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod(VIRTUAL_EXECUTOR).invoke(null);
+        } catch (ReflectiveOperationException e) {
+            final AtomicInteger count = new AtomicInteger();
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "session-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Connects every session and waits until all of them have closed.
+     */
+    public void run() throws InterruptedException, URISyntaxException, DeploymentException, ExecutionException {
+        final List<GameSession> started = new ArrayList<>(sessions);
+        for (int i = 0; i < sessions; i++) {
+            final GameSession session = new GameSession("session-" + (i + 1), options, pool);
+            sessionThreads.execute(session);
+            started.add(session);
+            WebSockets.connect(uri, null, KryoCodec.KRYO_CEC, session).get();
+        }
+        for (GameSession session : started) {
+            session.await();
+        }
+        played = started.stream().mapToInt(GameSession::played).sum();
+        won = started.stream().mapToInt(GameSession::won).sum();
+    }
+
+    @Nonnull
+    public String summary() {
+        return String.format("%d games, %d won; %s", played, won, pool.summary());
+    }
+
+    public void close() {
+        sessionThreads.shutdownNow();
+        pool.close();
+    }
+}
@@ -0,0 +1,127 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import uk.ac.bris.cs.scotlandyard.model.Board;
+import uk.ac.bris.cs.scotlandyard.model.Move;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Iterative deepening alpha-beta on a {@link GameTree}. Hidden Mr X locations are handled by
+ * searching a few of his possible locations separately and voting; the detectives' plan for the rest
+ * of the round comes from the transposition table of the winning location's search.
+ */
+public final class AlphaBetaEngine implements SearchEngine {
+
+    private final GameTree gameTree = new GameTree();
+    private final Random random = new Random();
+    private final Ponderer ponderer = SearchConfig.ponder()
+            ? new Ponderer(gameTree.getTable(), Math.max(1, SearchConfig.determinizations()))
+            : null;
+    private SearchReport lastReport;
+    private int searchedDepth = Integer.MAX_VALUE;  // completed by the last turn that searched
+    private final List<SearchState> predicted = new ArrayList<>();
+
+    @Nonnull
+    @Override
+    public Move pickMove(@Nonnull Board board, @Nonnull SearchClock clock) {
+        return planRound(board, clock).get(0);
+    }
+
+    @Nonnull
+    @Override
+    public List<Move> planRound(@Nonnull Board board, @Nonnull SearchClock clock) {
+        if (ponderer != null) ponderer.stop();
+        predicted.clear();
+        final List<Move> plan = search(board, clock, searchedDepth);
+        lastReport = gameTree.takeReport(clock);
+        if (lastReport.getSearches() > 0) searchedDepth = lastReport.getDepth();
+        if (ponderer != null) {
+            // each position gets about as long as this turn took, the last one until the next turn
+            ponderer.start(predicted, clock.elapsed(TimeUnit.NANOSECONDS));
+        }
+        return plan;
+    }
+
+    @Nullable
+    @Override
+    public SearchReport lastReport() {
+        return lastReport;
+    }
+
+    /**
+     * @param depth depth the previous turn completed, which a pondered move must match to be played
+     */
+    private List<Move> search(Board board, SearchClock clock, int depth) {
+        gameTree.getTable().newSearch();
+        final Move any = board.getAvailableMoves().iterator().next();
+        if (any.commencedBy().isMrX()) {
+            // MrX always knows where he is: it is the source of any of his moves
+            final SearchState root = SearchState.fromBoard(board, any.source());
+            final int pondered = ponderer == null ? Moves.NONE : ponderer.take(root, depth);
+            final int best = pondered != Moves.NONE ? pondered : gameTree.search(root, true, clock);
+            predict(root, best);
+            return List.of(Moves.toMove(best, root));
+        }
+
+        // search a few of Mr X's possible locations as if he were known to be there, then vote
+        final int[] candidates = MrXBelief.fromBoard(board).sample(SearchConfig.determinizations(), random);
+        if (candidates.length == 0) {
+            // the log contradicts the board; search blind like before Mr X's first reveal
+            final SearchState root = SearchState.fromBoard(board, board.getSetup().graph.nodes().iterator().next());
+            return decode(gameTree.plan(root, gameTree.search(root, false, clock), false), root);
+        }
+        final Map<Move, Integer> votes = new LinkedHashMap<>();
+        final Map<Move, int[]> plans = new HashMap<>();
+        final SearchState[] roots = new SearchState[candidates.length];
+        for (int i = 0; i < candidates.length; i++) {
+            final SearchState root = SearchState.fromBoard(board, candidates[i]);
+            roots[i] = root;
+            final int best = gameTree.search(root, true, clock.slice(candidates.length - i));
+            final Move move = Moves.toMove(best, root);
+            votes.merge(move, 1, Integer::sum);
+            // the first location voting for a move also decides how the round continues after it
+            plans.computeIfAbsent(move, m -> gameTree.plan(root, best, true));
+        }
+        // ties go to the move voted for first
+        final int[] plan = plans.get(votes.entrySet().stream()
+                .reduce((a, b) -> b.getValue() > a.getValue() ? b : a)
+                .orElseThrow()
+                .getKey());
+        // Mr X's reply is unknown, so each location is pondered from his turn, which covers them all
+        for (SearchState root : roots) {
+            final SearchState after = root.copy();
+            for (int move : plan) {
+                after.make(move);
+            }
+            if (after.winner() == SearchState.NO_WINNER && after.isMrXTurn()) predicted.add(after);
+        }
+        return decode(plan, roots[0]);
+    }
+
+    /* adds the position Mr X expects to move from next, or the detectives' turn if the reply is unknown */
+    private void predict(SearchState root, int best) {
+        final SearchState next = gameTree.predict(root, best, true);
+        if (next != null) predicted.add(next);
+    }
+
+    private static List<Move> decode(int[] moves, SearchState root) {
+        final List<Move> decoded = new ArrayList<>(moves.length);
+        for (int move : moves) {
+            decoded.add(Moves.toMove(move, root));
+        }
+        return decoded;
+    }
+
+    @Override
+    public void close() {
+        if (ponderer != null) ponderer.close();
+    }
+}
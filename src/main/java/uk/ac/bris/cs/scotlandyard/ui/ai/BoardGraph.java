@@ -0,0 +1,151 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.MapMaker;
+import com.google.common.graph.ImmutableValueGraph;
+import uk.ac.bris.cs.scotlandyard.model.GameSetup;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Transport;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Primitive adjacency tables for the board graph, built once per graph and shared like
+ * {@link DistanceOracle}. Move generation walks these arrays instead of querying the Guava graph.
+ */
+public final class BoardGraph {
+
+    /**
+     * Encoded moves store locations in 8 bits, see {@link Moves}
+     */
+    public static final int MAX_NODES = 256;
+
+    /**
+     * Longs in a bitset over every possible node, see {@link MrXBelief}
+     */
+    public static final int WORDS = MAX_NODES / Long.SIZE;
+
+    private static final ConcurrentMap<ImmutableValueGraph<Integer, ImmutableSet<Transport>>, BoardGraph> CACHE =
+            new MapMaker().weakKeys().makeMap();
+
+    private final int size;
+    private final int[][] neighbours;  // every neighbour, which is where a secret ticket can go
+    private final int[][][] byTicket;  // byTicket[ticket ordinal][node], empty for double and secret
+    private final long[][] masks;      // masks[ticket ordinal] holds WORDS longs per node, secret is every neighbour
+    private final int[] ticketMasks;   // bit per ticket ordinal that takes a piece anywhere from the node
+
+    private BoardGraph(@Nonnull ImmutableValueGraph<Integer, ImmutableSet<Transport>> graph) {
+        this.size = graph.nodes().stream().mapToInt(Integer::intValue).max().orElse(0) + 1;
+        if (size > MAX_NODES)
+            throw new IllegalArgumentException("Graphs with more than " + (MAX_NODES - 1) + " nodes are not supported");
+        this.neighbours = new int[size][0];
+        this.byTicket = new int[Ticket.values().length][size][0];
+        for (int node : graph.nodes()) {
+            neighbours[node] = graph.adjacentNodes(node).stream().mapToInt(Integer::intValue).toArray();
+            for (Ticket ticket : new Ticket[]{Ticket.TAXI, Ticket.BUS, Ticket.UNDERGROUND}) {
+                byTicket[ticket.ordinal()][node] = graph.adjacentNodes(node).stream()
+                        .filter(n -> graph.edgeValueOrDefault(node, n, ImmutableSet.of()).stream()
+                                .anyMatch(t -> t.requiredTicket() == ticket))
+                        .mapToInt(Integer::intValue)
+                        .toArray();
+            }
+        }
+        this.masks = new long[Ticket.values().length][size * WORDS];
+        for (int node = 0; node < size; node++) {
+            for (Ticket ticket : new Ticket[]{Ticket.TAXI, Ticket.BUS, Ticket.UNDERGROUND, Ticket.SECRET}) {
+                for (int n : neighbours(node, ticket.ordinal())) {
+                    masks[ticket.ordinal()][node * WORDS + (n >>> 6)] |= 1L << n;
+                }
+            }
+        }
+        this.ticketMasks = new int[size];
+        for (int node = 0; node < size; node++) {
+            for (Ticket ticket : new Ticket[]{Ticket.TAXI, Ticket.BUS, Ticket.UNDERGROUND, Ticket.SECRET}) {
+                if (neighbours(node, ticket.ordinal()).length > 0) ticketMasks[node] |= 1 << ticket.ordinal();
+            }
+        }
+    }
+
+    /**
+     * @return the shared tables for the graph of the given setup, building them on first use
+     */
+    @Nonnull
+    public static BoardGraph of(@Nonnull GameSetup setup) {
+        return CACHE.computeIfAbsent(setup.graph, BoardGraph::new);
+    }
+
+    /**
+     * @return the largest node + 1; locations start from 1
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return every node adjacent to {@code node}; callers must not modify the array
+     */
+    public int[] neighbours(int node) {
+        return neighbours[node];
+    }
+
+    /**
+     * @return the nodes reachable from {@code node} with one ticket of the given kind (by ordinal);
+     * callers must not modify the array
+     */
+    public int[] neighbours(int node, int ticket) {
+        return ticket == Ticket.SECRET.ordinal() ? neighbours[node] : byTicket[ticket][node];
+    }
+
+    /**
+     * ORs the nodes reachable from {@code node} with one ticket of the given kind into a bitset of
+     * {@link #WORDS} longs
+     */
+    public void addNeighbours(int node, int ticket, long[] into) {
+        final long[] mask = masks[ticket];
+        final int base = node * WORDS;
+        for (int w = 0; w < WORDS; w++) {
+            into[w] |= mask[base + w];
+        }
+    }
+
+    /**
+     * @return a bit per ticket ordinal with an edge from {@code node}, whether or not its end is free;
+     * a piece holding none of these tickets cannot move from the node
+     */
+    public int ticketMask(int node) {
+        return ticketMasks[node];
+    }
+
+    /**
+     * @param occupied bitset of the taken nodes, at least {@code (size() + 63) / 64} longs
+     * @return whether one ticket of the given kind (by ordinal) takes a piece from {@code node} to a
+     * node not in {@code occupied}
+     */
+    public boolean hasFreeNeighbour(int node, int ticket, long[] occupied) {
+        final long[] mask = masks[ticket];
+        final int base = node * WORDS;
+        final int words = Math.min(WORDS, occupied.length);
+        for (int w = 0; w < words; w++) {
+            if ((mask[base + w] & ~occupied[w]) != 0) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return a hash of the setup's board and game length, which is all a stored result depends on
+     * besides the position; files of results keep it to tell whether they still apply
+     */
+    static long fingerprint(@Nonnull GameSetup setup) {
+        final BoardGraph graph = of(setup);
+        long h = setup.moves.size() * 0x9E37_79B9_7F4A_7C15L;
+        for (int node = 0; node < graph.size; node++) {
+            for (Ticket ticket : new Ticket[]{Ticket.TAXI, Ticket.BUS, Ticket.UNDERGROUND}) {
+                for (int n : graph.neighbours(node, ticket.ordinal())) {
+                    h = (h ^ (node * 1_000_003L + n * 31L + ticket.ordinal())) * 0xBF58_476D_1CE4_E5B9L;
+                }
+            }
+        }
+        return h;
+    }
+}
@@ -3,19 +3,36 @@ package uk.ac.bris.cs.scotlandyard.ui.ai;
 import io.atlassian.fugue.Pair;
 import uk.ac.bris.cs.scotlandyard.model.Ai;
 import uk.ac.bris.cs.scotlandyard.model.Board;
-import uk.ac.bris.cs.scotlandyard.model.LogEntry;
 import uk.ac.bris.cs.scotlandyard.model.Move;
 
 import javax.annotation.Nonnull;
-import java.util.Comparator;
-import java.util.Optional;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
-import java.util.function.BiFunction;
 
 public class DetectivesAI implements Ai {
 
-    private GameTree gameTree;
+    private final SearchConfig.Engine kind;  // null to read it from the configuration on start
+    private SearchEngine engine;
+    private OpeningBook book;
+    private final SearchMetrics metrics = SearchMetrics.forSide("Detectives");
 
+    // the rest of the detectives' joint move for the round being played
+    private final Deque<Move> planned = new ArrayDeque<>();
+    private int plannedRound = -1;
+
+
+    public DetectivesAI() {
+        this.kind = null;
+    }
+
+    /**
+     * @param kind engine to play with, instead of {@link SearchConfig#detectivesEngine()}
+     */
+    public DetectivesAI(@Nonnull SearchConfig.Engine kind) {
+        this.kind = kind;
+    }
 
     @Nonnull
     @Override
@@ -26,61 +43,39 @@ public class DetectivesAI implements Ai {
     @Nonnull
     @Override
     public Move pickMove(@Nonnull Board board, Pair<Long, TimeUnit> timeoutPair) {
-        final long startTime = System.currentTimeMillis();
-        final long oneSecond = 1000;
-
-        // Contains the last revealed location of MrX. If no location has yet been
-        // revealed, then empty
-        final Optional<Integer> mrXLocation = board.getMrXTravelLog()
-                .stream()
-                .map(LogEntry::location)
-                .filter(Optional::isPresent)
-                .reduce((fst, snd) -> snd) // take last element of (finite) stream
-                .flatMap(lastLocation -> board.getSetup().moves.get(board.getMrXTravelLog().size() - 1) // predict the possible current location
-                        ? lastLocation
-                        : new ImmutableGameState(board, lastLocation.get()).getSetup().graph.adjacentNodes(lastLocation.get())
-                        .stream()
-                        .findAny()  // get a random adjacent location
-                );
-
-
-        BiFunction<Integer, Move, Double> score = (Integer d, Move m) -> gameTree.itNegaMax(
-                new ImmutableGameState(board, mrXLocation.orElse(1)).newState(m),
-                d, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, mrXLocation, startTime, timeoutPair);
-
-        Move move = null;
-        for (int d = 0; d < 4; d++) {
-            long curTime = System.currentTimeMillis();  // check if almost timeOut
-            if (timeoutPair.left() * 1000 - (curTime - startTime) < oneSecond) {
-                break;
-            }
-
-            // due to Java loop mechanics, d is not final, but we need finally typed value
-            final Integer depth = d;
-            move = board
-                    .getAvailableMoves()
-                    .stream()
-                    .parallel()
-                    .min(Comparator.comparingDouble(m -> score.apply(depth, m)))
-                    .get();
+        // the whole round is planned once, then handed out one detective at a time
+        final int round = board.getMrXTravelLog().size();
+        if (round == plannedRound && !planned.isEmpty() && board.getAvailableMoves().contains(planned.peek())) {
+            final Move move = planned.poll();
+            SnapshotLog.record(board, move, timeoutPair, null);
+            return move;
         }
-
-        try {
-            assert move != null;
-        } catch (NullPointerException e) {
-            System.out.println(e.getMessage() + " in detectives AI");
+        final Move known = book == null ? null : book.lookup(board);
+        if (known != null) {
+            planned.clear();
+            SnapshotLog.record(board, known, timeoutPair, null);
+            return known;
         }
-
-        return move;
+        final List<Move> plan = engine.planRound(board, SearchClock.start(timeoutPair));
+        planned.clear();
+        planned.addAll(plan.subList(1, plan.size()));
+        plannedRound = round;
+        metrics.record(engine.lastReport(), plan.get(0));
+        SnapshotLog.record(board, plan.get(0), timeoutPair, engine.lastReport());
+        return plan.get(0);
     }
 
     @Override
     public void onStart() {
-        this.gameTree = new GameTree();
+        this.engine = SearchEngine.create(kind != null ? kind : SearchConfig.detectivesEngine());
+        this.book = OpeningBook.shared();
+        planned.clear();
+        plannedRound = -1;
     }
 
     @Override
     public void onTerminate() {
+        engine.close();
     }
 
 }
@@ -0,0 +1,258 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.MapMaker;
+import com.google.common.graph.ImmutableValueGraph;
+import uk.ac.bris.cs.scotlandyard.model.Board;
+import uk.ac.bris.cs.scotlandyard.model.GameSetup;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Transport;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * All-pairs shortest path lengths over the board graph. Every edge has unit weight, so the table is
+ * filled by running one BFS per node when the graph is first seen. Instances are immutable and are
+ * shared by both AIs and every search thread through {@link #of(GameSetup)}.
+ * <p>
+ * Besides the plain distances, the oracle keeps one table per {@link Transport} and answers
+ * ticket-constrained queries ("how many moves from A to B with these tickets"). Those are solved by
+ * a BFS over (node, remaining tickets) and memoised per source and ticket bucket, where every count
+ * at or above {@link #TICKET_CAP} is treated as unlimited. A row is allocated when it is first filled,
+ * so the memo only grows with the queries the search actually makes, and each thread runs its BFS in
+ * scratch space of its own, so a query answered from the memo in the middle of a search, as
+ * {@link SearchState#make(int)} makes most of them, never allocates.
+ */
+public final class DistanceOracle {
+
+    /**
+     * Distance reported between two nodes with no path between them
+     */
+    public static final int UNREACHABLE = Byte.MAX_VALUE;
+
+    /**
+     * Ticket counts at or above this value are treated as unlimited by ticket-constrained queries
+     */
+    public static final int TICKET_CAP = 4;
+
+    // the tickets a player can actually travel with, in the order they are bucketed
+    private static final Ticket[] TRAVEL_TICKETS = {Ticket.TAXI, Ticket.BUS, Ticket.UNDERGROUND, Ticket.SECRET};
+    private static final int LEVELS = TICKET_CAP + 1;
+    private static final int BUCKETS = LEVELS * LEVELS * LEVELS * LEVELS;
+    private static final int SECRET_MASK = 1 << (TRAVEL_TICKETS.length - 1); // secret works on any edge
+
+    // keyed on graph identity; the graph of a GameSetup never changes during a game
+    private static final ConcurrentMap<ImmutableValueGraph<Integer, ImmutableSet<Transport>>, DistanceOracle> CACHE =
+            new MapMaker().weakKeys().makeMap();
+
+    private final int size;                // locations start from 1, so this is the largest node + 1
+    private final int[][] adjacency;       // adjacency[node] = neighbours of node
+    private final int[][] edgeTickets;     // edgeTickets[node][i] = bitmask of TRAVEL_TICKETS usable on that edge
+    private final byte[] distances;        // row-major size * size table
+    private final byte[][] transportDistances;
+    private final AtomicReferenceArray<byte[]> ticketDistances;  // by source * BUCKETS + bucket, null until filled
+
+    private DistanceOracle(@Nonnull ImmutableValueGraph<Integer, ImmutableSet<Transport>> graph) {
+        this.size = graph.nodes().stream().mapToInt(Integer::intValue).max().orElse(0) + 1;
+        this.adjacency = new int[size][0];
+        this.edgeTickets = new int[size][0];
+        int[][][] transportAdjacency = new int[Transport.values().length][size][0];
+        for (int node : graph.nodes()) {
+            adjacency[node] = graph.adjacentNodes(node).stream().mapToInt(Integer::intValue).toArray();
+            edgeTickets[node] = new int[adjacency[node].length];
+            for (int i = 0; i < adjacency[node].length; i++) {
+                for (Transport t : graph.edgeValueOrDefault(node, adjacency[node][i], ImmutableSet.of())) {
+                    edgeTickets[node][i] |= 1 << travelIndex(t.requiredTicket());
+                }
+            }
+            for (Transport t : Transport.values()) {
+                transportAdjacency[t.ordinal()][node] = graph.adjacentNodes(node).stream()
+                        .filter(n -> graph.edgeValueOrDefault(node, n, ImmutableSet.of()).contains(t))
+                        .mapToInt(Integer::intValue)
+                        .toArray();
+            }
+        }
+
+        this.distances = allPairs(graph, adjacency);
+        this.transportDistances = new byte[Transport.values().length][];
+        for (Transport t : Transport.values()) {
+            transportDistances[t.ordinal()] = allPairs(graph, transportAdjacency[t.ordinal()]);
+        }
+        this.ticketDistances = new AtomicReferenceArray<>(size * BUCKETS);
+    }
+
+    /* BFS space of one thread, reused for every row it fills and only grown for a larger board */
+    private static final class Scratch {
+        int[] reached = new int[0];  // generation in which each (node, bucket) state was last queued
+        int[] queue = new int[0];
+        byte[] row = new byte[0];
+        final int[] counts = new int[TRAVEL_TICKETS.length];
+        int generation;
+
+        void fit(int size) {
+            if (row.length >= size) return;
+            reached = new int[size * BUCKETS];
+            queue = new int[size * BUCKETS];
+            row = new byte[size];
+            generation = 0;
+        }
+
+        int nextGeneration() {
+            if (++generation == 0) {
+                Arrays.fill(reached, 0);
+                generation = 1;
+            }
+            return generation;
+        }
+    }
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private byte[] allPairs(ImmutableValueGraph<Integer, ImmutableSet<Transport>> graph, int[][] adjacent) {
+        byte[] table = new byte[size * size];
+        Arrays.fill(table, (byte) UNREACHABLE);
+        int[] queue = new int[size];
+        for (int source : graph.nodes()) {
+            final int row = source * size;
+            table[row + source] = 0;
+            int head = 0, tail = 0;
+            queue[tail++] = source;
+            while (head < tail) {
+                int node = queue[head++];
+                int next = table[row + node] + 1;
+                for (int n : adjacent[node]) {
+                    if (table[row + n] == UNREACHABLE) {
+                        table[row + n] = (byte) Math.min(next, UNREACHABLE - 1);
+                        queue[tail++] = n;
+                    }
+                }
+            }
+        }
+        return table;
+    }
+
+    private static int travelIndex(Ticket ticket) {
+        for (int i = 0; i < TRAVEL_TICKETS.length; i++) {
+            if (TRAVEL_TICKETS[i] == ticket) return i;
+        }
+        throw new IllegalArgumentException(ticket + " cannot be used to travel");
+    }
+
+    private static int bucket(int taxi, int bus, int underground, int secret) {
+        return ((Math.min(taxi, TICKET_CAP) * LEVELS
+                + Math.min(bus, TICKET_CAP)) * LEVELS
+                + Math.min(underground, TICKET_CAP)) * LEVELS
+                + Math.min(secret, TICKET_CAP);
+    }
+
+    /* multi-criteria BFS over (node, bucketed tickets); the first time a node is reached in any
+     * ticket state is its constrained distance. Racing threads fill a row with the same bytes, so
+     * either may publish it.
+     */
+    private byte[] fillTicketRow(int index) {
+        final int source = index / BUCKETS;
+        final int bucket = index % BUCKETS;
+        final Scratch scratch = SCRATCH.get();
+        scratch.fit(size);
+        final byte[] row = scratch.row;
+        final int[] reached = scratch.reached;
+        final int[] queue = scratch.queue;
+        final int[] counts = scratch.counts;
+        final int mark = scratch.nextGeneration();
+        Arrays.fill(row, 0, size, (byte) UNREACHABLE);
+
+        int head = 0, tail = 0;
+        queue[tail++] = source * BUCKETS + bucket;
+        reached[source * BUCKETS + bucket] = mark;
+        row[source] = 0;
+        for (int depth = 1; head < tail; depth++) {
+            final int levelEnd = tail;
+            while (head < levelEnd) {
+                int state = queue[head++];
+                int node = state / BUCKETS;
+                int b = state % BUCKETS;
+                for (int i = counts.length - 1; i >= 0; i--) {
+                    counts[i] = b % LEVELS;
+                    b /= LEVELS;
+                }
+                for (int i = 0; i < adjacency[node].length; i++) {
+                    int mask = edgeTickets[node][i] | SECRET_MASK;
+                    for (int t = 0; t < counts.length; t++) {
+                        if ((mask & (1 << t)) == 0 || counts[t] == 0) continue;
+                        int used = counts[t] == TICKET_CAP ? TICKET_CAP : counts[t] - 1;
+                        int next = adjacency[node][i] * BUCKETS + with(counts, t, used);
+                        if (reached[next] == mark) continue;
+                        reached[next] = mark;
+                        queue[tail++] = next;
+                        if (row[adjacency[node][i]] == UNREACHABLE) {
+                            row[adjacency[node][i]] = (byte) Math.min(depth, UNREACHABLE - 1);
+                        }
+                    }
+                }
+            }
+        }
+        final byte[] filled = Arrays.copyOf(row, size);
+        ticketDistances.set(index, filled);
+        return filled;
+    }
+
+    private static int with(int[] counts, int index, int value) {
+        int b = 0;
+        for (int i = 0; i < counts.length; i++) {
+            b = b * LEVELS + (i == index ? value : counts[i]);
+        }
+        return b;
+    }
+
+    /**
+     * @return the shared table for the graph of the given setup, computing it on first use
+     */
+    @Nonnull
+    public static DistanceOracle of(@Nonnull GameSetup setup) {
+        return CACHE.computeIfAbsent(setup.graph, DistanceOracle::new);
+    }
+
+    /**
+     * @return the minimum number of moves from {@code from} to {@code to}, ignoring tickets
+     */
+    public int distance(int from, int to) {
+        return distances[from * size + to];
+    }
+
+    /**
+     * @return the minimum number of moves from {@code from} to {@code to} using only edges of the
+     * given transport
+     */
+    public int distance(@Nonnull Transport transport, int from, int to) {
+        return transportDistances[transport.ordinal()][from * size + to];
+    }
+
+    /**
+     * @return the minimum number of moves from {@code from} to {@code to} for a player holding the
+     * given ticket counts; double tickets are ignored as they do not shorten the path
+     */
+    public int distance(int from, int to, int taxi, int bus, int underground, int secret) {
+        final int index = from * BUCKETS + bucket(taxi, bus, underground, secret);
+        byte[] row = ticketDistances.get(index);
+        if (row == null) row = fillTicketRow(index);
+        return row[to];
+    }
+
+    /**
+     * @see #distance(int, int, int, int, int, int)
+     */
+    public int distance(int from, int to, @Nonnull Board.TicketBoard tickets) {
+        return distance(from, to,
+                tickets.getCount(Ticket.TAXI),
+                tickets.getCount(Ticket.BUS),
+                tickets.getCount(Ticket.UNDERGROUND),
+                tickets.getCount(Ticket.SECRET));
+    }
+
+    public int size() {
+        return size;
+    }
+}
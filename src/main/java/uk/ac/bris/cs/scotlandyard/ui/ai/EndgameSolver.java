@@ -0,0 +1,149 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Exact win/loss solver for positions in the last {@link SearchConfig#endgameRounds()} rounds with
+ * Mr X's location known. Solving every such position backwards from the end is out of reach (there
+ * are billions of detective placements), so positions are solved when the search first meets them and
+ * the results are kept in an {@link EndgameTable}, which may persist between games.
+ * <p>
+ * The solver is a plain AND/OR search to the end of the game with no evaluation: the side to move
+ * wins if any move wins. Unlike the alpha-beta search it tries every detective in every order, as the
+ * order decides which nodes are free, and it does not prune crowded moves. A solve gives up once it
+ * has visited its node budget or the clock runs out; whatever subtrees it finished stay solved.
+ */
+final class EndgameSolver {
+
+    private final EndgameTable table;
+    private final int rounds;
+    private final long maxNodes;
+    private final MoveBuffer moves = new MoveBuffer(1024);
+    private int[] keys = new int[1024];  // ordering keys, parallel to the move buffer
+    private long budget;
+    private boolean gaveUp;
+
+    EndgameSolver(@Nonnull EndgameTable table, int rounds, long maxNodes) {
+        this.table = table;
+        this.rounds = rounds;
+        this.maxNodes = maxNodes;
+    }
+
+    EndgameTable getTable() {
+        return table;
+    }
+
+    /**
+     * @return whether the position is close enough to the end to be solved or probed
+     */
+    boolean covers(@Nonnull SearchState state) {
+        return state.getSetup().moves.size() - state.logSize() <= rounds;
+    }
+
+    /**
+     * Looks for a move that wins by force for the side to move.
+     *
+     * @param context counts the nodes visited and checks the clock, as in the search
+     * @return the winning move, or {@link Moves#NONE} if there is none or the position could not be
+     * solved in time
+     */
+    int winningMove(@Nonnull SearchState root, @Nonnull SearchContext context, @Nonnull SearchClock clock) {
+        budget = context.nodes + maxNodes;
+        gaveUp = false;
+        final int side = root.isMrXTurn() ? SearchState.MRX_WINS : SearchState.DETECTIVES_WIN;
+        final int first = moves.size();
+        final int last = first + root.generateMoves(moves);
+        order(root, first, last);
+        int winning = Moves.NONE;
+        for (int i = first; i < last && winning == Moves.NONE && !gaveUp; i++) {
+            final int move = moves.get(i);
+            root.make(move);
+            if (solve(root, context, clock) == side) winning = move;
+            root.unmake(move);
+        }
+        moves.release(first);
+        return winning;
+    }
+
+    /**
+     * @return the winner with best play, or {@link SearchState#NO_WINNER} if the solver gave up
+     */
+    private int solve(SearchState state, SearchContext context, SearchClock clock) {
+        if (gaveUp || clock.shouldAbort(context) || context.nodes > budget) {
+            gaveUp = true;
+            return SearchState.NO_WINNER;
+        }
+        final int winner = state.winner();
+        if (winner != SearchState.NO_WINNER) return winner;
+        final long key = state.hash();
+        final int known = table.probe(key);
+        if (known != SearchState.NO_WINNER) return known;
+
+        final boolean mrX = state.isMrXTurn();
+        final int side = mrX ? SearchState.MRX_WINS : SearchState.DETECTIVES_WIN;
+        final int other = mrX ? SearchState.DETECTIVES_WIN : SearchState.MRX_WINS;
+        final int first = moves.size();
+        final int last = first + state.generateMoves(moves);
+        if (!mrX) {
+            // a capture ends the search at once
+            for (int i = first; i < last; i++) {
+                if (Moves.destination(moves.get(i)) == state.mrXLocation()) {
+                    moves.release(first);
+                    table.store(key, side);
+                    return side;
+                }
+            }
+        }
+        order(state, first, last);
+        int result = other;
+        for (int i = first; i < last; i++) {
+            final int move = moves.get(i);
+            state.make(move);
+            final int value = solve(state, context, clock);
+            state.unmake(move);
+            if (gaveUp) {
+                moves.release(first);
+                return SearchState.NO_WINNER;
+            }
+            if (value == side) {
+                result = side;
+                break;
+            }
+        }
+        moves.release(first);
+        table.store(key, result);
+        return result;
+    }
+
+    /**
+     * Sorts the moves in {@code [first, last)} so the likely winners come first: detectives closest to
+     * Mr X, Mr X furthest from the nearest detective with single moves before doubles. An insertion
+     * sort, as there are rarely more than a few dozen moves.
+     */
+    private void order(SearchState state, int first, int last) {
+        if (keys.length < last) keys = new int[Math.max(last, keys.length * 2)];
+        final DistanceOracle distances = state.getDistances();
+        for (int i = first; i < last; i++) {
+            final int move = moves.get(i);
+            final int destination = Moves.destination(move);
+            int key;
+            if (state.isMrXTurn()) {
+                key = DistanceOracle.UNREACHABLE;
+                for (int d = 1; d < state.playerCount(); d++) {
+                    key = Math.min(key, distances.distance(state.location(d), destination));
+                }
+                key = key * 2 + (Moves.isDouble(move) ? 0 : 1);
+            } else {
+                key = -distances.distance(destination, state.mrXLocation());
+            }
+            int j = i;
+            while (j > first && keys[j - 1] < key) {
+                keys[j] = keys[j - 1];
+                moves.set(j, moves.get(j - 1));
+                j--;
+            }
+            keys[j] = key;
+            moves.set(j, move);
+        }
+    }
+}
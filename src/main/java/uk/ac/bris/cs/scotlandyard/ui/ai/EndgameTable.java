@@ -0,0 +1,140 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import uk.ac.bris.cs.scotlandyard.model.GameSetup;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Solved endgame positions, keyed by {@link SearchState#hash()}, which is stable between runs. Each
+ * entry is a single long holding the key with the result in its two low bits, so an entry is written
+ * and read in one access and needs no locking; a torn entry fails the key check and reads as a miss.
+ * Entries are placed by open addressing over {@link #PROBES} slots.
+ * <p>
+ * The table is backed by the file named by {@link SearchConfig#endgameFile()} when set, memory
+ * mapped so that positions solved in one game are already known in the next, and by direct memory
+ * otherwise. A header records the board the results belong to; a file for another board or size
+ * starts over.
+ */
+public final class EndgameTable {
+
+    static final int PROBES = 8;
+
+    private static final long MAGIC = 0x5C07_1A4D_E4D6_0001L;
+    private static final int HEADER_LONGS = 4;   // magic, board fingerprint, capacity, unused
+    private static final long RESULT_MASK = 0x3L;
+
+    private static final Map<Long, EndgameTable> SHARED = new ConcurrentHashMap<>();
+
+    private final LongBuffer entries;
+    private final int capacity;
+
+    private EndgameTable(LongBuffer buffer, long fingerprint) {
+        this.capacity = buffer.capacity() - HEADER_LONGS;
+        if (capacity < PROBES)
+            throw new IllegalArgumentException("Endgame table needs at least " + PROBES + " entries");
+        if (buffer.get(0) != MAGIC || buffer.get(1) != fingerprint || buffer.get(2) != capacity) {
+            for (int i = 0; i < buffer.capacity(); i++) {
+                buffer.put(i, 0L);
+            }
+            buffer.put(1, fingerprint);
+            buffer.put(2, capacity);
+            buffer.put(0, MAGIC);
+        }
+        this.entries = buffer;
+    }
+
+    /**
+     * @param path      file to map, created if missing, or null to keep the table in memory
+     * @param megabytes size of the table
+     */
+    @Nonnull
+    public static EndgameTable open(@Nonnull GameSetup setup, @Nullable Path path, int megabytes) {
+        if (megabytes <= 0)
+            throw new IllegalArgumentException("Endgame table needs at least 1MB, got " + megabytes);
+        final long bytes = (long) megabytes * 1024 * 1024;
+        if (bytes > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Endgame table is limited to 2GB, got " + megabytes + "MB");
+        final long fingerprint = BoardGraph.fingerprint(setup);
+        if (path == null) {
+            return new EndgameTable(ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder())
+                    .asLongBuffer(), fingerprint);
+        }
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // the mapping stays valid after the channel is closed
+            return new EndgameTable(channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes)
+                    .order(ByteOrder.nativeOrder()).asLongBuffer(), fingerprint);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot map endgame table " + path, e);
+        }
+    }
+
+    /**
+     * @return the table for the setup's board configured by {@link SearchConfig}, shared by every
+     * search in the process
+     */
+    @Nonnull
+    public static EndgameTable shared(@Nonnull GameSetup setup) {
+        return SHARED.computeIfAbsent(BoardGraph.fingerprint(setup), f -> {
+            final String file = SearchConfig.endgameFile();
+            return open(setup, file == null ? null : Paths.get(file), SearchConfig.endgameMegabytes());
+        });
+    }
+
+    private int slot(long key, int probe) {
+        return HEADER_LONGS + (int) Long.remainderUnsigned(key + probe, capacity);
+    }
+
+    /**
+     * @return {@link SearchState#MRX_WINS}, {@link SearchState#DETECTIVES_WIN} or
+     * {@link SearchState#NO_WINNER} if the position has not been solved
+     */
+    public int probe(long key) {
+        final long stored = key & ~RESULT_MASK;
+        for (int probe = 0; probe < PROBES; probe++) {
+            final long entry = entries.get(slot(key, probe));
+            if (entry == 0) return SearchState.NO_WINNER;
+            if ((entry & ~RESULT_MASK) == stored) return (int) (entry & RESULT_MASK);
+        }
+        return SearchState.NO_WINNER;
+    }
+
+    /**
+     * Records the result of a solved position. When every slot for the key is taken the last one is
+     * replaced.
+     */
+    public void store(long key, int winner) {
+        if (winner != SearchState.MRX_WINS && winner != SearchState.DETECTIVES_WIN)
+            throw new IllegalArgumentException("Not a result: " + winner);
+        final long stored = key & ~RESULT_MASK;
+        int slot = slot(key, PROBES - 1);
+        for (int probe = 0; probe < PROBES; probe++) {
+            final int s = slot(key, probe);
+            final long entry = entries.get(s);
+            if (entry == 0 || (entry & ~RESULT_MASK) == stored) {
+                slot = s;
+                break;
+            }
+        }
+        entries.put(slot, stored | winner);
+    }
+
+    /**
+     * @return entries the table holds
+     */
+    public int capacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,420 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import uk.ac.bris.cs.scotlandyard.model.GameSetup;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Fits the {@link Evaluator} weights to the outcomes of recorded games, Texel style: the evaluation
+ * of a position, scaled by a constant K, goes through a logistic function to give the chance that
+ * Mr X wins, and the weights are moved to minimise the squared error of that chance against the
+ * result over every position. Unlike a chess evaluation this one is not 0 for an even game, so an
+ * offset is fitted along with the weights; it is not written, as adding a constant to every
+ * evaluation changes no move.
+ * <p>
+ * Positions come from {@link SnapshotLog} files written by {@link Tournament} with
+ * {@code --positions}, the only snapshots that know both Mr X's location and the winner; others are
+ * skipped, as are those with a detective next to Mr X, which the evaluation all but calls lost. The
+ * files are streamed in chunks, each chunk's features extracted in parallel by
+ * {@link Evaluator#features} on the position rebuilt as a {@link SearchState}, the engine's own
+ * evaluation path, and kept as floats, so that millions of positions fit in memory. K is fixed first,
+ * for the starting weights, then the weights of the features that vary in the data are fitted by
+ * Adam, each step's error and gradient summed in parallel. Run it as
+ * <pre>
+ * java -cp ... uk.ac.bris.cs.scotlandyard.ui.ai.EvaluationTuner --positions games.bin,more.bin \
+ *     --out weights.properties --iterations 2000
+ * </pre>
+ * and play with the result through {@code -Dscotlandyard.ai.weightsFile=weights.properties}. The
+ * starting weights are those of {@link SearchConfig#weights()}, so a fit can carry on from an earlier
+ * one.
+ */
+public final class EvaluationTuner {
+
+    private static final int F = Evaluator.FEATURES;
+    private static final int EXTRACT_THRESHOLD = 1 << 10;
+    private static final int SUM_THRESHOLD = 1 << 14;
+    private static final double BETA1 = 0.9;
+    private static final double BETA2 = 0.999;
+    private static final double EPSILON = 1e-8;
+
+    private final GameSetup setup;
+    private final ForkJoinPool pool;
+    private final int chunk;
+
+    // F features per position, then whether Mr X won it
+    private float[] features = new float[0];
+    private boolean[] mrXWon = new boolean[0];
+    private int size;
+    private long skipped;
+    private long decided;
+
+    /**
+     * @param threads fork-join parallelism of extraction and fitting
+     * @param chunk   snapshots read before their features are extracted
+     */
+    public EvaluationTuner(@Nonnull GameSetup setup, int threads, int chunk) {
+        if (threads < 1 || chunk < 1)
+            throw new IllegalArgumentException("Need at least one thread and a chunk of one position");
+        this.setup = setup;
+        this.pool = new ForkJoinPool(threads);
+        this.chunk = chunk;
+    }
+
+    public static void main(String[] args) throws IOException {
+        final List<Path> files = new ArrayList<>();
+        Path out = Paths.get("weights.properties");
+        int iterations = 1000;
+        double rate = 0.01;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int chunk = 1 << 16;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            final String value = args[i + 1];
+            switch (args[i]) {
+                case "--positions":
+                    for (String file : value.split(",")) {
+                        files.add(Paths.get(file.trim()));
+                    }
+                    break;
+                case "--out":
+                    out = Paths.get(value);
+                    break;
+                case "--iterations":
+                    iterations = Integer.parseInt(value);
+                    break;
+                case "--rate":
+                    rate = Double.parseDouble(value);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(value);
+                    break;
+                case "--chunk":
+                    chunk = Integer.parseInt(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        if (args.length % 2 != 0)
+            throw new IllegalArgumentException("Option " + args[args.length - 1] + " has no value");
+        if (files.isEmpty()) throw new IllegalArgumentException("No --positions to tune on");
+
+        final GameSetup setup = new GameSetup(ScotlandYard.standardGraph(), ScotlandYard.STANDARD24MOVES);
+        final EvaluationTuner tuner = new EvaluationTuner(setup, threads, chunk);
+        final long start = System.nanoTime();
+        for (Path file : files) {
+            tuner.load(file);
+        }
+        final double seconds = (System.nanoTime() - start) / 1e9;
+        final long read = tuner.size() + tuner.skipped + tuner.decided;
+        System.out.printf("%d positions read in %.1fs, %.0f per minute: %d kept, %d without Mr X or winner, "
+                + "%d decided%n", read, seconds, read / seconds * 60, tuner.size(), tuner.skipped, tuner.decided);
+        if (tuner.size() == 0) throw new IllegalArgumentException("No position knows Mr X's location and winner");
+
+        final double[] initial = SearchConfig.weights();
+        final double offset = tuner.centre(initial);
+        final double k = tuner.fitScale(initial, offset);
+        final double before = tuner.error(initial, offset, k);
+        final double[] fitted = tuner.fit(initial, k, iterations, rate);
+        final double after = tuner.error(Arrays.copyOf(fitted, F), fitted[F], k);
+        System.out.printf("K %.6f, offset %.2f -> %.2f, mean squared error %.6f -> %.6f%n", k, offset, fitted[F],
+                before, after);
+        for (int f = 0; f < F; f++) {
+            System.out.printf("  %-14s %12.4f -> %12.4f%n", Evaluator.NAMES[f], initial[f], fitted[f]);
+        }
+        write(out, Arrays.copyOf(fitted, F),
+                String.format("fitted by EvaluationTuner on %d positions of %s", tuner.size(), files),
+                String.format("K %.6f, mean squared error %.6f from %.6f", k, after, before));
+        System.out.println("Wrote " + out);
+    }
+
+    /**
+     * Streams the file's positions in and extracts their features.
+     *
+     * @throws IllegalArgumentException if the file holds positions of another board
+     */
+    public void load(@Nonnull Path file) {
+        final PositionSnapshot[] buffer = new PositionSnapshot[chunk];
+        final int[] count = {0};
+        SnapshotLog.stream(file, setup, snapshot -> {
+            if (snapshot.winner == SearchState.NO_WINNER || !snapshot.mrXKnown()) {
+                skipped++;
+                return;
+            }
+            buffer[count[0]++] = snapshot;
+            if (count[0] == buffer.length) {
+                extract(buffer, count[0]);
+                count[0] = 0;
+            }
+        });
+        extract(buffer, count[0]);
+    }
+
+    private void extract(PositionSnapshot[] buffer, int count) {
+        if (count == 0) return;
+        if ((long) size + count > Integer.MAX_VALUE / F)
+            throw new IllegalStateException("Too many positions to hold, tune on fewer files");
+        if (size + count > mrXWon.length) {
+            final int capacity = (int) Math.min(Integer.MAX_VALUE / F, Math.max(size + count, 2L * mrXWon.length));
+            features = Arrays.copyOf(features, capacity * F);
+            mrXWon = Arrays.copyOf(mrXWon, capacity);
+        }
+        pool.invoke(new Extract(buffer, 0, count, size));
+        Arrays.fill(buffer, 0, count, null);
+        // a detective next to Mr X makes a position decided rather than judged
+        int kept = size;
+        for (int i = size; i < size + count; i++) {
+            if (!finite(i)) continue;
+            System.arraycopy(features, i * F, features, kept * F, F);
+            mrXWon[kept++] = mrXWon[i];
+        }
+        decided += size + count - kept;
+        size = kept;
+    }
+
+    private boolean finite(int position) {
+        for (int f = 0; f < F; f++) {
+            if (!Float.isFinite(features[position * F + f])) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return positions loaded
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Extracts the features of a range of the buffer into the position arrays from {@code offset}.
+     */
+    @SuppressWarnings("serial")  // never serialized
+    private final class Extract extends RecursiveAction {
+
+        private final PositionSnapshot[] buffer;
+        private final int from;
+        private final int to;
+        private final int offset;
+
+        Extract(PositionSnapshot[] buffer, int from, int to, int offset) {
+            this.buffer = buffer;
+            this.from = from;
+            this.to = to;
+            this.offset = offset;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > EXTRACT_THRESHOLD) {
+                final int mid = (from + to) >>> 1;
+                invokeAll(new Extract(buffer, from, mid, offset), new Extract(buffer, mid, to, offset));
+                return;
+            }
+            final double[] scratch = new double[F];
+            for (int i = from; i < to; i++) {
+                final PositionSnapshot snapshot = buffer[i];
+                final SearchState state = snapshot.toSearchState(setup, 0);
+                Evaluator.features(state, true, scratch);
+                final int position = offset + i;
+                for (int f = 0; f < F; f++) {
+                    features[position * F + f] = (float) scratch[f];
+                }
+                // not a feature value, a mark for extract to drop the position
+                if (Evaluator.hasAdjacentDetective(state)) features[position * F] = Float.NaN;
+                mrXWon[position] = snapshot.winner == SearchState.MRX_WINS;
+            }
+        }
+    }
+
+    /**
+     * @param offset added to every evaluation
+     * @return mean squared error of the predicted chances of Mr X winning against the results
+     */
+    public double error(@Nonnull double[] weights, double offset, double k) {
+        return pool.invoke(new Sum(weights, offset, k, false, 0, size))[0] / size;
+    }
+
+    /**
+     * @return the offset that makes the mean evaluation 0
+     */
+    public double centre(@Nonnull double[] weights) {
+        double sum = 0.0;
+        for (int i = 0; i < size; i++) {
+            for (int f = 0; f < F; f++) {
+                sum += weights[f] * features[i * F + f];
+            }
+        }
+        return size == 0 ? 0.0 : -sum / size;
+    }
+
+    /**
+     * Finds the scale that makes the weights' evaluations the best predictors, by golden section
+     * search over its logarithm.
+     */
+    public double fitScale(@Nonnull double[] weights, double offset) {
+        final double ratio = (Math.sqrt(5) - 1) / 2;
+        double low = Math.log(1e-8);
+        double high = Math.log(10.0);
+        double a = high - ratio * (high - low);
+        double b = low + ratio * (high - low);
+        double errorA = error(weights, offset, Math.exp(a));
+        double errorB = error(weights, offset, Math.exp(b));
+        for (int i = 0; i < 50; i++) {
+            if (errorA < errorB) {
+                high = b;
+                b = a;
+                errorB = errorA;
+                a = high - ratio * (high - low);
+                errorA = error(weights, offset, Math.exp(a));
+            } else {
+                low = a;
+                a = b;
+                errorA = errorB;
+                b = low + ratio * (high - low);
+                errorB = error(weights, offset, Math.exp(b));
+            }
+        }
+        return Math.exp((low + high) / 2);
+    }
+
+    /**
+     * Fits the weights of the features that vary and the offset, for a fixed scale, starting from
+     * the offset that centres the evaluations. Steps are relative to the size of each weight, and of
+     * the offset to the scale, so that parameters of very different magnitudes move alike.
+     *
+     * @param rate fraction of a parameter's size moved per step
+     * @return the fitted weights, then the offset
+     */
+    @Nonnull
+    public double[] fit(@Nonnull double[] initial, double k, int iterations, double rate) {
+        final boolean[] varies = varies();
+        final double[] parameters = Arrays.copyOf(initial, F + 1);
+        parameters[F] = centre(initial);
+        final double[] step = new double[F + 1];
+        for (int f = 0; f < F; f++) {
+            step[f] = rate * Math.max(1.0, Math.abs(initial[f]));
+        }
+        step[F] = rate / k;
+        final double[] m = new double[F + 1];
+        final double[] v = new double[F + 1];
+        for (int t = 1; t <= iterations; t++) {
+            final double[] sums = pool.invoke(new Sum(parameters, parameters[F], k, true, 0, size));
+            for (int p = 0; p <= F; p++) {
+                if (!varies[p]) continue;
+                final double gradient = sums[1 + p] / size;
+                m[p] = BETA1 * m[p] + (1 - BETA1) * gradient;
+                v[p] = BETA2 * v[p] + (1 - BETA2) * gradient * gradient;
+                final double mHat = m[p] / (1 - Math.pow(BETA1, t));
+                final double vHat = v[p] / (1 - Math.pow(BETA2, t));
+                parameters[p] -= step[p] * mHat / (Math.sqrt(vHat) + EPSILON);
+                // a negative weight would reward the detectives for what the feature measures
+                if (p < F) parameters[p] = Math.max(0.0, parameters[p]);
+            }
+            if (t % 100 == 0) System.err.printf("iteration %d: error %.6f%n", t, sums[0] / size);
+        }
+        return parameters;
+    }
+
+    /* features that are the same in every position say nothing about the result; the offset always counts */
+    private boolean[] varies() {
+        final boolean[] varies = new boolean[F + 1];
+        varies[F] = true;
+        for (int i = 1; i < size; i++) {
+            for (int f = 0; f < F; f++) {
+                if (features[i * F + f] != features[f]) varies[f] = true;
+            }
+        }
+        return varies;
+    }
+
+    /**
+     * Sums the squared error over a range of positions and, if asked, its gradient in the weights and
+     * the offset.
+     */
+    @SuppressWarnings("serial")  // never serialized
+    private final class Sum extends RecursiveTask<double[]> {
+
+        private final double[] weights;
+        private final double offset;
+        private final double k;
+        private final boolean gradient;
+        private final int from;
+        private final int to;
+
+        Sum(double[] weights, double offset, double k, boolean gradient, int from, int to) {
+            this.weights = weights;
+            this.offset = offset;
+            this.k = k;
+            this.gradient = gradient;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected double[] compute() {
+            if (to - from > SUM_THRESHOLD) {
+                final int mid = (from + to) >>> 1;
+                final Sum right = new Sum(weights, offset, k, gradient, mid, to);
+                right.fork();
+                final double[] sums = new Sum(weights, offset, k, gradient, from, mid).compute();
+                final double[] other = right.join();
+                for (int i = 0; i < sums.length; i++) {
+                    sums[i] += other[i];
+                }
+                return sums;
+            }
+            final double[] sums = new double[F + 2];
+            for (int i = from; i < to; i++) {
+                final int base = i * F;
+                double evaluation = offset;
+                for (int f = 0; f < F; f++) {
+                    evaluation += weights[f] * features[base + f];
+                }
+                final double predicted = 1.0 / (1.0 + Math.exp(-k * evaluation));
+                final double difference = predicted - (mrXWon[i] ? 1.0 : 0.0);
+                sums[0] += difference * difference;
+                if (!gradient) continue;
+                final double slope = 2 * difference * predicted * (1 - predicted) * k;
+                for (int f = 0; f < F; f++) {
+                    sums[1 + f] += slope * features[base + f];
+                }
+                sums[1 + F] += slope;
+            }
+            return sums;
+        }
+    }
+
+    /**
+     * Writes the weights as a properties file {@link SearchConfig#weights()} reads, with
+     * {@link Evaluator#WEIGHTS_VERSION}.
+     *
+     * @param comments lines written as comments at the top, without the leading {@code #}
+     */
+    public static void write(@Nonnull Path file, @Nonnull double[] weights, @Nonnull String... comments) {
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (String comment : comments) {
+                writer.write("# " + comment + System.lineSeparator());
+            }
+            writer.write("version=" + Evaluator.WEIGHTS_VERSION + System.lineSeparator());
+            for (int f = 0; f < F; f++) {
+                writer.write(Evaluator.NAMES[f] + "=" + weights[f] + System.lineSeparator());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write evaluation weights to " + file, e);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+
+/**
+ * Static evaluation from Mr X's point of view: a weighted sum of features read off the distances
+ * {@link SearchState} keeps up to date as moves are made, so a leaf costs a few table lookups.
+ * <p>
+ * Distances enter through {@code log((d - 1) / 3.5)}, taken from a table. A detective next to Mr X,
+ * where that is minus infinity, gets {@link #ADJACENT} instead: large, but finite, so that no weight
+ * can turn it into NaN or into a win. Every feature is signed so that more is better for Mr X, and
+ * the weights are never negative. Detectives within
+ * {@link #CLOSE} moves of Mr X count separately, as they threaten to catch him. When the detectives do
+ * not know where Mr X is, only their spread and mobility count. The default weights reproduce the old
+ * {@code GameTree} constants: 20 for the log distance, 15 times that for close detectives, 1 and 0.5
+ * for secret and double tickets, 0.4 for mobility.
+ */
+public final class Evaluator {
+
+    public static final int FAR_DISTANCE = 0;
+    public static final int CLOSE_DISTANCE = 1;
+    public static final int SPREAD = 2;
+    public static final int SECRET_TICKETS = 3;
+    public static final int DOUBLE_TICKETS = 4;
+    public static final int MOBILITY = 5;
+    public static final int FEATURES = 6;
+
+    /**
+     * Feature names, as used in the {@code scotlandyard.ai.weights.<name>} settings
+     */
+    public static final String[] NAMES = {
+            "farDistance", "closeDistance", "spread", "secretTickets", "doubleTickets", "mobility"};
+
+    static final double[] DEFAULT_WEIGHTS = {20.0, 300.0, 20.0, 1.0, 0.5, 0.4};
+
+    /**
+     * Format of weights files, their {@code version} key; files without one are taken to be this
+     */
+    public static final int WEIGHTS_VERSION = 1;
+
+    /**
+     * Largest distance, in moves, at which a detective counts as close
+     */
+    public static final int CLOSE = 5;
+
+    /**
+     * Log distance of a detective next to Mr X, or of two detectives next to or on top of each other:
+     * eight times worse than two moves apart
+     */
+    public static final double ADJACENT = 8 * Math.log(1 / 3.5);
+
+    private static final double[] LOG_DISTANCE = new double[DistanceOracle.UNREACHABLE + 1];
+
+    static {
+        // a detective on Mr X ends the game before it is evaluated, while two detectives only share a
+        // node midway through a round; both count as adjacent
+        LOG_DISTANCE[0] = ADJACENT;
+        LOG_DISTANCE[1] = ADJACENT;
+        for (int d = 2; d < LOG_DISTANCE.length; d++) {
+            LOG_DISTANCE[d] = Math.log((d - 1) / 3.5);
+        }
+    }
+
+    private final double[] weights;
+
+    /**
+     * @param weights one per feature, indexed by the feature constants
+     */
+    public Evaluator(@Nonnull double[] weights) {
+        if (weights.length != FEATURES)
+            throw new IllegalArgumentException("Expected " + FEATURES + " weights, got " + weights.length);
+        this.weights = weights.clone();
+    }
+
+    /**
+     * @return an evaluator with the weights from {@link SearchConfig#weights()}
+     */
+    @Nonnull
+    public static Evaluator fromConfig() {
+        return new Evaluator(SearchConfig.weights());
+    }
+
+    public double weight(int feature) {
+        return weights[feature];
+    }
+
+    /**
+     * @return a copy of the weights, indexed by the feature constants
+     */
+    @Nonnull
+    public double[] weights() {
+        return weights.clone();
+    }
+
+    /**
+     * Writes the features of the state into {@code out}; the evaluation is their dot product with the
+     * weights.
+     */
+    public static void features(@Nonnull SearchState state, boolean mrXLocationKnown, @Nonnull double[] out) {
+        Arrays.fill(out, 0.0);
+        if (!mrXLocationKnown) {
+            out[SPREAD] = -spread(state);
+            out[MOBILITY] = -state.mobility();
+            return;
+        }
+        for (int d = 1; d < state.playerCount(); d++) {
+            final int distance = state.mrXDistance(d);
+            out[distance <= CLOSE ? CLOSE_DISTANCE : FAR_DISTANCE] += LOG_DISTANCE[distance];
+        }
+        out[SECRET_TICKETS] = state.tickets(SearchState.MRX, Ticket.SECRET);
+        out[DOUBLE_TICKETS] = state.tickets(SearchState.MRX, Ticket.DOUBLE);
+        out[MOBILITY] = (state.isMrXTurn() ? 1 : -1) * state.mobility();
+    }
+
+    /**
+     * @return the value of the state for Mr X
+     */
+    public double evaluate(@Nonnull SearchState state, boolean mrXLocationKnown) {
+        if (!mrXLocationKnown) {
+            // the detectives can only spread out and keep their options open
+            return -(weights[SPREAD] * spread(state) + weights[MOBILITY] * state.mobility());
+        }
+        double far = 0.0;
+        double close = 0.0;
+        for (int d = 1; d < state.playerCount(); d++) {
+            final int distance = state.mrXDistance(d);
+            if (distance <= CLOSE) {
+                close += LOG_DISTANCE[distance];
+            } else {
+                far += LOG_DISTANCE[distance];
+            }
+        }
+        return weights[FAR_DISTANCE] * far
+                + weights[CLOSE_DISTANCE] * close
+                + weights[SECRET_TICKETS] * state.tickets(SearchState.MRX, Ticket.SECRET)
+                + weights[DOUBLE_TICKETS] * state.tickets(SearchState.MRX, Ticket.DOUBLE)
+                + weights[MOBILITY] * (state.isMrXTurn() ? 1 : -1) * state.mobility();
+    }
+
+    /**
+     * @return whether a detective stands next to Mr X, a position that is all but decided
+     */
+    public static boolean hasAdjacentDetective(@Nonnull SearchState state) {
+        for (int d = 1; d < state.playerCount(); d++) {
+            if (state.mrXDistance(d) <= 1) return true;
+        }
+        return false;
+    }
+
+    private static double spread(SearchState state) {
+        double sum = 0.0;
+        for (int d1 = 1; d1 < state.playerCount(); d1++) {
+            for (int d2 = 1; d2 < state.playerCount(); d2++) {
+                if (d1 != d2) sum += LOG_DISTANCE[state.detectiveDistance(d1, d2)];
+            }
+        }
+        return sum;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder("Evaluator{");
+        for (int f = 0; f < FEATURES; f++) {
+            builder.append(f == 0 ? "" : ", ").append(NAMES[f]).append('=').append(weights[f]);
+        }
+        return builder.append('}').toString();
+    }
+}
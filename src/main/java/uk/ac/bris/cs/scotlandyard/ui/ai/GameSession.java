@@ -0,0 +1,197 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import com.google.common.collect.ImmutableSet;
+import io.atlassian.fugue.Pair;
+import jakarta.websocket.CloseReason;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.ac.bris.cs.scotlandyard.event.GameOver;
+import uk.ac.bris.cs.scotlandyard.event.GameStarted;
+import uk.ac.bris.cs.scotlandyard.event.ImmutableJoinPool;
+import uk.ac.bris.cs.scotlandyard.event.ImmutableSelectMove;
+import uk.ac.bris.cs.scotlandyard.event.StateChanged;
+import uk.ac.bris.cs.scotlandyard.model.Ai;
+import uk.ac.bris.cs.scotlandyard.model.GameSetup;
+import uk.ac.bris.cs.scotlandyard.model.Move;
+import uk.ac.bris.cs.scotlandyard.model.Piece;
+import uk.ac.bris.cs.wskit.RemoteEndpoint;
+import uk.ac.bris.cs.wskit.WebSocketListener;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One websocket connection to a judge, playing one game after another. Messages arrive on the
+ * websocket container's threads and are only queued there; the session's own thread plays them in
+ * order, so the container never waits for a search. The searches themselves run on the server's
+ * shared {@link SearchPool}, which admits the session to each game before it joins.
+ * <p>
+ * The side played is the one the judge asks to move: Mr X gets a {@link MrXAI} and the detectives a
+ * {@link DetectivesAI}, made when the game asks for its first move and terminated when it ends.
+ */
+final class GameSession implements WebSocketListener<Object, Object>, Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GameSession.class);
+    private static final Object CLOSED = new Object();
+
+    private final AiServer.Options options;
+    private final SearchPool pool;
+    private final BlockingQueue<Object> inbox = new LinkedBlockingQueue<>();
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private final String name;
+    private volatile RemoteEndpoint<Object> endpoint;
+
+    // touched only by the session's thread
+    private GameStarted game;
+    private GameSetup setup;
+    private ImmutableSet<Piece> players;
+    private ImmutableSet<Piece> ours;
+    private Ai ai;
+    private boolean admitted;  // holds one of the pool's game permits
+    private int played;
+    private int won;
+
+    GameSession(@Nonnull String name, @Nonnull AiServer.Options options, @Nonnull SearchPool pool) {
+        this.name = name;
+        this.options = options;
+        this.pool = pool;
+    }
+
+    @Override
+    public void onOpened(RemoteEndpoint<Object> endpoint) {
+        this.endpoint = endpoint;
+        inbox.add(endpoint);
+    }
+
+    @Override
+    public void onMessage(Object message, RemoteEndpoint<Object> endpoint) {
+        inbox.add(message);
+    }
+
+    @Override
+    public void onClosed(CloseReason.CloseCodes code, String reason) {
+        if (code != CloseReason.CloseCodes.NORMAL_CLOSURE)
+            LOG.warn("{}: closed, {}{}", name, code, reason == null ? "" : " " + reason);
+        inbox.add(CLOSED);
+    }
+
+    @Override
+    public void onError(Throwable error) {
+        LOG.warn("{}: websocket error", name, error);
+    }
+
+    /**
+     * Plays the messages in order until the connection closes.
+     */
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                final Object message = inbox.take();
+                if (message == CLOSED) break;
+                if (message instanceof RemoteEndpoint) join();
+                else if (message instanceof GameStarted) started((GameStarted) message);
+                else if (message instanceof StateChanged) changed((StateChanged) message);
+                else if (message instanceof GameOver) over((GameOver) message);
+                else LOG.info("{}: ignored {}", name, message.getClass().getSimpleName());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            LOG.error("{}: session failed", name, e);
+            final RemoteEndpoint<Object> current = endpoint;
+            if (current != null && current.isOpen()) current.close(e.toString());
+        } finally {
+            terminate();
+            leave();
+            finished.countDown();
+        }
+    }
+
+    private void join() throws InterruptedException {
+        // no new game until the pool has room for its searches, kept until the game is over
+        pool.enterGame();
+        admitted = true;
+        endpoint.send(ImmutableJoinPool.of(options.displayName, options.username, options.password));
+    }
+
+    private void leave() {
+        if (admitted) pool.leaveGame();
+        admitted = false;
+    }
+
+    private void started(GameStarted started) {
+        terminate();
+        this.game = started;
+        this.setup = new GameSetup(options.graph, started.rounds());
+        final ImmutableSet.Builder<Piece> pieces = ImmutableSet.builder();
+        final ImmutableSet.Builder<Piece> mine = ImmutableSet.builder();
+        for (GameStarted.PlayerSetup player : started.players()) {
+            pieces.add(player.piece());
+            if (player.principal().equals(options.username)) mine.add(player.piece());
+        }
+        this.players = pieces.build();
+        this.ours = mine.build();
+        changed(started.initialChange());
+    }
+
+    private void changed(StateChanged change) {
+        if (game == null || !change.winner().isEmpty() || change.availableMoves().isEmpty()) return;
+        final Move any = change.availableMoves().iterator().next();
+        // a judge pairing us with ourselves names us for both sides, and then only the moves tell
+        if (!ours.isEmpty() && !ours.contains(any.commencedBy())) return;
+        if (ai == null) {
+            ai = any.commencedBy().isMrX() ? new MrXAI() : new DetectivesAI();
+            ai.onStart();
+        }
+        final RemoteBoard board = new RemoteBoard(setup, players, change);
+        final long budget = game.timeout().toNanos();
+        Move move;
+        try {
+            move = pool.run(budget, nanos -> ai.pickMove(board, new Pair<>(nanos, TimeUnit.NANOSECONDS)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        // starved of a search thread for the whole turn, any legal move beats a timeout
+        if (move == null) move = any;
+        endpoint.send(ImmutableSelectMove.of(move, game.token()));
+    }
+
+    private void over(GameOver over) throws InterruptedException {
+        if (game == null) return;
+        played++;
+        // by the side played, as a judge pairing us with ourselves names us for both
+        if (ai != null && over.winners().stream().anyMatch(piece -> piece.isMrX() == ai instanceof MrXAI)) won++;
+        if (over.reason() != GameOver.Reason.NORMAL)
+            LOG.warn("{}: game {} ended by {}", name, game.identifier(), over.reason());
+        terminate();
+        game = null;
+        leave();
+        if (options.games == 0 || played < options.games) join();
+        else endpoint.close("Done");
+    }
+
+    private void terminate() {
+        if (ai != null) ai.onTerminate();
+        ai = null;
+    }
+
+    /**
+     * Waits for the connection to close.
+     */
+    void await() throws InterruptedException {
+        finished.await();
+    }
+
+    int played() {
+        return played;
+    }
+
+    int won() {
+        return won;
+    }
+}
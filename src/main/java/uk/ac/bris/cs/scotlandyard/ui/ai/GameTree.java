@@ -1,149 +1,619 @@
 package uk.ac.bris.cs.scotlandyard.ui.ai;
 
 import io.atlassian.fugue.Pair;
-import uk.ac.bris.cs.scotlandyard.model.Move;
-import uk.ac.bris.cs.scotlandyard.model.Move.DoubleMove;
-import uk.ac.bris.cs.scotlandyard.model.Move.SingleMove;
-import uk.ac.bris.cs.scotlandyard.model.Piece;
-import uk.ac.bris.cs.scotlandyard.model.ScotlandYard;
 
-import java.util.Hashtable;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.function.Function;
 
+/**
+ * Alpha-beta search shared by both AIs. Searches run Lazy SMP: the calling thread and up to
+ * {@code threads - 1} helpers search the same root independently and share only the transposition
+ * table, which lets each thread skip work the others have finished. The helpers are leased for each
+ * search from the {@link SearchThreads} of the process, so trees searching at the same time split them.
+ * <p>
+ * Within a thread the search is a principal variation search: each iteration starts from a window
+ * around the previous iteration's score ({@link SearchConfig#aspirationWindow()}), and past the
+ * first few moves of a node ({@link SearchConfig#lateMoveReductions()}) moves are searched shallower
+ * until they turn out to matter.
+ */
 public final class GameTree {
 
-    private static final double SECRET_TICKET_BONUS = 1.0;
-    private static final double DOUBLE_TICKET_BONUS = 0.5;
-    private static final double DISTANCE_WEIGHT = 1.0;
-    private static final double LOG_DISTANCE_WEIGHT = 20.0;
-    private static final double AVAILABLE_MOVES_BONUS = 0.4;
-
-    private static double score(ImmutableGameState gameState, Optional<Integer> mrXLocation,
-            int curDepth, boolean isMrX) {
-        if (mrXLocation.isEmpty()) {
-            // if the move is a detective move AND we don't know where MrX has been
-            double sum = calculateDetectiveScore(gameState);
-            sum += gameState.getAvailableMoves().size() * AVAILABLE_MOVES_BONUS;
-            return -sum;
-        }
-
-        int location = mrXLocation.get();
-        double sum = calculateMrXScore(gameState, location, curDepth);
-        sum += calculateBonuses(gameState, isMrX);
-        return sum;
-    }
-
-    private static double calculateDetectiveScore(ImmutableGameState gameState) {
-        List<Double> distances = gameState.getDetectives().stream()
-                .flatMap(detective1 -> gameState.getDetectives().stream()
-                        .filter(detective2 -> !detective1.equals(detective2))
-                        .map(detective2 -> calculateLogDistance(gameState, detective1.location(),
-                                detective2.location())))
-                .sorted()
-                .toList();
-        double sum = distances.stream()
-                .reduce(0.0, Double::sum);
-        return sum;
-    }
-
-    private static double calculateMrXScore(ImmutableGameState gameState, int location, int curDepth) {
-        List<Double> distances = gameState.getDetectives().stream()
-                .map(detective -> calculateLogDistance(gameState, location, detective.location()))
-                .sorted()
-                .toList();
-        double sum = distances.stream()
-                .map(dist -> {
-                    double moveScore = (curDepth + 1) * dist * DISTANCE_WEIGHT;
-                    if (dist <= 5) {
-                        moveScore *= 15;
-                    }
-                    return moveScore;
-                })
-                .reduce(0.0, Double::sum);
-        return sum;
-    }
-
-    private static double calculateLogDistance(ImmutableGameState gameState, int location1, int location2) {
-        return Math.log((new Dijkstra(gameState, location1).getDistTo(location2) - 1) / 3.5) * LOG_DISTANCE_WEIGHT;
-    }
-
-    private static double calculateBonuses(ImmutableGameState gameState, boolean isMrX) {
-        double sum = 0.0;
-        sum += gameState.getPlayerTickets(Piece.MrX.MRX).get().getCount(ScotlandYard.Ticket.SECRET)
-                * SECRET_TICKET_BONUS;
-        sum += gameState.getPlayerTickets(Piece.MrX.MRX).get().getCount(ScotlandYard.Ticket.DOUBLE)
-                * DOUBLE_TICKET_BONUS;
-        sum += (isMrX ? 1 : -1) * gameState.getAvailableMoves().size() * AVAILABLE_MOVES_BONUS;
-        return sum;
-    }
-
-    public Double itNegaMax(ImmutableGameState state, int depth, double alpha, double beta,
-            Optional<Integer> mrXLocation, long startTime, Pair<Long, TimeUnit> timeoutPair) {
-        boolean changeSign = state.getRemaining().size() == 1;
-        boolean isMrX = state.getRemaining().contains(Piece.MrX.MRX);
-
-        // Check timeout
-        long curTime = System.currentTimeMillis();
-        long oneSecond = 1000;
-        if (timeoutPair.left() * 1000 - (curTime - startTime) < oneSecond) {
-            return isMrX ? Double.POSITIVE_INFINITY : Double.NEGATIVE_INFINITY;
+    // ordering keys above any history score
+    private static final int TT_MOVE_KEY = Integer.MAX_VALUE;
+    private static final int KILLER_KEY = Integer.MAX_VALUE - 1;
+
+    // late move reductions apply from this remaining depth; moves this far down the order lose two plies
+    private static final int LMR_MIN_DEPTH = 3;
+    private static final int LMR_DEEP_FACTOR = 4;
+
+    // the leaf evaluation differs when Mr X's location is a guess, so those positions hash apart
+    private static final long UNKNOWN_MRX_KEY = 0x9E37_79B9_7F4A_7C15L;
+
+    private static final String ENGINE = "alpha-beta";
+
+    private final TranspositionTable table;
+    private final Evaluator evaluator;
+    private final SearchContext[] contexts;  // one per search thread, the caller's first
+    private final double aspirationWindow;   // 0 to search every iteration with a full window
+    private final int lmrMoves;              // moves searched at full depth before reducing, 0 for none
+    private final boolean collapseMrXMoves;  // below the root, see SearchState.generateMrXSingles
+    private final SearchThreads helpers;     // null when searching on the caller only
+    private SearchReport.Builder report;
+    private EndgameSolver endgame;           // for the board last searched, null when turned off
+
+    public GameTree() {
+        this(new TranspositionTable(SearchConfig.transpositionTableMegabytes()), SearchConfig.threads());
+    }
+
+    public GameTree(TranspositionTable table) {
+        this(table, SearchConfig.threads());
+    }
+
+    public GameTree(TranspositionTable table, int threads) {
+        this(table, threads, Evaluator.fromConfig());
+    }
+
+    /**
+     * @param table     shared by every thread searching with this tree
+     * @param threads   search threads including the caller's
+     * @param evaluator scores the leaves
+     */
+    public GameTree(TranspositionTable table, int threads, Evaluator evaluator) {
+        if (threads < 1)
+            throw new IllegalArgumentException("Search needs at least one thread, got " + threads);
+        this.table = table;
+        this.evaluator = evaluator;
+        this.aspirationWindow = SearchConfig.aspirationWindow();
+        this.lmrMoves = SearchConfig.lateMoveReductions();
+        this.collapseMrXMoves = SearchConfig.collapseMrXMoves();
+        this.contexts = new SearchContext[threads];
+        for (int i = 0; i < threads; i++) {
+            contexts[i] = new SearchContext();
+        }
+        this.report = new SearchReport.Builder(ENGINE);
+        if (threads == 1) {
+            this.helpers = null;
+        } else {
+            this.helpers = SearchThreads.shared();
+        }
+    }
+
+    public TranspositionTable getTable() {
+        return table;
+    }
+
+    public Evaluator getEvaluator() {
+        return evaluator;
+    }
+
+    /**
+     * @return the counters of every search since the last call, as one report
+     */
+    @Nonnull
+    public SearchReport takeReport(@Nonnull SearchClock clock) {
+        final SearchReport taken = report.build(clock);
+        report = new SearchReport.Builder(ENGINE);
+        return taken;
+    }
+
+    /* converts a value from Mr X's point of view to the point of view of the side to move */
+    private static double forSideToMove(SearchState state, double value) {
+        return state.isMrXTurn() ? value : -value;
+    }
+
+    /**
+     * Searches the root with iterative deepening, one ply at a time until {@code maxDepth} or until
+     * less than a second of the turn is left. Each iteration starts from the best move of the previous
+     * one and reuses its transposition table entries for move ordering, so deeper iterations cost a
+     * fraction of a fresh search.
+     * <p>
+     * Helper threads run the same loop on their own copy of the root, with every other helper one ply
+     * ahead and each trying the root moves in a different order. They stop as soon as the calling
+     * thread is done.
+     *
+     * @return the best move of the deepest iteration completed by any thread, encoded as in {@link Moves}
+     */
+    public int search(SearchState root, boolean mrXLocationKnown, SearchClock clock) {
+        return search(root, mrXLocationKnown, clock, SearchConfig.maxDepth());
+    }
+
+    /**
+     * Like {@link #search(SearchState, boolean, SearchClock)}, stopping after {@code maxDepth} plies.
+     */
+    public int search(SearchState root, boolean mrXLocationKnown, SearchClock clock, int maxDepth) {
+        final MoveBuffer rootMoves = new MoveBuffer();
+        root.generateJointMoves(rootMoves, mrXLocationKnown);
+        if (rootMoves.size() == 0)
+            throw new IllegalArgumentException("No moves available from " + root);
+
+        clock.plan(root);
+        report.search();
+        contexts[0].completedDepth = 0;
+        if (mrXLocationKnown && useEndgame(root) && endgame.covers(root)) {
+            // a forced win needs no search; anything else still does, with the time left
+            final long before = contexts[0].nodes;
+            final int winning = endgame.winningMove(root, contexts[0], clock.slice(2));
+            report.add(contexts[0].nodes - before, 0);
+            if (winning != Moves.NONE) {
+                report.completed((root.getSetup().moves.size() - root.logSize()) * root.playerCount());
+                return winning;
+            }
+        }
+        final int leased = helpers == null ? 0 : helpers.lease(contexts.length - 1);
+        report.threads(1 + leased);
+        final List<Future<?>> running = new ArrayList<>(leased);
+        try {
+            for (int id = 1; id <= leased; id++) {
+                final SearchContext context = contexts[id];
+                final SearchState state = root.copy();
+                final MoveBuffer moves = new MoveBuffer(rootMoves.size());
+                for (int i = 0; i < rootMoves.size(); i++) {
+                    moves.add(rootMoves.get((i + id) % rootMoves.size()));
+                }
+                final int startDepth = 1 + (id & 1);
+                running.add(helpers.submit(() -> iterate(state, context, moves, startDepth, maxDepth,
+                        mrXLocationKnown, clock)));
+            }
+            iterate(root, contexts[0], rootMoves, 1, maxDepth, mrXLocationKnown, clock);
+            clock.abort();
+            for (Future<?> future : running) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Search helper failed", e.getCause());
+                }
+            }
+        } finally {
+            if (helpers != null) helpers.release(leased);
+        }
+
+        // ties go to the calling thread, which searched the previous best move first
+        SearchContext best = contexts[0];
+        for (int id = 0; id <= leased; id++) {
+            final SearchContext context = contexts[id];
+            report.add(context);
+            if (context.completedDepth > best.completedDepth) best = context;
+        }
+        report.completed(best.completedDepth);
+        return best.bestMove;
+    }
+
+    /**
+     * @return the deepest iteration the calling thread completed in the last search, 0 if the endgame
+     * solver answered it without one
+     */
+    int completedDepth() {
+        return contexts[0].completedDepth;
+    }
+
+    /* sets up the endgame solver for the root's board, returning whether it is on */
+    private boolean useEndgame(SearchState root) {
+        final int rounds = SearchConfig.endgameRounds();
+        if (rounds <= 0) {
+            endgame = null;
+            return false;
+        }
+        final EndgameTable shared = EndgameTable.shared(root.getSetup());
+        if (endgame == null || endgame.getTable() != shared) {
+            endgame = new EndgameSolver(shared, rounds, SearchConfig.endgameNodes());
+        }
+        return true;
+    }
+
+    private void iterate(SearchState root, SearchContext context, MoveBuffer rootMoves, int startDepth,
+            int maxDepth, boolean mrXLocationKnown, SearchClock clock) {
+        context.newSearch();
+        context.completedDepth = 0;
+        context.bestMove = rootMoves.get(0);
+        for (int depth = startDepth; depth <= maxDepth && clock.canStartIteration(); depth++) {
+            final long nodesBefore = context.nodes;
+            final long started = System.nanoTime();
+            // expect the score of the previous iteration and widen the window on the side it fails
+            double lower = Double.NEGATIVE_INFINITY;
+            double upper = Double.POSITIVE_INFINITY;
+            if (aspirationWindow > 0 && context.completedDepth > 0 && Double.isFinite(context.rootValue)) {
+                lower = context.rootValue - aspirationWindow;
+                upper = context.rootValue + aspirationWindow;
+            }
+            int move = searchRoot(root, context, rootMoves, depth, lower, upper, mrXLocationKnown, clock);
+            while (!context.timedOut) {
+                if (context.rootValue <= lower && lower > Double.NEGATIVE_INFINITY) {
+                    lower = Double.NEGATIVE_INFINITY;
+                } else if (context.rootValue >= upper && upper < Double.POSITIVE_INFINITY) {
+                    upper = Double.POSITIVE_INFINITY;
+                } else {
+                    break;
+                }
+                move = searchRoot(root, context, rootMoves, depth, lower, upper, mrXLocationKnown, clock);
+            }
+            if (context.timedOut) {
+                break;
+            }
+            if (context == contexts[0]) {
+                clock.iterationCompleted(depth > 1 && move != context.bestMove);
+                report.iteration(depth, context.nodes - nodesBefore, System.nanoTime() - started);
+            }
+            context.completedDepth = depth;
+            context.bestMove = move;
+            // search the current best move first in the next iteration
+            for (int i = 0; i < rootMoves.size(); i++) {
+                if (rootMoves.get(i) == move) {
+                    rootMoves.set(i, rootMoves.get(0));
+                    rootMoves.set(0, move);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Follows the best moves stored in the transposition table from the root for as long as the
+     * detectives are to move, which gives the rest of their joint move for the round. Mr X's plan is
+     * just his move.
+     *
+     * @param first the move returned by {@link #search}
+     * @return {@code first} followed by the moves planned after it, each legal once the previous ones
+     * are played
+     */
+    public int[] plan(SearchState root, int first, boolean mrXLocationKnown) {
+        final SearchState state = root.copy();
+        if (state.isMrXTurn()) return new int[]{first};
+        final MoveBuffer plan = new MoveBuffer(8);
+        plan.add(first);
+        state.make(first);
+        follow(state, true, mrXLocationKnown, plan);
+        final int[] moves = new int[plan.size()];
+        for (int i = 0; i < moves.length; i++) {
+            moves[i] = plan.get(i);
+        }
+        return moves;
+    }
+
+    /**
+     * Predicts the opponent's reply to a move the same way as {@link #plan}: by following the best
+     * moves stored in the transposition table until the side at the root is to move again.
+     *
+     * @param first the move returned by {@link #search}
+     * @return the position after {@code first} and the predicted reply, or after {@code first} alone
+     * if the table does not predict the whole reply; null once the game is over
+     */
+    @Nullable
+    public SearchState predict(SearchState root, int first, boolean mrXLocationKnown) {
+        final SearchState state = root.copy();
+        state.make(first);
+        if (state.winner() != SearchState.NO_WINNER) return null;
+        final SearchState replied = state.copy();
+        if (follow(replied, root.isMrXTurn(), mrXLocationKnown, new MoveBuffer(8))) return replied;
+        return state;
+    }
+
+    /**
+     * Follows the best moves stored in the transposition table from the position after a root move,
+     * for as long as they are legal and the game goes on.
+     *
+     * @param first  a move from the root
+     * @param length most moves to give, {@code first} included
+     * @return {@code first} followed by the moves expected after it
+     */
+    public int[] principalVariation(SearchState root, int first, boolean mrXLocationKnown, int length) {
+        final SearchState state = root.copy();
+        final MoveBuffer line = new MoveBuffer(length);
+        line.add(first);
+        state.make(first);
+        final TranspositionTable.Entry entry = new TranspositionTable.Entry();
+        final MoveBuffer legal = new MoveBuffer(256);
+        while (line.size() < length && state.winner() == SearchState.NO_WINNER) {
+            final int move = tableMove(state, mrXLocationKnown, entry, legal);
+            if (move == Moves.NONE) break;
+            line.add(move);
+            state.make(move);
+        }
+        final int[] moves = new int[line.size()];
+        for (int i = 0; i < moves.length; i++) {
+            moves[i] = line.get(i);
+        }
+        return moves;
+    }
+
+    /* plays the table's best moves until the given side is to move, adding them to the buffer;
+       returns whether it got there with the game still on */
+    private boolean follow(SearchState state, boolean untilMrX, boolean mrXLocationKnown, MoveBuffer played) {
+        final TranspositionTable.Entry entry = new TranspositionTable.Entry();
+        final MoveBuffer legal = new MoveBuffer(256);
+        while (state.winner() == SearchState.NO_WINNER) {
+            if (state.isMrXTurn() == untilMrX) return true;
+            final int move = tableMove(state, mrXLocationKnown, entry, legal);
+            if (move == Moves.NONE) return false;
+            played.add(move);
+            state.make(move);
+        }
+        return false;
+    }
+
+    /* the best move the table holds for the state if it is legal there, else Moves.NONE */
+    private int tableMove(SearchState state, boolean mrXLocationKnown, TranspositionTable.Entry entry,
+            MoveBuffer legal) {
+        if (!table.probe(rootKey(state, mrXLocationKnown), entry) || entry.move == Moves.NONE) return Moves.NONE;
+        legal.release(0);
+        final int count = state.generateJointMoves(legal, mrXLocationKnown);
+        for (int i = 0; i < count; i++) {
+            if (legal.get(i) == entry.move) return entry.move;
+        }
+        return Moves.NONE;
+    }
+
+    /**
+     * Gives each of the moves an exact value at the depth, where {@link #search} only proves the best
+     * one best and leaves the others with bounds. Meant for analysis after a search of the same root,
+     * whose table entries order the moves and cut most of the work. Nodes are counted afresh, so a clock
+     * limiting them limits this call alone.
+     *
+     * @param moves moves from the root
+     * @param depth plies to search, counting the move itself
+     * @return the value of each move from the point of view of the side to move at the root, or null if
+     * the clock stopped the search first
+     */
+    @Nullable
+    public double[] scoreMoves(SearchState root, int[] moves, int depth, boolean mrXLocationKnown,
+            SearchClock clock) {
+        if (depth < 1) throw new IllegalArgumentException("Depth must be positive, got " + depth);
+        final SearchContext context = contexts[0];
+        final SearchState state = root.copy();
+        final boolean isMrX = state.isMrXTurn();
+        // the search already reported its counts
+        context.nodes = 0;
+        context.leaves = 0;
+        context.timedOut = false;
+        final double[] values = new double[moves.length];
+        for (int i = 0; i < moves.length && !context.timedOut; i++) {
+            state.make(moves[i]);
+            values[i] = child(state, context, depth - 1, 1, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY,
+                    isMrX, mrXLocationKnown, clock);
+            state.unmake(moves[i]);
+        }
+        report.add(context.nodes, context.leaves);
+        return context.timedOut ? null : values;
+    }
+
+    /**
+     * Searches the first root move with the window and the rest with a null window, re-searching any
+     * that beat the best so far. Leaves the root's value in {@code context.rootValue}; a value outside
+     * {@code (alpha, beta)} is only a bound.
+     */
+    private int searchRoot(SearchState state, SearchContext context, MoveBuffer rootMoves, int depth,
+            double alpha, double beta, boolean mrXLocationKnown, SearchClock clock) {
+        final boolean isMrX = state.isMrXTurn();
+        final double alphaOrig = alpha;
+        double value = Double.NEGATIVE_INFINITY;
+        int bestMove = Moves.NONE;
+        for (int i = 0; i < rootMoves.size() && alpha < beta; i++) {
+            int m = rootMoves.get(i);
+            state.make(m);
+            double newValue = i == 0
+                    ? child(state, context, depth - 1, 1, alpha, beta, isMrX, mrXLocationKnown, clock)
+                    : child(state, context, depth - 1, 1, alpha, Math.nextUp(alpha), isMrX, mrXLocationKnown,
+                            clock);
+            if (i > 0 && newValue > alpha && newValue < beta && !context.timedOut) {
+                newValue = child(state, context, depth - 1, 1, alpha, beta, isMrX, mrXLocationKnown, clock);
+            }
+            state.unmake(m);
+            if (context.timedOut) {
+                break;
+            }
+            if (newValue > value || bestMove == Moves.NONE) {
+                bestMove = m;
+                value = Math.max(value, newValue);
+            }
+            alpha = Math.max(alpha, value);
+        }
+        context.rootValue = value;
+        if (!context.timedOut) {
+            final int bound = value <= alphaOrig ? TranspositionTable.UPPER_BOUND
+                    : value >= beta ? TranspositionTable.LOWER_BOUND
+                    : TranspositionTable.EXACT;
+            table.store(rootKey(state, mrXLocationKnown), bestMove, depth, bound, value);
+        }
+        return bestMove;
+    }
+
+    /**
+     * Searches the state reached by a move with the window given from the point of view of the side
+     * that made it, negating across a change of side.
+     */
+    private double child(SearchState state, SearchContext context, int depth, int ply, double alpha, double beta,
+            boolean moverIsMrX, boolean mrXLocationKnown, SearchClock clock) {
+        // the side to move only changes between Mr X and the detectives
+        return state.isMrXTurn() != moverIsMrX
+                ? -itNegaMax(state, context, depth, ply, -beta, -alpha, mrXLocationKnown, clock)
+                : itNegaMax(state, context, depth, ply, alpha, beta, mrXLocationKnown, clock);
+    }
+
+    private static long rootKey(SearchState state, boolean mrXLocationKnown) {
+        return mrXLocationKnown ? state.hash() : state.hash() ^ UNKNOWN_MRX_KEY;
+    }
+
+    /**
+     * Gives every move in {@code [first, last)} of the buffer its ordering key: the transposition table
+     * move first, then this ply's killer moves, then the rest by their history.
+     */
+    private static void orderMoves(SearchContext context, int first, int last, int ply, int ttMove) {
+        if (context.orderKeys.length < last) {
+            context.orderKeys = Arrays.copyOf(context.orderKeys, Math.max(last, context.orderKeys.length * 2));
+        }
+        final MoveBuffer buffer = context.moves;
+        for (int i = first; i < last; i++) {
+            int m = buffer.get(i);
+            context.orderKeys[i] = m == ttMove ? TT_MOVE_KEY
+                    : context.isKiller(ply, m) ? KILLER_KEY
+                    : context.history(m);
+        }
+    }
+
+    /**
+     * Swaps the move with the highest ordering key in {@code [i, last)} into position {@code i}. Selecting
+     * one move at a time is cheaper than sorting when a cutoff comes early.
+     */
+    private static int nextMove(SearchContext context, int i, int last) {
+        final MoveBuffer buffer = context.moves;
+        final int[] keys = context.orderKeys;
+        int best = i;
+        for (int j = i + 1; j < last; j++) {
+            if (keys[j] > keys[best]) best = j;
+        }
+        if (best != i) {
+            int move = buffer.get(best);
+            buffer.set(best, buffer.get(i));
+            buffer.set(i, move);
+            int key = keys[best];
+            keys[best] = keys[i];
+            keys[i] = key;
+        }
+        return buffer.get(i);
+    }
+
+    /**
+     * @param ply distance from the root, used for killer moves
+     * @return the value of the state from the point of view of the side to move
+     */
+    double itNegaMax(SearchState state, SearchContext context, int depth, int ply, double alpha, double beta,
+            boolean mrXLocationKnown, SearchClock clock) {
+        boolean isMrX = state.isMrXTurn();
+
+        // Stop on timeout; the caller discards the whole iteration, so the value returned is irrelevant
+        if (context.timedOut || clock.shouldAbort(context)) {
+            context.timedOut = true;
+            return 0.0;
         }
 
         // Check for winner
-        if (state.getWinner().contains(Piece.MrX.MRX)) {
-            return Double.POSITIVE_INFINITY;
-        } else if (!state.getWinner().isEmpty()) {
-            return Double.NEGATIVE_INFINITY;
+        int winner = state.winner();
+        if (winner == SearchState.MRX_WINS) {
+            return forSideToMove(state, Double.POSITIVE_INFINITY);
+        } else if (winner == SearchState.DETECTIVES_WIN) {
+            return forSideToMove(state, Double.NEGATIVE_INFINITY);
+        }
+
+        // Positions the endgame solver has finished are exact
+        if (mrXLocationKnown && endgame != null && endgame.covers(state)) {
+            final int solved = endgame.getTable().probe(state.hash());
+            if (solved == SearchState.MRX_WINS) {
+                return forSideToMove(state, Double.POSITIVE_INFINITY);
+            } else if (solved == SearchState.DETECTIVES_WIN) {
+                return forSideToMove(state, Double.NEGATIVE_INFINITY);
+            }
         }
 
         // Compute score at maximum depth
         if (depth == 0) {
-            return score(state, mrXLocation, depth, isMrX);
+            context.leaves++;
+            return forSideToMove(state, evaluator.evaluate(state, mrXLocationKnown));
+        }
+
+        // Reuse an earlier result for the same position if it was searched at least as deep
+        final long key = rootKey(state, mrXLocationKnown);
+        final double alphaOrig = alpha;
+        final TranspositionTable.Entry entry = context.entry;
+        int ttMove = Moves.NONE;
+        context.ttProbes++;
+        if (table.probe(key, entry)) {
+            context.ttHits++;
+            ttMove = entry.move;
+            if (entry.depth >= depth) {
+                if (entry.bound == TranspositionTable.EXACT) {
+                    return entry.value;
+                } else if (entry.bound == TranspositionTable.LOWER_BOUND) {
+                    alpha = Math.max(alpha, entry.value);
+                } else {
+                    beta = Math.min(beta, entry.value);
+                }
+                if (alpha >= beta) {
+                    return entry.value;
+                }
+            }
         }
 
-        // Find available moves
-        List<Move> moves = state.getAvailableMoves()
-                .stream()
-                .unordered()
-                .parallel()
-                .limit(8)
-                .toList();
+        // Find available moves, best candidates first. Mr X's moves are collapsed to one per
+        // destination and his double moves wait until his single moves turn out to be bad
+        final MoveBuffer buffer = context.moves;
+        final int first = buffer.size();
+        final boolean collapse = collapseMrXMoves && isMrX;
+        boolean doublesPending = collapse && !Moves.isDouble(ttMove);
+        int last = first + (!collapse ? state.generateJointMoves(buffer, mrXLocationKnown)
+                : doublesPending ? state.generateMrXSingles(buffer)
+                : state.generateMrXSingles(buffer) + state.generateMrXDoubles(buffer));
+        orderMoves(context, first, last, ply, ttMove);
 
+        // Principal variation search: the first move gets the full window, the rest a null window
+        // that only asks whether they beat it, with late moves also searched shallower; a move that
+        // does beat it is searched again at full depth, then with the full window
         double value = Double.NEGATIVE_INFINITY;
-        for (Move m : moves) {
-            final Optional<Integer> nextMrXLocation = mrXLocation.isPresent()
-                    ? changeSign
-                            ? Optional.of(m.accept(new Move.Visitor<>() {
-                                @Override
-                                public Integer visit(SingleMove move) {
-                                    return move.destination;
-                                }
-
-                                @Override
-                                public Integer visit(DoubleMove move) {
-                                    return move.destination2;
-                                }
-                            }))
-                            : mrXLocation
-                    : Optional.empty();
-
-            double newValue = changeSign
-                    ? -itNegaMax(state.newState(m), depth - 1, -beta, -alpha, nextMrXLocation, startTime,
-                            timeoutPair)
-                    : itNegaMax(state.newState(m), depth - 1, alpha, beta, nextMrXLocation, startTime,
-                            timeoutPair);
+        int bestMove = Moves.NONE;
+        for (int i = first; ; i++) {
+            if (i == last) {
+                // doubles are only worth their ticket if no single move holds the static evaluation
+                if (!doublesPending || context.timedOut || value >= forSideToMove(state,
+                        evaluator.evaluate(state, mrXLocationKnown))) break;
+                doublesPending = false;
+                final int doubles = state.generateMrXDoubles(buffer);
+                if (doubles == 0) break;
+                orderMoves(context, last, last + doubles, ply, ttMove);
+                last += doubles;
+            }
+            int m = nextMove(context, i, last);
+            final int tried = i - first;
+            final boolean reducible = lmrMoves > 0 && tried >= lmrMoves && depth >= LMR_MIN_DEPTH
+                    && context.orderKeys[i] < KILLER_KEY
+                    && !(mrXLocationKnown && !isMrX && Moves.destination(m) == state.mrXLocation());
+            state.make(m);
+            double newValue;
+            if (tried == 0) {
+                newValue = child(state, context, depth - 1, ply + 1, alpha, beta, isMrX, mrXLocationKnown, clock);
+            } else {
+                final double nullBeta = Math.nextUp(alpha);
+                final int reduction = !reducible ? 0
+                        : tried >= lmrMoves * LMR_DEEP_FACTOR && depth > LMR_MIN_DEPTH + 1 ? 2 : 1;
+                newValue = child(state, context, depth - 1 - reduction, ply + 1, alpha, nullBeta, isMrX,
+                        mrXLocationKnown, clock);
+                if (reduction > 0 && newValue > alpha && !context.timedOut) {
+                    newValue = child(state, context, depth - 1, ply + 1, alpha, nullBeta, isMrX, mrXLocationKnown,
+                            clock);
+                }
+                if (newValue > alpha && newValue < beta && !context.timedOut) {
+                    newValue = child(state, context, depth - 1, ply + 1, alpha, beta, isMrX, mrXLocationKnown,
+                            clock);
+                }
+            }
+            state.unmake(m);
 
+            if (newValue > value || bestMove == Moves.NONE) {
+                bestMove = m;
+            }
             value = Math.max(value, newValue);
             alpha = Math.max(alpha, value);
             if (alpha >= beta) {
+                if (!context.timedOut) {
+                    context.cutoff(ply, depth, m, i - first);
+                }
                 break;
             }
         }
+        buffer.release(first);
+
+        // values below a timed out node are meaningless, so they are never stored
+        if (!context.timedOut) {
+            int bound = value <= alphaOrig ? TranspositionTable.UPPER_BOUND
+                    : value >= beta ? TranspositionTable.LOWER_BOUND
+                    : TranspositionTable.EXACT;
+            table.store(key, bestMove, depth, bound, value);
+        }
         return value;
     }
 
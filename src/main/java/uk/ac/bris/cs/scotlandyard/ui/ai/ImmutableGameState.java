@@ -13,13 +13,18 @@ import java.util.stream.Stream;
 import static java.util.stream.Collectors.collectingAndThen;
 
 public final class ImmutableGameState implements Board.GameState {
+    private static final ScotlandYard.Ticket[] TRAVEL_TICKETS = {ScotlandYard.Ticket.TAXI, ScotlandYard.Ticket.BUS,
+            ScotlandYard.Ticket.UNDERGROUND, ScotlandYard.Ticket.SECRET};
+
     private final GameSetup setup;
-    private final ImmutableSet<Piece> winner;
+    private final DistanceOracle distances;
+    private final BoardGraph graph;
+    private ImmutableSet<Piece> winner; // null until asked for
     private ImmutableSet<Piece> remaining; // which pieces still need to make a move
     private ImmutableList<LogEntry> log;
     private Player mrX;
     private List<Player> detectives;
-    private ImmutableSet<Move> moves;
+    private ImmutableSet<Move> moves; // null until asked for, and not emptied by a winner
 
     private ImmutableGameState(
             final GameSetup setup,
@@ -50,18 +55,28 @@ public final class ImmutableGameState implements Board.GameState {
             throw new IllegalArgumentException();
         // finish by initialising values
         this.setup = setup;
+        this.distances = DistanceOracle.of(setup);
+        this.graph = BoardGraph.of(setup);
         this.remaining = remaining;
         this.log = log;
         this.mrX = mrX;
         this.detectives = detectives;
-        this.moves = calculateAvailableMoves();
-        this.winner = calculateWinner();
-        if (!this.winner.isEmpty())
-            this.moves = ImmutableSet.of();
+        // moves and winner are left until asked for, which states made midway through advance never are
+    }
+
+    static ImmutableGameState of(
+            final GameSetup setup,
+            final ImmutableSet<Piece> remaining,
+            final ImmutableList<LogEntry> log,
+            @Nonnull final Player mrX,
+            @Nonnull final List<Player> detectives) {
+        return new ImmutableGameState(setup, remaining, log, mrX, detectives);
     }
 
     public ImmutableGameState(Board board, int destForMrX) {   // needs to pass in the n
         this.setup = board.getSetup();
+        this.distances = DistanceOracle.of(setup);
+        this.graph = BoardGraph.of(setup);
         this.log = board.getMrXTravelLog();
         if (board.getAvailableMoves().stream().anyMatch(m -> m.commencedBy() == Piece.MrX.MRX))
             this.remaining = ImmutableSet.of(Piece.MrX.MRX);
@@ -87,13 +102,15 @@ public final class ImmutableGameState implements Board.GameState {
 
     private ImmutableGameState(ImmutableGameState gameState) {
         this.setup = gameState.setup;
-        // all copy-on-write
-        this.remaining = gameState.remaining.stream().collect(collectingAndThen(Collectors.toSet(), ImmutableSet::copyOf));
-        this.log = gameState.log.stream().collect(collectingAndThen(Collectors.toList(), ImmutableList::copyOf));
-        this.mrX = new Player(gameState.mrX.piece(), gameState.mrX.tickets(), gameState.mrX.location());
+        this.distances = gameState.distances;
+        this.graph = gameState.graph;
+        // all copy-on-write, and the immutable collections can be shared as they are
+        this.remaining = gameState.remaining;
+        this.log = gameState.log;
+        this.mrX = gameState.mrX;
         this.detectives = List.copyOf(gameState.detectives);
-        this.moves = gameState.moves.stream().collect(collectingAndThen(Collectors.toSet(), ImmutableSet::copyOf));
-        this.winner = gameState.winner.stream().collect(collectingAndThen(Collectors.toSet(), ImmutableSet::copyOf));
+        this.moves = gameState.moves;
+        this.winner = gameState.winner;
     }
 
     private ImmutableGameState cloneState() {
@@ -154,39 +171,55 @@ public final class ImmutableGameState implements Board.GameState {
         return ImmutableSet.copyOf(possibleMoves);
     }
 
+    /* the same rules as SearchState.winner(), on the primitive tables of the board */
     private ImmutableSet<Piece> calculateWinner() {
-        // convenient constants to use as return values
-        final ImmutableSet<Piece> detectiveSet = detectives.stream().map(Player::piece)
-                .collect(ImmutableSet.toImmutableSet());
-        final ImmutableSet<Piece> mrXSet = ImmutableSet.of(mrX.piece());
-
-        final Set<Integer> detectiveLocations = detectives.stream().map(Player::location)
-                .collect(Collectors.toSet());
-
-        if (detectives.stream().anyMatch((d) -> d.location() == mrX.location()))
-            return detectiveSet;
+        final long[] occupied = new long[BoardGraph.WORDS];
+        for (Player d : detectives) {
+            occupied[d.location() >>> 6] |= 1L << d.location();
+        }
+        if ((occupied[mrX.location() >>> 6] & 1L << mrX.location()) != 0)
+            return detectivePieces();
 
         if (remaining.contains(mrX.piece())) {
             if (log.size() == setup.moves.size())
-                return mrXSet;
+                return ImmutableSet.of(mrX.piece());
             // mrX doesn't have any tickets to go somewhere that a detective isn't covering
-            if (setup.graph.adjacentNodes(mrX.location())
-                    .stream()
-                    .filter(n -> !detectiveLocations.contains(n))
-                    .noneMatch(n -> Objects.requireNonNull(setup.graph.edgeValueOrDefault(n, mrX.location(), ImmutableSet.of()))
-                            .stream()
-                            .anyMatch(t -> mrX.has(t.requiredTicket()) || mrX.has(ScotlandYard.Ticket.SECRET))))
-                return detectiveSet;
+            final int usable = graph.ticketMask(mrX.location()) & heldTickets(mrX);
+            boolean stuck = true;
+            for (ScotlandYard.Ticket ticket : TRAVEL_TICKETS) {
+                if ((usable & 1 << ticket.ordinal()) != 0
+                        && graph.hasFreeNeighbour(mrX.location(), ticket.ordinal(), occupied)) {
+                    stuck = false;
+                    break;
+                }
+            }
+            if (stuck)
+                return detectivePieces();
         }
 
-        // no detective has a ticket to go somewhere not already covered
-        if (detectives.stream()
-                .noneMatch(d -> setup.graph.adjacentNodes(d.location()).stream()
-                        .anyMatch(n -> setup.graph.edgeValueOrDefault(d.location(), n, ImmutableSet.of()).stream()
-                                .anyMatch(t -> d.has(t.requiredTicket())))))
-            return mrXSet;
+        // no detective has a ticket for any edge from where it stands, covered or not
+        for (Player d : detectives) {
+            if ((graph.ticketMask(d.location()) & heldTickets(d)) != 0)
+                return ImmutableSet.of();
+        }
+        return ImmutableSet.of(mrX.piece());
+    }
 
-        return ImmutableSet.of();
+    private ImmutableSet<Piece> detectivePieces() {
+        final ImmutableSet.Builder<Piece> pieces = ImmutableSet.builder();
+        for (Player d : detectives) {
+            pieces.add(d.piece());
+        }
+        return pieces.build();
+    }
+
+    /* a bit per ticket ordinal the player can travel with */
+    private static int heldTickets(Player player) {
+        int held = 0;
+        for (ScotlandYard.Ticket ticket : TRAVEL_TICKETS) {
+            if (player.has(ticket)) held |= 1 << ticket.ordinal();
+        }
+        return held;
     }
 
     private Optional<Player> getPlayerByPiece(Piece piece) {
@@ -196,6 +229,13 @@ public final class ImmutableGameState implements Board.GameState {
             return detectives.stream().filter((d) -> d.piece() == piece).findAny();
     }
 
+    /**
+     * @return where Mr X really is, which no {@link Board} tells
+     */
+    int getMrXLocation() {
+        return mrX.location();
+    }
+
     @Nonnull
     @Override
     public GameSetup getSetup() {
@@ -247,6 +287,8 @@ public final class ImmutableGameState implements Board.GameState {
     @Nonnull
     @Override
     public ImmutableSet<Piece> getWinner() {
+        if (winner == null)
+            winner = calculateWinner();
         return winner;
     }
 
@@ -258,14 +300,25 @@ public final class ImmutableGameState implements Board.GameState {
     @Nonnull
     @Override
     public ImmutableSet<Move> getAvailableMoves() {
+        return getWinner().isEmpty() ? calculatedMoves() : ImmutableSet.of();
+    }
+
+    /* the moves of the pieces still to move, whether or not the game is over */
+    private ImmutableSet<Move> calculatedMoves() {
+        if (moves == null)
+            moves = calculateAvailableMoves();
         return moves;
     }
 
     @Override
     public ImmutableGameState advance(Move move) {
-        if (!moves.contains(move))
+        if (!getAvailableMoves().contains(move))
             throw new IllegalArgumentException();
+        return apply(move);
+    }
 
+    /* advance without checking the move, for the second half of a double move already checked whole */
+    private ImmutableGameState apply(Move move) {
         // a move cannot be made by a piece which does not exist
         final Player player = getPlayerByPiece(move.commencedBy()).get();
 
@@ -300,10 +353,9 @@ public final class ImmutableGameState implements Board.GameState {
                             move.ticket2, move.destination2);
                     final ImmutableGameState InterGameState = this.visit(firstMove);
                     InterGameState.remaining = ImmutableSet.of(mrX.piece());
-                    // if we do not recalculate the available moves, the advance method will throw
-                    // because it should be a detective's turn.
-                    InterGameState.moves = InterGameState.calculateAvailableMoves();
-                    return InterGameState.advance(secondMove);
+                    // the double move was checked as a whole, so the state midway needs neither
+                    // its available moves nor its winner
+                    return InterGameState.apply(secondMove);
                 }
 
             });
@@ -322,16 +374,13 @@ public final class ImmutableGameState implements Board.GameState {
                     List<Piece> l = new ArrayList<>(remaining.asList());
                     l.remove(detective.piece());// +
                     remaining = ImmutableSet.copyOf(l);
-                    var gameStateHasLeftDetectives = new ImmutableGameState(setup, remaining, log, mrX, detectives);
-                    var gameStateForNextRound = new ImmutableGameState(setup, ImmutableSet.of(Piece.MrX.MRX), log, mrX,
-                            detectives);
-                    if (!remaining.isEmpty())
-                        if (gameStateHasLeftDetectives.calculateAvailableMoves().isEmpty())
-                            return gameStateForNextRound;
-                        else
+                    if (!remaining.isEmpty()) {
+                        var gameStateHasLeftDetectives = new ImmutableGameState(setup, remaining, log, mrX,
+                                detectives);
+                        if (!gameStateHasLeftDetectives.calculatedMoves().isEmpty())
                             return gameStateHasLeftDetectives;
-                    else
-                        return gameStateForNextRound;
+                    }
+                    return new ImmutableGameState(setup, ImmutableSet.of(Piece.MrX.MRX), log, mrX, detectives);
                 }
 
                 // detectives cannot make double moves
@@ -344,6 +393,11 @@ public final class ImmutableGameState implements Board.GameState {
         }
     }
 
+    @Nonnull
+    public DistanceOracle getDistances() {
+        return distances;
+    }
+
     public List<Player> getDetectives() {
         return detectives;
     }
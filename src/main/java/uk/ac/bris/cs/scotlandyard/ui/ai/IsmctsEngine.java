@@ -0,0 +1,519 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import uk.ac.bris.cs.scotlandyard.model.Board;
+import uk.ac.bris.cs.scotlandyard.model.Move;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Single-observer information set Monte Carlo tree search. Every iteration puts Mr X on a location
+ * sampled from the detectives' {@link MrXBelief} (or his real one when he is the one searching),
+ * walks the shared tree with UCT restricted to the moves legal in that sample, adds one node and
+ * finishes the game with an epsilon-greedy playout.
+ * <p>
+ * In the detectives' tree Mr X's moves are keyed by what the detectives see of them, the tickets and
+ * any location revealed, so the samples share one branch per observation instead of each growing its
+ * own from its own location, and the detectives' choices below it cannot depend on where Mr X really
+ * is. Which of the moves behind an observation is played in a sample is picked at random.
+ * <p>
+ * All threads grow one tree. A thread counts its visit on the way down, before the result is known,
+ * which acts as a virtual loss that steers the other threads to different branches. The subtree of
+ * the position reached after the chosen move is kept for the next turn when the moves played since
+ * can be identified.
+ */
+public final class IsmctsEngine implements SearchEngine {
+
+    private static final String ENGINE = "ismcts";
+    private static final int[] DETECTIVE_TICKETS = {
+            Ticket.TAXI.ordinal(), Ticket.BUS.ordinal(), Ticket.UNDERGROUND.ordinal()};
+
+    private final double exploration = SearchConfig.mctsExploration();
+    private final double epsilon = SearchConfig.playoutEpsilon();
+    private final int maxNodes = SearchConfig.mctsMaxNodes();
+    private final AtomicInteger nodes = new AtomicInteger();
+    private final Worker[] workers;
+    private final SearchThreads helpers;    // null when searching on the caller only
+
+    // the tree below our last move, with the state it was searched from
+    private Node kept;
+    private SearchState keptState;
+    private SearchReport lastReport;
+
+    /**
+     * A move in the tree. The statistics of a node are guarded by its parent's lock.
+     */
+    static final class Node {
+        final int move;  // for Mr X's moves in the detectives' tree, what they see of it
+        final boolean byMrX;
+        final List<Node> children = new ArrayList<>(4);
+        int visits;
+        int availability;
+        double reward;  // wins for the side that made the move
+
+        Node(int move, boolean byMrX) {
+            this.move = move;
+            this.byMrX = byMrX;
+        }
+    }
+
+    private static final class Worker {
+        final MoveBuffer moves = new MoveBuffer();
+        final MoveBuffer made = new MoveBuffer(256);
+        final SplittableRandom random = new SplittableRandom();
+        final SearchContext context = new SearchContext();  // counts the states visited for the clock
+        Node[] path = new Node[64];
+        int[] available = new int[256];  // keys of the legal moves, sorted
+        int[] played = new int[256];     // the move played for each key
+        long[] keyed = new long[256];
+        boolean[] seen = new boolean[256];
+        SearchState state;
+        boolean observing;  // searching for the detectives, who only see what Mr X's moves reveal
+        int chosen;         // move played for the node select returned
+
+        // counters of the current search: playouts and the deepest path in the tree
+        long playouts;
+        int depth;
+    }
+
+    public IsmctsEngine() {
+        this(SearchConfig.threads());
+    }
+
+    /**
+     * @param threads most search threads including the caller's, the helpers leased from
+     *                {@link SearchThreads} for each search
+     */
+    public IsmctsEngine(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("Search needs at least one thread, got " + threads);
+        this.workers = new Worker[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker();
+        }
+        if (threads == 1) {
+            this.helpers = null;
+        } else {
+            this.helpers = SearchThreads.shared();
+        }
+    }
+
+    @Override
+    public void close() {
+        // the helpers are shared and outlive the engine
+    }
+
+    @Nullable
+    @Override
+    public SearchReport lastReport() {
+        return lastReport;
+    }
+
+    @Nonnull
+    @Override
+    public Move pickMove(@Nonnull Board board, @Nonnull SearchClock clock) {
+        return planRound(board, clock).get(0);
+    }
+
+    /**
+     * The detectives' plan follows the most visited child from the chosen move until Mr X is to move.
+     */
+    @Nonnull
+    @Override
+    public List<Move> planRound(@Nonnull Board board, @Nonnull SearchClock clock) {
+        final Move any = board.getAvailableMoves().iterator().next();
+        final boolean mrX = any.commencedBy().isMrX();
+        // Mr X knows where he is; the detectives sample from everywhere he could be
+        final int[] candidates = mrX ? null : MrXBelief.fromBoard(board).toArray();
+        final SearchState root = SearchState.fromBoard(board,
+                mrX ? any.source() : candidates.length > 0 ? candidates[0] : board.getSetup().graph.nodes().iterator().next());
+        final int[] determinizations = candidates == null || candidates.length == 0 ? null : candidates;
+
+        Node tree = reuse(root, mrX);
+        if (tree == null) {
+            tree = new Node(Moves.NONE, !mrX);
+            nodes.set(1);
+        }
+        clock.plan(root);
+        final int threads = search(tree, root, !mrX, determinizations, clock);
+        final SearchReport.Builder report = new SearchReport.Builder(ENGINE);
+        report.search();
+        report.threads(threads);
+        int depth = 0;
+        for (int id = 0; id < threads; id++) {
+            final Worker worker = workers[id];
+            report.add(worker.context.nodes, worker.playouts);
+            depth = Math.max(depth, worker.depth);
+        }
+        report.completed(depth);
+        lastReport = report.build(clock);
+
+        Node best = null;
+        for (Node child : tree.children) {
+            if (best == null || child.visits > best.visits) best = child;
+        }
+        final int move;
+        if (best == null) {
+            // not even one iteration finished, so play any legal move
+            final MoveBuffer buffer = new MoveBuffer();
+            root.generateJointMoves(buffer, mrX);
+            move = buffer.get(0);
+            kept = null;
+        } else {
+            move = best.move;
+            kept = best;
+            keptState = root.copy();
+            keptState.make(move);
+        }
+
+        final List<Move> plan = new ArrayList<>();
+        plan.add(Moves.toMove(move, root));
+        final SearchState state = root.copy();
+        state.make(move);
+        final MoveBuffer legal = new MoveBuffer(256);
+        for (Node node = best; node != null && !state.isMrXTurn() && state.winner() == SearchState.NO_WINNER; ) {
+            Node next = null;
+            for (Node child : node.children) {
+                if (next == null || child.visits > next.visits) next = child;
+            }
+            if (next == null || next.byMrX || !contains(legal, state, next.move, mrX)) break;
+            plan.add(Moves.toMove(next.move, root));
+            state.make(next.move);
+            node = next;
+        }
+        return plan;
+    }
+
+    private static boolean contains(MoveBuffer legal, SearchState state, int move, boolean mrXLocationKnown) {
+        legal.release(0);
+        final int count = state.generateJointMoves(legal, mrXLocationKnown);
+        for (int i = 0; i < count; i++) {
+            if (legal.get(i) == move) return true;
+        }
+        return false;
+    }
+
+    /* returns the number of threads that searched, the first workers */
+    private int search(Node tree, SearchState root, boolean observing, @Nullable int[] candidates,
+            SearchClock clock) {
+        final int leased = helpers == null ? 0 : helpers.lease(workers.length - 1);
+        final List<Future<?>> running = new ArrayList<>(leased);
+        try {
+            for (int id = 1; id <= leased; id++) {
+                final Worker worker = workers[id];
+                worker.state = root.copy();
+                worker.observing = observing;
+                running.add(helpers.submit(() -> run(worker, tree, candidates, clock)));
+            }
+            workers[0].state = root.copy();
+            workers[0].observing = observing;
+            run(workers[0], tree, candidates, clock);
+            clock.abort();
+            for (Future<?> future : running) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Search helper failed", e.getCause());
+                }
+            }
+        } finally {
+            if (helpers != null) helpers.release(leased);
+        }
+        return 1 + leased;
+    }
+
+    private void run(Worker worker, Node tree, @Nullable int[] candidates, SearchClock clock) {
+        worker.context.nodes = 0;
+        worker.playouts = 0;
+        worker.depth = 0;
+        // shouldAbort, called for every state visited, ends the loop at the hard deadline or node limit
+        while (clock.canStartIteration()) {
+            if (candidates != null) {
+                worker.state.relocateMrX(candidates[worker.random.nextInt(candidates.length)]);
+            }
+            iterate(worker, tree, clock);
+        }
+    }
+
+    /* one selection, expansion, playout and backpropagation, leaving the state as it was */
+    private void iterate(Worker worker, Node tree, SearchClock clock) {
+        final SearchState state = worker.state;
+        final MoveBuffer made = worker.made;
+        made.release(0);
+        int depth = 0;
+        worker.path[0] = tree;
+        Node node = tree;
+        while (state.winner() == SearchState.NO_WINNER) {
+            worker.moves.release(0);
+            // the detectives' tree cannot steer by a sampled location of Mr X's
+            final int count = state.generateJointMoves(worker.moves, !worker.observing);
+            final Node child = select(worker, node, count);
+            if (child == null) break;
+            state.make(worker.chosen);
+            made.add(worker.chosen);
+            clock.shouldAbort(worker.context);
+            if (++depth == worker.path.length) worker.path = Arrays.copyOf(worker.path, depth * 2);
+            worker.path[depth] = child;
+            node = child;
+            if (child.visits == 1) break;  // just expanded
+        }
+
+        worker.depth = Math.max(worker.depth, depth);
+        worker.playouts++;
+        final int winner = playout(worker, clock);
+        // a playout cut short by the clock has no result, so the path keeps only its visits
+        for (int i = 1; i <= depth && winner != SearchState.NO_WINNER; i++) {
+            final Node child = worker.path[i];
+            if ((winner == SearchState.MRX_WINS) == child.byMrX) {
+                synchronized (worker.path[i - 1]) {
+                    child.reward += 1.0;
+                }
+            }
+        }
+        for (int i = made.size() - 1; i >= 0; i--) {
+            state.unmake(made.get(i));
+        }
+    }
+
+    /**
+     * Picks the child to descend into among the moves legal in this determinization, which are on top
+     * of the worker's move buffer: an untried move if there is one, otherwise the best by UCT. The
+     * visit is counted straight away, and the move to play for it left in {@link Worker#chosen}.
+     *
+     * @return null if nothing can be descended into
+     */
+    @Nullable
+    private Node select(Worker worker, Node node, int moves) {
+        if (worker.available.length < moves) {
+            worker.available = new int[moves * 2];
+            worker.played = new int[moves * 2];
+            worker.keyed = new long[moves * 2];
+            worker.seen = new boolean[moves * 2];
+        }
+        final int[] available = worker.available;
+        final int[] played = worker.played;
+        final boolean[] seen = worker.seen;
+        final int count;
+        if (worker.observing && worker.state.isMrXTurn()) {
+            count = observe(worker, moves);
+        } else {
+            count = moves;
+            for (int i = 0; i < count; i++) {
+                available[i] = worker.moves.get(i);
+            }
+            Arrays.sort(available, 0, count);
+            System.arraycopy(available, 0, played, 0, count);
+        }
+        Arrays.fill(seen, 0, count, false);
+
+        synchronized (node) {
+            Node best = null;
+            double bestScore = Double.NEGATIVE_INFINITY;
+            int untried = count;
+            for (Node child : node.children) {
+                final int index = Arrays.binarySearch(available, 0, count, child.move);
+                if (index < 0) continue;
+                seen[index] = true;
+                untried--;
+                child.availability++;
+                final double score = child.reward / child.visits
+                        + exploration * Math.sqrt(Math.log(child.availability) / child.visits);
+                if (score > bestScore) {
+                    best = child;
+                    bestScore = score;
+                    worker.chosen = played[index];
+                }
+            }
+            if (untried > 0 && nodes.get() < maxNodes) {
+                int pick = worker.random.nextInt(untried);
+                for (int i = 0; i < count; i++) {
+                    if (!seen[i] && pick-- == 0) {
+                        final Node child = new Node(available[i], Moves.player(played[i]) == SearchState.MRX);
+                        worker.chosen = played[i];
+                        child.visits = 1;
+                        child.availability = 1;
+                        node.children.add(child);
+                        nodes.incrementAndGet();
+                        return child;
+                    }
+                }
+            }
+            if (best != null) best.visits++;
+            return best;
+        }
+    }
+
+    /**
+     * Keys Mr X's moves on top of the worker's move buffer by what the detectives see of them, leaving
+     * the distinct keys sorted in {@link Worker#available} and for each a random one of its moves in
+     * {@link Worker#played}.
+     *
+     * @return the number of keys, fewer than the moves whenever two of them look the same
+     */
+    private static int observe(Worker worker, int moves) {
+        final long[] keyed = worker.keyed;
+        for (int i = 0; i < moves; i++) {
+            final int move = worker.moves.get(i);
+            keyed[i] = (long) worker.state.observedMove(move) << 32 | move;
+        }
+        Arrays.sort(keyed, 0, moves);
+        int count = 0;
+        int alike = 0;
+        for (int i = 0; i < moves; i++) {
+            final int key = (int) (keyed[i] >>> 32);
+            final int move = (int) keyed[i];
+            if (count == 0 || worker.available[count - 1] != key) {
+                worker.available[count] = key;
+                worker.played[count++] = move;
+                alike = 1;
+            } else if (worker.random.nextInt(++alike) == 0) {
+                worker.played[count - 1] = move;  // reservoir sampling keeps each move equally likely
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Plays the game out from the worker's state, recording the moves it makes.
+     *
+     * @return the winner, or {@link SearchState#NO_WINNER} if the clock ran out first
+     */
+    private int playout(Worker worker, SearchClock clock) {
+        final SearchState state = worker.state;
+        final MoveBuffer buffer = worker.moves;
+        final DistanceOracle distances = state.getDistances();
+        int winner;
+        while ((winner = state.winner()) == SearchState.NO_WINNER) {
+            buffer.release(0);
+            final int count = state.generateMoves(buffer);
+            if (count == 0) break;
+            int move = buffer.get(worker.random.nextInt(count));
+            if (worker.random.nextDouble() >= epsilon) {
+                move = state.isMrXTurn() ? escape(state, buffer, count, distances) : chase(state, buffer, count, distances);
+            }
+            state.make(move);
+            worker.made.add(move);
+            if (clock.shouldAbort(worker.context)) return SearchState.NO_WINNER;
+        }
+        return winner;
+    }
+
+    /* Mr X's move ending furthest from the nearest detective, preferring single moves */
+    private static int escape(SearchState state, MoveBuffer buffer, int count, DistanceOracle distances) {
+        int best = buffer.get(0);
+        int bestDistance = -1;
+        for (int i = 0; i < count; i++) {
+            final int move = buffer.get(i);
+            final int destination = Moves.destination(move);
+            int nearest = Integer.MAX_VALUE;
+            for (int d = 1; d < state.playerCount(); d++) {
+                nearest = Math.min(nearest, distances.distance(state.location(d), destination));
+            }
+            if (nearest > bestDistance || (nearest == bestDistance && Moves.isDouble(best) && !Moves.isDouble(move))) {
+                best = move;
+                bestDistance = nearest;
+            }
+        }
+        return best;
+    }
+
+    /* the detective move ending closest to Mr X */
+    private static int chase(SearchState state, MoveBuffer buffer, int count, DistanceOracle distances) {
+        final int target = state.mrXLocation();
+        int best = buffer.get(0);
+        int bestDistance = Integer.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            final int move = buffer.get(i);
+            final int distance = distances.distance(Moves.destination(move), target);
+            if (distance < bestDistance) {
+                best = move;
+                bestDistance = distance;
+            }
+        }
+        return best;
+    }
+
+    /* ---------------------------------------------------------------- tree reuse */
+
+    /**
+     * Finds the node for the new root in the tree kept from the last turn. Only detective moves can be
+     * followed, as they are the only moves both sides see in full; if Mr X moved since, the tree is
+     * dropped. Detectives may have moved in any order, so every order is tried.
+     *
+     * @return the node, or null to start a new tree
+     */
+    @Nullable
+    private Node reuse(SearchState root, boolean mrX) {
+        final Node tree = kept;
+        final SearchState from = keptState;
+        kept = null;
+        keptState = null;
+        if (tree == null || from.logSize() != root.logSize() || from.playerCount() != root.playerCount()) return null;
+        if (mrX && from.mrXLocation() != root.mrXLocation()) return null;
+
+        final List<Integer> moved = new ArrayList<>();
+        for (int d = 1; d < root.playerCount(); d++) {
+            if (from.location(d) != root.location(d)) {
+                final int ticket = usedTicket(from, root, d);
+                if (ticket < 0) return null;
+                moved.add(Moves.single(d, from.location(d), ticket, root.location(d)));
+            }
+        }
+        if (!mrX) from.relocateMrX(root.mrXLocation());
+        final Node found = follow(tree, from, moved, new boolean[moved.size()], 0, root);
+        if (found != null) nodes.set(count(found));
+        return found;
+    }
+
+    @Nullable
+    private static Node follow(Node node, SearchState state, List<Integer> moves, boolean[] used, int done,
+            SearchState root) {
+        if (done == moves.size()) {
+            return state.hash() == root.hash() ? node : null;
+        }
+        for (int i = 0; i < moves.size(); i++) {
+            if (used[i]) continue;
+            final int move = moves.get(i);
+            if ((state.remaining() & (1 << Moves.player(move))) == 0) continue;
+            Node child = null;
+            for (Node c : node.children) {
+                if (c.move == move) child = c;
+            }
+            if (child == null) continue;
+            used[i] = true;
+            state.make(move);
+            final Node found = follow(child, state, moves, used, done + 1, root);
+            state.unmake(move);
+            used[i] = false;
+            if (found != null) return found;
+        }
+        return null;
+    }
+
+    /* the ticket detective d spent between the two states, or -1 if that is unclear */
+    private static int usedTicket(SearchState before, SearchState after, int d) {
+        for (int ticket : DETECTIVE_TICKETS) {
+            final Ticket t = Ticket.values()[ticket];
+            if (before.tickets(d, t) - after.tickets(d, t) == 1) return ticket;
+        }
+        return -1;
+    }
+
+    private static int count(Node node) {
+        int total = 1;
+        for (Node child : node.children) {
+            total += count(child);
+        }
+        return total;
+    }
+}
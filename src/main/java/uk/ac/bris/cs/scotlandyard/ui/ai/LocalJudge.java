@@ -0,0 +1,269 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import jakarta.websocket.CloseReason;
+import jakarta.websocket.DeploymentException;
+import org.glassfish.tyrus.spi.ServerContainer;
+import uk.ac.bris.cs.scotlandyard.event.GameOver;
+import uk.ac.bris.cs.scotlandyard.event.GameStarted;
+import uk.ac.bris.cs.scotlandyard.event.ImmutableGameOver;
+import uk.ac.bris.cs.scotlandyard.event.ImmutableGameStarted;
+import uk.ac.bris.cs.scotlandyard.event.ImmutablePlayerSetup;
+import uk.ac.bris.cs.scotlandyard.event.ImmutableStateChanged;
+import uk.ac.bris.cs.scotlandyard.event.JoinPool;
+import uk.ac.bris.cs.scotlandyard.event.SelectMove;
+import uk.ac.bris.cs.scotlandyard.event.StateChanged;
+import uk.ac.bris.cs.scotlandyard.model.Board;
+import uk.ac.bris.cs.scotlandyard.model.GameSetup;
+import uk.ac.bris.cs.scotlandyard.model.Move;
+import uk.ac.bris.cs.scotlandyard.model.Piece;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard;
+import uk.ac.bris.cs.wskit.KryoCodec;
+import uk.ac.bris.cs.wskit.RemoteEndpoint;
+import uk.ac.bris.cs.wskit.WebSocketListener;
+import uk.ac.bris.cs.wskit.WebSockets;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A judge for the websocket event protocol hosted in the same process, to run an {@link AiServer}
+ * against without a real one. Connections that send {@link JoinPool} are paired in the order they
+ * join, the first playing Mr X; each game starts from {@link Tournament#randomStart} on
+ * {@link ImmutableGameState} and a side that does not answer within the timeout loses.
+ * <p>
+ * Both sides are told every change. Mr X's location is never sent to the detectives and the moves are
+ * only sent to the side that is to move.
+ */
+public final class LocalJudge implements AutoCloseable {
+
+    static final String PATH = "/pool";
+
+    private final ServerContainer server;
+    private final int port;
+    private final GameSetup setup;
+    private final Duration timeout;
+    private final long seed;
+    private final AtomicInteger games = new AtomicInteger();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "judge-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private Player waiting;  // guarded by this
+
+    private LocalJudge(int port, GameSetup setup, Duration timeout, long seed) throws IOException, DeploymentException {
+        this.port = port;
+        this.setup = setup;
+        this.timeout = timeout;
+        this.seed = seed;
+        this.server = WebSockets.startServer("/", port,
+                WebSockets.createServerConfig(PATH, KryoCodec.class, KryoCodec.class, Player::new));
+    }
+
+    /**
+     * Starts a judge for the standard board, listening on the port.
+     *
+     * @param timeout time each move may take
+     * @param seed    seed of the first game's start; game n starts from {@code seed + n}
+     */
+    @Nonnull
+    public static LocalJudge start(int port, @Nonnull Duration timeout, long seed) throws IOException,
+            DeploymentException {
+        return new LocalJudge(port, new GameSetup(ScotlandYard.standardGraph(), ScotlandYard.STANDARD24MOVES),
+                timeout, seed);
+    }
+
+    /**
+     * @return where to connect to the judge
+     */
+    @Nonnull
+    public String uri() {
+        return "ws://localhost:" + port + PATH;
+    }
+
+    /**
+     * @return games started so far
+     */
+    public int games() {
+        return games.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop();
+        timer.shutdownNow();
+    }
+
+    private synchronized void join(Player player) {
+        if (waiting == null || !waiting.endpoint.isOpen()) {
+            waiting = player;
+            return;
+        }
+        final Player mrX = waiting;
+        waiting = null;
+        final int index = games.getAndIncrement();
+        new Game("game-" + index, mrX, player, new Random(seed + index)).start();
+    }
+
+    /**
+     * One connection to the judge
+     */
+    private final class Player implements WebSocketListener<Object, Object> {
+        private RemoteEndpoint<Object> endpoint;
+        private String username;
+        private Game game;
+        private boolean mrX;
+        private String token;
+
+        @Override
+        public void onOpened(RemoteEndpoint<Object> endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        @Override
+        public void onMessage(Object message, RemoteEndpoint<Object> endpoint) {
+            if (message instanceof JoinPool) {
+                username = ((JoinPool) message).username();
+                join(this);
+            } else if (message instanceof SelectMove) {
+                final Game current = game;
+                if (current != null) current.select(this, (SelectMove) message);
+            }
+        }
+
+        @Override
+        public void onClosed(CloseReason.CloseCodes code, String reason) {
+            final Game current = game;
+            if (current != null) current.end(ImmutableSet.of(), GameOver.Reason.CLIENT_ERROR, this);
+        }
+    }
+
+    /**
+     * A game between two connections, its moves made under its own lock
+     */
+    private final class Game {
+        private final String identifier;
+        private final Player mrX;
+        private final Player detectives;
+        private ImmutableGameState state;
+        private ScheduledFuture<?> deadline;
+        private boolean over;
+
+        Game(String identifier, Player mrX, Player detectives, Random random) {
+            this.identifier = identifier;
+            this.mrX = mrX;
+            this.detectives = detectives;
+            this.state = Tournament.randomStart(setup, random);
+        }
+
+        synchronized void start() {
+            for (Player player : ImmutableList.of(mrX, detectives)) {
+                player.game = this;
+                player.mrX = player == mrX;
+                player.token = UUID.randomUUID().toString();
+            }
+            final ImmutableSet.Builder<GameStarted.PlayerSetup> players = ImmutableSet.builder();
+            for (Piece piece : state.getPlayers()) {
+                players.add(ImmutablePlayerSetup.of(piece.isMrX() ? mrX.username : detectives.username,
+                        piece.toString(), piece,
+                        piece.isMrX() ? Optional.empty()
+                                : state.getDetectiveLocation((Piece.Detective) piece),
+                        tickets(state, piece)));
+            }
+            for (Player player : ImmutableList.of(mrX, detectives)) {
+                player.endpoint.send(ImmutableGameStarted.builder()
+                        .identifier(identifier)
+                        .players(players.build())
+                        .rounds(setup.moves)
+                        .timeout(timeout)
+                        .token(player.token)
+                        .scoreboardUrl("")
+                        .initialChange(view(player))
+                        .build());
+            }
+            schedule();
+        }
+
+        synchronized void select(Player player, SelectMove select) {
+            if (over) return;
+            final Move move = select.selected();
+            if (!player.token.equals(select.token()) || move.commencedBy().isMrX() != player.mrX
+                    || !state.getAvailableMoves().contains(move)) {
+                end(ImmutableSet.of(), GameOver.Reason.CLIENT_ERROR, player);
+                return;
+            }
+            if (deadline != null) deadline.cancel(false);
+            state = state.newState(move);
+            for (Player each : ImmutableList.of(mrX, detectives)) {
+                each.endpoint.send(view(each));
+            }
+            if (!state.getWinner().isEmpty()) end(state.getWinner(), GameOver.Reason.NORMAL, null);
+            else schedule();
+        }
+
+        private void schedule() {
+            final boolean mrXToMove = state.getAvailableMoves().iterator().next().commencedBy().isMrX();
+            deadline = timer.schedule(() -> end(ImmutableSet.of(), GameOver.Reason.TIMEOUT,
+                    mrXToMove ? mrX : detectives), timeout.toNanos(), TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * @param loser the player at fault, whose opponent wins, or null when the game ended normally
+         */
+        synchronized void end(ImmutableSet<Piece> winners, GameOver.Reason reason, Player loser) {
+            if (over) return;
+            over = true;
+            if (deadline != null) deadline.cancel(false);
+            final ImmutableSet<Piece> winner = loser == null ? winners : side(loser != mrX);
+            final GameOver message = ImmutableGameOver.of(winner, reason);
+            for (Player player : ImmutableList.of(mrX, detectives)) {
+                player.game = null;
+                if (player.endpoint.isOpen()) player.endpoint.send(message);
+            }
+        }
+
+        private ImmutableSet<Piece> side(boolean ofMrX) {
+            return state.getPlayers().stream().filter(piece -> piece.isMrX() == ofMrX)
+                    .collect(ImmutableSet.toImmutableSet());
+        }
+
+        private StateChanged view(Player player) {
+            final ImmutableMap.Builder<Piece.Detective, Integer> locations = ImmutableMap.builder();
+            final ImmutableMap.Builder<Piece, ImmutableMap<ScotlandYard.Ticket, Integer>> tickets =
+                    ImmutableMap.builder();
+            for (Piece piece : state.getPlayers()) {
+                if (piece.isDetective()) {
+                    locations.put((Piece.Detective) piece,
+                            state.getDetectiveLocation((Piece.Detective) piece).orElseThrow());
+                }
+                tickets.put(piece, tickets(state, piece));
+            }
+            final boolean mrXToMove = !state.getAvailableMoves().isEmpty()
+                    && state.getAvailableMoves().iterator().next().commencedBy().isMrX();
+            return ImmutableStateChanged.of(locations.build(), tickets.build(), state.getMrXTravelLog(),
+                    state.getWinner(), mrXToMove == player.mrX ? state.getAvailableMoves() : ImmutableSet.of(),
+                    side(!player.mrX));
+        }
+    }
+
+    private static ImmutableMap<ScotlandYard.Ticket, Integer> tickets(Board board, Piece piece) {
+        final Board.TicketBoard tickets = board.getPlayerTickets(piece).orElseThrow();
+        final ImmutableMap.Builder<ScotlandYard.Ticket, Integer> counts = ImmutableMap.builder();
+        for (ScotlandYard.Ticket ticket : ScotlandYard.Ticket.values()) {
+            counts.put(ticket, tickets.getCount(ticket));
+        }
+        return counts.build();
+    }
+}
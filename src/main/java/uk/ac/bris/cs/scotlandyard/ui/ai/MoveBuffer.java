@@ -0,0 +1,48 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import java.util.Arrays;
+
+/**
+ * Stack of encoded moves shared by every ply of one search thread. A node remembers
+ * {@link #size()}, generates its moves on top and {@link #release(int)}s them once it is done, so
+ * after warm-up the search never allocates move lists.
+ */
+public final class MoveBuffer {
+
+    private int[] moves;
+    private int size;
+
+    public MoveBuffer() {
+        this(4096);
+    }
+
+    public MoveBuffer(int capacity) {
+        this.moves = new int[capacity];
+    }
+
+    public void add(int move) {
+        if (size == moves.length) {
+            moves = Arrays.copyOf(moves, moves.length * 2);
+        }
+        moves[size++] = move;
+    }
+
+    public int get(int index) {
+        return moves[index];
+    }
+
+    public void set(int index, int move) {
+        moves[index] = move;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Drops every move above {@code mark}, a value previously returned by {@link #size()}
+     */
+    public void release(int mark) {
+        size = mark;
+    }
+}
@@ -0,0 +1,130 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import uk.ac.bris.cs.scotlandyard.model.Move;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Moves encoded as a single non-negative int, used throughout the search so that move lists are
+ * plain int arrays. Only the move returned from {@code pickMove} is turned back into a {@link Move}.
+ * <pre>
+ *  bits  0-2   player index in the {@link SearchState}
+ *  bits  3-10  source
+ *  bits 11-12  first ticket (taxi, bus, underground, secret)
+ *  bits 13-20  first destination
+ *  bits 21-22  second ticket
+ *  bits 23-30  second destination, 0 for single moves
+ * </pre>
+ */
+public final class Moves {
+
+    /**
+     * Never a valid move, as no move has source 0
+     */
+    public static final int NONE = 0;
+
+    private static final Ticket[] TICKETS = {Ticket.TAXI, Ticket.BUS, Ticket.UNDERGROUND, Ticket.SECRET};
+    private static final int[] TICKET_CODES = new int[Ticket.values().length];
+
+    static {
+        for (int code = 0; code < TICKETS.length; code++) {
+            TICKET_CODES[TICKETS[code].ordinal()] = code;
+        }
+    }
+
+    private Moves() {
+    }
+
+    /**
+     * @param ticket the ticket's ordinal
+     */
+    public static int single(int player, int source, int ticket, int destination) {
+        return player | source << 3 | TICKET_CODES[ticket] << 11 | destination << 13;
+    }
+
+    /**
+     * @param ticket1 the first ticket's ordinal
+     * @param ticket2 the second ticket's ordinal
+     */
+    public static int doubleMove(int player, int source, int ticket1, int destination1, int ticket2,
+            int destination2) {
+        return single(player, source, ticket1, destination1) | TICKET_CODES[ticket2] << 21 | destination2 << 23;
+    }
+
+    public static int player(int move) {
+        return move & 0x7;
+    }
+
+    public static int source(int move) {
+        return (move >>> 3) & 0xFF;
+    }
+
+    /**
+     * @return the ordinal of the first (or only) ticket
+     */
+    public static int ticket1(int move) {
+        return TICKETS[(move >>> 11) & 0x3].ordinal();
+    }
+
+    public static int destination1(int move) {
+        return (move >>> 13) & 0xFF;
+    }
+
+    /**
+     * @return the ordinal of the second ticket; meaningless for single moves
+     */
+    public static int ticket2(int move) {
+        return TICKETS[(move >>> 21) & 0x3].ordinal();
+    }
+
+    public static int destination2(int move) {
+        return (move >>> 23) & 0xFF;
+    }
+
+    public static boolean isDouble(int move) {
+        return destination2(move) != 0;
+    }
+
+    /**
+     * @return where the moving piece ends up
+     */
+    public static int destination(int move) {
+        return isDouble(move) ? destination2(move) : destination1(move);
+    }
+
+    @Nonnull
+    public static Move toMove(int move, @Nonnull SearchState state) {
+        if (isDouble(move))
+            return new Move.DoubleMove(state.piece(player(move)), source(move),
+                    TICKETS[(move >>> 11) & 0x3], destination1(move),
+                    TICKETS[(move >>> 21) & 0x3], destination2(move));
+        return new Move.SingleMove(state.piece(player(move)), source(move),
+                TICKETS[(move >>> 11) & 0x3], destination1(move));
+    }
+
+    public static int fromMove(@Nonnull Move move, @Nonnull SearchState state) {
+        final int player = state.indexOf(move.commencedBy());
+        return move.accept(new Move.Visitor<>() {
+            @Override
+            public Integer visit(Move.SingleMove move) {
+                return single(player, move.source(), move.ticket.ordinal(), move.destination);
+            }
+
+            @Override
+            public Integer visit(Move.DoubleMove move) {
+                return doubleMove(player, move.source(), move.ticket1.ordinal(), move.destination1,
+                        move.ticket2.ordinal(), move.destination2);
+            }
+        });
+    }
+
+    @Nonnull
+    public static String toString(int move) {
+        return isDouble(move)
+                ? String.format("x2(%d@%d, %s, %d, %s, %d)", player(move), source(move),
+                TICKETS[(move >>> 11) & 0x3], destination1(move), TICKETS[(move >>> 21) & 0x3], destination2(move))
+                : String.format("%s(%d@%d, %d)", TICKETS[(move >>> 11) & 0x3], player(move), source(move),
+                destination1(move));
+    }
+}
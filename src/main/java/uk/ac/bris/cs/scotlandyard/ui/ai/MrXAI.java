@@ -6,14 +6,25 @@ import uk.ac.bris.cs.scotlandyard.model.Board;
 import uk.ac.bris.cs.scotlandyard.model.Move;
 
 import javax.annotation.Nonnull;
-import java.util.Comparator;
-import java.util.Optional;
 import java.util.concurrent.TimeUnit;
-import java.util.function.BiFunction;
 
 public class MrXAI implements Ai {
 
-    private GameTree gameTree;
+    private final SearchConfig.Engine kind;  // null to read it from the configuration on start
+    private SearchEngine engine;
+    private OpeningBook book;
+    private final SearchMetrics metrics = SearchMetrics.forSide("MrX");
+
+    public MrXAI() {
+        this.kind = null;
+    }
+
+    /**
+     * @param kind engine to play with, instead of {@link SearchConfig#mrXEngine()}
+     */
+    public MrXAI(@Nonnull SearchConfig.Engine kind) {
+        this.kind = kind;
+    }
 
     @Nonnull
     @Override
@@ -24,46 +35,26 @@ public class MrXAI implements Ai {
     @Nonnull
     @Override
     public Move pickMove(@Nonnull Board board, Pair<Long, TimeUnit> timeoutPair) {
-        final long startTime = System.currentTimeMillis();
-        final long oneSecond = 1000;
-
-        BiFunction<Integer, Move, Double> score = (Integer d, Move m) -> gameTree.itNegaMax(
-                new ImmutableGameState(board, m.source()).newState(m),
-                d, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, Optional.of(m.source()), startTime, timeoutPair);
-
-        Move move = null;
-        for (int d = 0; d < 4; d++) {
-            long curTime = System.currentTimeMillis();  // check if almost timeOut
-            if (timeoutPair.left() * 1000 - (curTime - startTime) < oneSecond) {
-                break;
-            }
-
-            // due to Java loop mechanics, d is not final, but we need a finally typed value
-            final Integer depth = d;
-            move = board
-                    .getAvailableMoves()
-                    .stream()
-                    .parallel()
-                    .max(Comparator.comparingDouble(m -> score.apply(depth, m)))
-                    .get();
+        final Move known = book == null ? null : book.lookup(board);
+        if (known != null) {
+            SnapshotLog.record(board, known, timeoutPair, null);
+            return known;
         }
-
-        try {
-            assert move != null;
-        } catch (NullPointerException e) {
-            System.out.println(e.getMessage() + " in MrX AI");
-        }
-
+        final Move move = engine.pickMove(board, SearchClock.start(timeoutPair));
+        metrics.record(engine.lastReport(), move);
+        SnapshotLog.record(board, move, timeoutPair, engine.lastReport());
         return move;
     }
 
     @Override
     public void onStart() {
-        this.gameTree = new GameTree();
+        this.engine = SearchEngine.create(kind != null ? kind : SearchConfig.mrXEngine());
+        this.book = OpeningBook.shared();
     }
 
     @Override
     public void onTerminate() {
+        engine.close();
     }
 
 }
@@ -0,0 +1,158 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import uk.ac.bris.cs.scotlandyard.model.Board;
+import uk.ac.bris.cs.scotlandyard.model.GameSetup;
+import uk.ac.bris.cs.scotlandyard.model.LogEntry;
+import uk.ac.bris.cs.scotlandyard.model.Piece;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Every node Mr X could be on, as seen by the detectives. Stored as a bitset of
+ * {@link BoardGraph#WORDS} longs so that following one of his moves costs a few hundred word
+ * operations: each possible node contributes its neighbours by the ticket he used, a reveal collapses
+ * the set to one node and nodes held by detectives are removed.
+ */
+public final class MrXBelief {
+
+    private final BoardGraph graph;
+    private final long[] nodes = new long[BoardGraph.WORDS];
+    private final long[] scratch = new long[BoardGraph.WORDS];
+
+    public MrXBelief(@Nonnull GameSetup setup) {
+        this.graph = BoardGraph.of(setup);
+    }
+
+    /**
+     * @return the belief after replaying Mr X's travel log from the standard starting locations, or
+     * from anywhere if the log cannot have started from one of those
+     */
+    @Nonnull
+    public static MrXBelief fromBoard(@Nonnull Board board) {
+        MrXBelief belief = fromLog(board.getSetup(), board.getMrXTravelLog(), ScotlandYard.MRX_LOCATIONS);
+        if (belief.isEmpty()) {
+            belief = fromLog(board.getSetup(), board.getMrXTravelLog(), null);
+        }
+        // Mr X can never share a node with a detective, or the game would be over
+        for (Piece piece : board.getPlayers()) {
+            if (piece.isDetective()) {
+                board.getDetectiveLocation((Piece.Detective) piece).ifPresent(belief::remove);
+            }
+        }
+        return belief;
+    }
+
+    /**
+     * Follows one entry of Mr X's travel log; the two halves of a double move are separate entries.
+     */
+    public void follow(@Nonnull LogEntry entry) {
+        if (entry.location().isPresent()) {
+            reveal(entry.location().get());
+        } else {
+            expand(entry.ticket().ordinal());
+        }
+    }
+
+    /**
+     * Moves every possible location along the edges usable with the given ticket (by ordinal).
+     */
+    public void expand(int ticket) {
+        Arrays.fill(scratch, 0L);
+        for (int w = 0; w < nodes.length; w++) {
+            long word = nodes[w];
+            while (word != 0) {
+                graph.addNeighbours(w * Long.SIZE + Long.numberOfTrailingZeros(word), ticket, scratch);
+                word &= word - 1;
+            }
+        }
+        System.arraycopy(scratch, 0, nodes, 0, nodes.length);
+    }
+
+    public void reveal(int node) {
+        Arrays.fill(nodes, 0L);
+        add(node);
+    }
+
+    public void add(int node) {
+        nodes[node >>> 6] |= 1L << node;
+    }
+
+    public void remove(int node) {
+        nodes[node >>> 6] &= ~(1L << node);
+    }
+
+    public boolean contains(int node) {
+        return (nodes[node >>> 6] & (1L << node)) != 0;
+    }
+
+    public int size() {
+        int count = 0;
+        for (long word : nodes) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * @return every possible node in ascending order
+     */
+    @Nonnull
+    public int[] toArray() {
+        final int[] result = new int[size()];
+        int i = 0;
+        for (int w = 0; w < nodes.length; w++) {
+            long word = nodes[w];
+            while (word != 0) {
+                result[i++] = w * Long.SIZE + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return up to {@code count} distinct possible nodes chosen uniformly at random
+     */
+    @Nonnull
+    public int[] sample(int count, @Nonnull Random random) {
+        final int[] all = toArray();
+        final int n = Math.min(count, all.length);
+        for (int i = 0; i < n; i++) {
+            int j = i + random.nextInt(all.length - i);
+            int node = all[j];
+            all[j] = all[i];
+            all[i] = node;
+        }
+        return Arrays.copyOf(all, n);
+    }
+
+    @Override
+    public String toString() {
+        return "MrXBelief" + Arrays.toString(toArray());
+    }
+
+    /**
+     * @param starts where Mr X may have started, or null for any node
+     * @return the belief of the detectives in a game whose log so far is {@code log}, ignoring detectives
+     */
+    @Nonnull
+    static MrXBelief fromLog(@Nonnull GameSetup setup, @Nonnull List<LogEntry> log, @Nullable List<Integer> starts) {
+        final MrXBelief belief = new MrXBelief(setup);
+        for (int node : starts == null ? setup.graph.nodes() : starts) {
+            if (node < belief.graph.size()) belief.add(node);
+        }
+        for (LogEntry entry : log) {
+            belief.follow(entry);
+        }
+        return belief;
+    }
+}
@@ -0,0 +1,198 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import uk.ac.bris.cs.scotlandyard.model.Board;
+import uk.ac.bris.cs.scotlandyard.model.GameSetup;
+import uk.ac.bris.cs.scotlandyard.model.Move;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Best moves for the first rounds of a game, searched offline by {@link OpeningBookBuilder} and read
+ * from a memory-mapped file, so opening a book costs no more than mapping it and a probe is a binary
+ * search over the mapped entries.
+ * <p>
+ * Mr X's positions are keyed by {@link SearchState#hash()}. The detectives do not know where Mr X is,
+ * so theirs are keyed by {@link SearchState#observedHash()}, which leaves his location out and takes
+ * in what his log shows instead. Only positions the builder played through are in the book, so it
+ * helps with the starts it was built for and stays silent otherwise.
+ * <pre>
+ *  header   magic, board fingerprint, entry count, unused   4 longs
+ *  entry    key (long), move (int, see {@link Moves}), value (float, NaN if unknown), sorted by key
+ * </pre>
+ */
+public final class OpeningBook {
+
+    private static final long MAGIC = 0x5C07_1A4D_B00C_0001L;
+    private static final int HEADER_BYTES = 32;
+    private static final int ENTRY_BYTES = 16;
+
+    private static final Map<String, OpeningBook> SHARED = new ConcurrentHashMap<>();
+
+    /**
+     * A book move and its value from the point of view of the side to move
+     */
+    public static final class Entry {
+        public final int move;
+        public final float value;
+
+        public Entry(int move, float value) {
+            this.move = move;
+            this.value = value;
+        }
+    }
+
+    private final ByteBuffer entries;
+    private final long fingerprint;
+    private final int count;
+    private volatile GameSetup matched;  // last setup found to be the book's board
+
+    private OpeningBook(ByteBuffer buffer) {
+        if (buffer.capacity() < HEADER_BYTES || buffer.getLong(0) != MAGIC)
+            throw new IllegalArgumentException("Not an opening book");
+        this.fingerprint = buffer.getLong(8);
+        final long count = buffer.getLong(16);
+        if (count < 0 || HEADER_BYTES + count * ENTRY_BYTES != buffer.capacity())
+            throw new IllegalArgumentException("Opening book is truncated");
+        this.count = (int) count;
+        this.entries = buffer;
+    }
+
+    /**
+     * Maps a book written by {@link #write}.
+     */
+    @Nonnull
+    public static OpeningBook open(@Nonnull Path path) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // the mapping stays valid after the channel is closed
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new OpeningBook(buffer.order(ByteOrder.LITTLE_ENDIAN));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot map opening book " + path, e);
+        }
+    }
+
+    /**
+     * @return the book named by {@link SearchConfig#bookFile()}, shared by every AI in the process, or
+     * null if there is none
+     */
+    @Nullable
+    public static OpeningBook shared() {
+        final String file = SearchConfig.bookFile();
+        return file == null ? null : SHARED.computeIfAbsent(file, f -> open(Paths.get(f)));
+    }
+
+    /**
+     * @return entries in the book
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return the book's entry for the position, or null if it has none
+     */
+    @Nullable
+    public Entry probe(long key) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int offset = HEADER_BYTES + mid * ENTRY_BYTES;
+            final long stored = entries.getLong(offset);
+            if (stored < key) low = mid + 1;
+            else if (stored > key) high = mid - 1;
+            else return new Entry(entries.getInt(offset + 8), entries.getFloat(offset + 12));
+        }
+        return null;
+    }
+
+    /**
+     * @return the book move for the side to move on the board, or null if the position is not in the
+     * book or the book was built for another board
+     */
+    @Nullable
+    public Move lookup(@Nonnull Board board) {
+        if (count == 0 || !matches(board.getSetup())) return null;
+        final Move any = board.getAvailableMoves().iterator().next();
+        final SearchState state;
+        final long key;
+        if (any.commencedBy().isMrX()) {
+            state = SearchState.fromBoard(board, any.source());
+            key = state.hash();
+        } else {
+            // the key leaves Mr X out, so any location will do
+            state = SearchState.fromBoard(board, board.getSetup().graph.nodes().iterator().next());
+            key = state.observedHash();
+        }
+        final Entry entry = probe(key);
+        if (entry == null) return null;
+        // a colliding key could name any move, so only a legal one is played
+        final Move move = Moves.toMove(entry.move, state);
+        return board.getAvailableMoves().contains(move) ? move : null;
+    }
+
+    private boolean matches(GameSetup setup) {
+        if (setup == matched) return true;
+        if (BoardGraph.fingerprint(setup) != fingerprint) return false;
+        matched = setup;
+        return true;
+    }
+
+    /**
+     * @return every entry of the book by key, to extend and write again
+     */
+    @Nonnull
+    public SortedMap<Long, Entry> entries() {
+        final SortedMap<Long, Entry> all = new TreeMap<>();
+        for (int i = 0; i < count; i++) {
+            final int offset = HEADER_BYTES + i * ENTRY_BYTES;
+            all.put(entries.getLong(offset), new Entry(entries.getInt(offset + 8), entries.getFloat(offset + 12)));
+        }
+        return all;
+    }
+
+    /**
+     * Writes a book for the setup's board. The file is written next to {@code path} and moved over it,
+     * so processes that have the old book mapped keep reading a whole one.
+     */
+    public static void write(@Nonnull Path path, @Nonnull GameSetup setup, @Nonnull SortedMap<Long, Entry> book) {
+        final ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + book.size() * ENTRY_BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN)
+                .putLong(MAGIC)
+                .putLong(BoardGraph.fingerprint(setup))
+                .putLong(book.size())
+                .putLong(0L);
+        for (Map.Entry<Long, Entry> entry : book.entrySet()) {
+            buffer.putLong(entry.getKey()).putInt(entry.getValue().move).putFloat(entry.getValue().value);
+        }
+        buffer.flip();
+        final Path absolute = path.toAbsolutePath();
+        try {
+            final Path temporary = Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), ".tmp");
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            Files.move(temporary, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write opening book " + path, e);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import io.atlassian.fugue.Pair;
+import uk.ac.bris.cs.scotlandyard.model.GameSetup;
+import uk.ac.bris.cs.scotlandyard.model.Move;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes an {@link OpeningBook} by playing the first rounds of games from seeded random starts, the
+ * same starts {@link Tournament} plays from, with a long search for every move. Each position met
+ * goes into the book with the move played from it; an existing book at the output path is kept and
+ * extended. Run it as
+ * <pre>
+ * java -cp ... uk.ac.bris.cs.scotlandyard.ui.ai.OpeningBookBuilder --out book.bin --starts 100 \
+ *     --rounds 3 --millis 10000
+ * </pre>
+ * and play with {@code -Dscotlandyard.ai.bookFile=book.bin}.
+ */
+public final class OpeningBookBuilder {
+
+    private final GameSetup setup;
+    private final int rounds;
+    private final long millis;
+    private final GameTree mrXTree = new GameTree();
+    private final AlphaBetaEngine detectives = new AlphaBetaEngine();
+
+    /**
+     * @param rounds rounds of each game to put in the book, counted in Mr X's turns
+     * @param millis time to search every move
+     */
+    public OpeningBookBuilder(@Nonnull GameSetup setup, int rounds, long millis) {
+        if (rounds < 1 || millis < 1)
+            throw new IllegalArgumentException("Need at least one round and 1ms per move");
+        this.setup = setup;
+        this.rounds = rounds;
+        this.millis = millis;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path out = Paths.get("book.bin");
+        int starts = 100;
+        int rounds = 3;
+        long millis = 10_000;
+        long seed = 0;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            final String value = args[i + 1];
+            switch (args[i]) {
+                case "--out":
+                    out = Paths.get(value);
+                    break;
+                case "--starts":
+                    starts = Integer.parseInt(value);
+                    break;
+                case "--rounds":
+                    rounds = Integer.parseInt(value);
+                    break;
+                case "--millis":
+                    millis = Long.parseLong(value);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        if (args.length % 2 != 0)
+            throw new IllegalArgumentException("Option " + args[args.length - 1] + " has no value");
+        // the searches take turns, so pondering would only slow them down
+        System.setProperty("scotlandyard.ai.ponder", "false");
+
+        final GameSetup setup = new GameSetup(ScotlandYard.standardGraph(), ScotlandYard.STANDARD24MOVES);
+        final SortedMap<Long, OpeningBook.Entry> book = Files.exists(out)
+                ? OpeningBook.open(out).entries()
+                : new TreeMap<>();
+        final OpeningBookBuilder builder = new OpeningBookBuilder(setup, rounds, millis);
+        try {
+            for (int start = 0; start < starts; start++) {
+                builder.play(Tournament.randomStart(setup, new Random(seed + start)), book);
+                // written after every start, so a long build can be stopped and resumed with --seed
+                OpeningBook.write(out, setup, book);
+                System.err.println((start + 1) + "/" + starts + " starts, " + book.size() + " positions");
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            builder.close();
+        }
+    }
+
+    /**
+     * Plays the first rounds from the start, adding every position met to the book.
+     */
+    public void play(@Nonnull ImmutableGameState start, @Nonnull SortedMap<Long, OpeningBook.Entry> book) {
+        ImmutableGameState state = start;
+        int turns = 0;  // Mr X's, which a double move counts once
+        while (state.getWinner().isEmpty()) {
+            final Move any = state.getAvailableMoves().iterator().next();
+            final SearchClock clock = SearchClock.start(new Pair<>(millis, TimeUnit.MILLISECONDS));
+            if (any.commencedBy().isMrX()) {
+                if (turns++ == rounds) break;
+                final SearchState root = SearchState.fromBoard(state, any.source());
+                mrXTree.getTable().newSearch();
+                final int best = mrXTree.search(root, true, clock);
+                final TranspositionTable.Entry entry = new TranspositionTable.Entry();
+                final float value = mrXTree.getTable().probe(root.hash(), entry) && entry.move == best
+                        ? (float) entry.value
+                        : Float.NaN;
+                book.put(root.hash(), new OpeningBook.Entry(best, value));
+                state = state.newState(Moves.toMove(best, root));
+                continue;
+            }
+            // the detectives search several of Mr X's locations and vote, which gives no single value
+            final List<Move> plan = detectives.planRound(state, clock);
+            for (Move move : plan) {
+                if (!state.getWinner().isEmpty() || !state.getAvailableMoves().contains(move)) break;
+                final SearchState observed = SearchState.fromBoard(state, setup.graph.nodes().iterator().next());
+                book.put(observed.observedHash(), new OpeningBook.Entry(Moves.fromMove(move, observed), Float.NaN));
+                state = state.newState(move);
+            }
+        }
+    }
+
+    public void close() {
+        detectives.close();
+    }
+}
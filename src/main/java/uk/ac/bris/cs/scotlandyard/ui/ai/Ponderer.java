@@ -0,0 +1,131 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import io.atlassian.fugue.Pair;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Searches on the opponent's time. Once a move is returned the engine hands over the positions it
+ * expects to search next, and they are searched one after another on a low priority thread until the
+ * engine is asked for its next move. The searches fill the engine's transposition table, so the next
+ * search starts warm even when the prediction missed; when it hit, the pondered best move can be
+ * played without searching at all.
+ * <p>
+ * Pondering searches a single-threaded {@link GameTree} of its own that shares only the table, so it
+ * never leases {@link SearchThreads} helpers and takes at most one core, at the lowest priority.
+ * Every search of the engine still starts with {@link #stop}, which waits for the pondering to finish.
+ */
+final class Ponderer implements AutoCloseable {
+
+    private static final AtomicInteger POOL_COUNT = new AtomicInteger();
+
+    private final GameTree tree;
+    private final ExecutorService executor;
+    private Future<?> running;
+    private volatile boolean stopped;
+    private volatile SearchClock clock;  // of the position being searched
+
+    // written by the pondering thread, read after stop
+    private final List<SearchState> positions = new ArrayList<>();
+    private final int[] bestMoves;
+    private final int[] depths;
+
+    /**
+     * @param table     the engine's table, which pondering fills
+     * @param positions most positions handed over at once
+     */
+    Ponderer(@Nonnull TranspositionTable table, int positions) {
+        this.tree = new GameTree(table, 1);
+        this.bestMoves = new int[positions];
+        this.depths = new int[positions];
+        final int pool = POOL_COUNT.incrementAndGet();
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ponder-" + pool);
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts searching the positions, with Mr X's location known in each.
+     *
+     * @param nanos time for each position, or 0 to search the last one until stopped
+     */
+    void start(@Nonnull List<SearchState> predicted, long nanos) {
+        stop();
+        positions.clear();
+        for (int i = 0; i < predicted.size() && i < bestMoves.length; i++) {
+            positions.add(predicted.get(i));
+            depths[i] = 0;
+        }
+        if (positions.isEmpty()) return;
+        stopped = false;
+        running = executor.submit(() -> {
+            for (int i = 0; i < positions.size(); i++) {
+                final boolean last = i == positions.size() - 1;
+                final SearchClock next = nanos > 0 && !last
+                        ? SearchClock.start(new Pair<>(nanos, TimeUnit.NANOSECONDS))
+                        : SearchClock.unbounded();
+                clock = next;
+                if (stopped) break;
+                bestMoves[i] = tree.search(positions.get(i), true, next);
+                depths[i] = tree.takeReport(next).getDepth();
+            }
+        });
+    }
+
+    /**
+     * Stops pondering and waits for the search to return.
+     */
+    void stop() {
+        if (running == null) return;
+        stopped = true;
+        final SearchClock current = clock;
+        if (current != null) current.abort();
+        try {
+            running.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Pondering failed", e.getCause());
+        } finally {
+            running = null;
+            clock = null;
+        }
+    }
+
+    /**
+     * Stops pondering and looks for the root among the pondered positions.
+     *
+     * @param depth least depth the pondering must have completed
+     * @return the pondered best move for the root, or {@link Moves#NONE} if the root was not pondered
+     * or not deep enough
+     */
+    int take(@Nonnull SearchState root, int depth) {
+        stop();
+        for (int i = 0; i < positions.size(); i++) {
+            final SearchState pondered = positions.get(i);
+            if (depths[i] >= depth && depths[i] > 0 && pondered.hash() == root.hash()
+                    && pondered.isMrXTurn() == root.isMrXTurn()) {
+                return bestMoves[i];
+            }
+        }
+        return Moves.NONE;
+    }
+
+    @Override
+    public void close() {
+        stop();
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,349 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import uk.ac.bris.cs.scotlandyard.model.Board;
+import uk.ac.bris.cs.scotlandyard.model.GameSetup;
+import uk.ac.bris.cs.scotlandyard.model.Move;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Searches a batch of positions for post-game review and for datasets, where the throughput over
+ * thousands of positions matters more than how soon any one of them is answered. Every position is
+ * searched to its own depth or node limit rather than for a time, so its answer does not depend on how
+ * busy the machine is, and comes back with all its moves ranked, each with a value searched with a full
+ * window and the line expected to follow it, and the counters of the search.
+ * <p>
+ * The batch is split in halves on a {@link ForkJoinPool} down to single positions, so a worker that
+ * runs out of positions steals half of what another has left instead of waiting on it. Each worker
+ * searches with its own single-threaded {@link GameTree} and table, kept from one position to the next;
+ * that helps positions of the same game, but lets a result depend on which positions its worker searched
+ * before. Results are handed to the caller as each position finishes.
+ * Run it as
+ * <pre>
+ * java -cp ... uk.ac.bris.cs.scotlandyard.ui.ai.PositionAnalyzer --file snapshots.bin --depth 6
+ * </pre>
+ * to analyse every position of a {@link SnapshotLog} file.
+ */
+public final class PositionAnalyzer implements AutoCloseable {
+
+    private final ForkJoinPool pool;
+    private final int ttMegabytes;
+    private final ThreadLocal<GameTree> tree = ThreadLocal.withInitial(this::newTree);
+
+    public PositionAnalyzer() {
+        this(Runtime.getRuntime().availableProcessors(), SearchConfig.transpositionTableMegabytes());
+    }
+
+    /**
+     * @param threads     positions searched at once
+     * @param ttMegabytes memory budget of each thread's transposition table
+     */
+    public PositionAnalyzer(int threads, int ttMegabytes) {
+        if (threads < 1) throw new IllegalArgumentException("Analysis needs at least one thread, got " + threads);
+        this.ttMegabytes = ttMegabytes;
+        this.pool = new ForkJoinPool(threads, pool -> {
+            final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("analysis-" + thread.getPoolIndex());
+            return thread;
+        }, null, false);
+    }
+
+    private GameTree newTree() {
+        return new GameTree(new TranspositionTable(ttMegabytes), 1);
+    }
+
+    /**
+     * One position to analyse, with how far to search it.
+     */
+    public static final class Job {
+        private final SearchState root;
+        private final boolean mrXLocationKnown;
+        private final int depth;
+        private final long nodes;
+
+        private Job(SearchState root, boolean mrXLocationKnown, int depth, long nodes) {
+            if (depth < 1) throw new IllegalArgumentException("Depth must be positive, got " + depth);
+            if (nodes < 0) throw new IllegalArgumentException("Node limit must not be negative, got " + nodes);
+            this.root = root;
+            this.mrXLocationKnown = mrXLocationKnown;
+            this.depth = depth;
+            this.nodes = nodes;
+        }
+
+        /**
+         * @param mrXLocation where Mr X is, or 0 to search as the detectives do before he first surfaces
+         * @param depth       plies to search at most
+         * @param nodes       nodes to search at most, 0 for no limit
+         */
+        @Nonnull
+        public static Job of(@Nonnull Board board, int mrXLocation, int depth, long nodes) {
+            // a blind search never reads Mr X's location, so any node will do
+            final int location = mrXLocation != 0 ? mrXLocation : board.getSetup().graph.nodes().iterator().next();
+            return new Job(SearchState.fromBoard(board, location), mrXLocation != 0, depth, nodes);
+        }
+
+        /**
+         * @param setup the board the snapshot was taken on
+         * @param depth plies to search at most
+         * @param nodes nodes to search at most, 0 for no limit
+         */
+        @Nonnull
+        public static Job of(@Nonnull PositionSnapshot snapshot, @Nonnull GameSetup setup, int depth, long nodes) {
+            final int location = snapshot.mrXKnown() ? 0 : setup.graph.nodes().iterator().next();
+            return new Job(snapshot.toSearchState(setup, location), snapshot.mrXKnown(), depth, nodes);
+        }
+    }
+
+    /**
+     * A move from an analysed position
+     */
+    public static final class ScoredMove {
+        public final Move move;
+        public final double score;  // from the point of view of the side to move, infinite once decided
+        public final List<Move> principalVariation;  // the move and the ones expected after it
+
+        ScoredMove(Move move, double score, List<Move> principalVariation) {
+            this.move = move;
+            this.score = score;
+            this.principalVariation = principalVariation;
+        }
+    }
+
+    /**
+     * What the search of one position found
+     */
+    public static final class Analysis {
+        public final int index;  // of the job in the batch
+        public final int depth;  // plies every move was scored to, 0 if the game was over
+        public final List<ScoredMove> moves;  // best first; every legal move of each piece still to move
+        @Nullable
+        public final SearchReport report;  // null if the game was over
+
+        Analysis(int index, int depth, List<ScoredMove> moves, @Nullable SearchReport report) {
+            this.index = index;
+            this.depth = depth;
+            this.moves = moves;
+            this.report = report;
+        }
+    }
+
+    /**
+     * Searches every job, handing each analysis to the consumer on the calling thread as soon as its
+     * position is done, so in no particular order. Returns once every position has been handed over;
+     * if the consumer throws, the positions not started yet are dropped and the exception passed on.
+     *
+     * @throws IllegalStateException if the search of a position fails
+     */
+    public void analyze(@Nonnull List<Job> jobs, @Nonnull Consumer<? super Analysis> consumer)
+            throws InterruptedException {
+        if (jobs.isEmpty()) return;
+        final Job[] batch = jobs.toArray(new Job[0]);
+        final BlockingQueue<Object> results = new LinkedBlockingQueue<>();
+        final Batch all = new Batch(batch, 0, batch.length, results);
+        pool.execute(all);
+        try {
+            for (int received = 0; received < batch.length; received++) {
+                final Object result = results.take();
+                if (result instanceof RuntimeException)
+                    throw new IllegalStateException("Analysis failed", (RuntimeException) result);
+                consumer.accept((Analysis) result);
+            }
+        } finally {
+            all.cancelled = true;
+            all.quietlyJoin();
+        }
+    }
+
+    /**
+     * @return the analyses of every job, in the order of the jobs
+     * @throws IllegalStateException if the search of a position fails
+     */
+    @Nonnull
+    public List<Analysis> analyze(@Nonnull List<Job> jobs) throws InterruptedException {
+        final Analysis[] analyses = new Analysis[jobs.size()];
+        analyze(jobs, analysis -> analyses[analysis.index] = analysis);
+        return Arrays.asList(analyses);
+    }
+
+    @SuppressWarnings("serial")  // never serialized
+    private final class Batch extends RecursiveAction {
+
+        private final Job[] jobs;
+        private final int from;
+        private final int to;
+        private final BlockingQueue<Object> results;
+        private final Batch whole;
+        volatile boolean cancelled;  // read through whole
+
+        Batch(Job[] jobs, int from, int to, BlockingQueue<Object> results) {
+            this(jobs, from, to, results, null);
+        }
+
+        private Batch(Job[] jobs, int from, int to, BlockingQueue<Object> results, @Nullable Batch whole) {
+            this.jobs = jobs;
+            this.from = from;
+            this.to = to;
+            this.results = results;
+            this.whole = whole == null ? this : whole;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                final int mid = (from + to) >>> 1;
+                ForkJoinTask.invokeAll(new Batch(jobs, from, mid, results, whole),
+                        new Batch(jobs, mid, to, results, whole));
+                return;
+            }
+            if (whole.cancelled) return;
+            try {
+                results.add(analyse(from, jobs[from]));
+            } catch (RuntimeException e) {
+                results.add(e);
+            }
+        }
+    }
+
+    private Analysis analyse(int index, Job job) {
+        final SearchState root = job.root.copy();
+        final MoveBuffer buffer = new MoveBuffer();
+        // the whole side to move at the root, unpruned, so every move played can be reviewed; the joint
+        // and pruned moves are only for the subtrees
+        if (root.winner() != SearchState.NO_WINNER || root.generateMoves(buffer) == 0)
+            return new Analysis(index, 0, List.of(), null);
+        final int[] moves = new int[buffer.size()];
+        for (int i = 0; i < moves.length; i++) {
+            moves[i] = buffer.get(i);
+        }
+
+        final GameTree gameTree = tree.get();
+        gameTree.getTable().newSearch();
+        final SearchClock clock = job.nodes == 0 ? SearchClock.unbounded() : SearchClock.limitNodes(job.nodes);
+        gameTree.search(root, job.mrXLocationKnown, clock, job.depth);
+        // every move to the depth the search reached, each try with as many nodes as the search was
+        // allowed and one ply shallower than the last; one ply always finishes
+        int depth = Math.max(1, Math.min(job.depth, gameTree.completedDepth()));
+        double[] scores;
+        while (true) {
+            scores = gameTree.scoreMoves(root, moves, depth, job.mrXLocationKnown,
+                    job.nodes == 0 || depth == 1 ? SearchClock.unbounded() : SearchClock.limitNodes(job.nodes));
+            if (scores != null) break;
+            depth--;
+        }
+
+        final List<ScoredMove> ranked = new ArrayList<>(moves.length);
+        for (int i = 0; i < moves.length; i++) {
+            final List<Move> line = Arrays.stream(gameTree.principalVariation(root, moves[i], job.mrXLocationKnown,
+                            depth))
+                    .mapToObj(m -> Moves.toMove(m, root))
+                    .collect(Collectors.toUnmodifiableList());
+            ranked.add(new ScoredMove(line.get(0), scores[i], line));
+        }
+        // stable, so ties keep the order the moves were generated in
+        ranked.sort(Comparator.comparingDouble((ScoredMove scored) -> scored.score).reversed());
+        return new Analysis(index, depth, Collections.unmodifiableList(ranked), gameTree.takeReport(clock));
+    }
+
+    /**
+     * Stops the workers once their current positions are done and frees their tables.
+     */
+    @Override
+    public void close() {
+        pool.shutdownNow();
+        try {
+            pool.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Path file = Paths.get("snapshots.bin");
+        int depth = SearchConfig.maxDepth();
+        long nodes = 0;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int ttMegabytes = 16;
+        int limit = 0;
+        int top = 3;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            final String value = args[i + 1];
+            switch (args[i]) {
+                case "--file":
+                    file = Paths.get(value);
+                    break;
+                case "--depth":
+                    depth = Integer.parseInt(value);
+                    break;
+                case "--nodes":
+                    nodes = Long.parseLong(value);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(value);
+                    break;
+                case "--ttMegabytes":
+                    ttMegabytes = Integer.parseInt(value);
+                    break;
+                case "--limit":
+                    limit = Integer.parseInt(value);
+                    break;
+                case "--top":
+                    top = Integer.parseInt(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        if (args.length % 2 != 0)
+            throw new IllegalArgumentException("Option " + args[args.length - 1] + " has no value");
+
+        final GameSetup setup = new GameSetup(ScotlandYard.standardGraph(), ScotlandYard.STANDARD24MOVES);
+        List<PositionSnapshot> snapshots = SnapshotLog.read(file, setup);
+        if (limit > 0 && limit < snapshots.size()) snapshots = snapshots.subList(0, limit);
+        final List<Job> jobs = new ArrayList<>(snapshots.size());
+        for (PositionSnapshot snapshot : snapshots) {
+            jobs.add(Job.of(snapshot, setup, depth, nodes));
+        }
+
+        final List<PositionSnapshot> positions = snapshots;
+        final int shown = top;
+        final long start = System.nanoTime();
+        final long[] total = new long[1];
+        try (PositionAnalyzer analyzer = new PositionAnalyzer(threads, ttMegabytes)) {
+            analyzer.analyze(jobs, analysis -> {
+                final PositionSnapshot snapshot = positions.get(analysis.index);
+                final SearchReport report = analysis.report;
+                if (report != null) total[0] += report.getNodes();
+                final StringBuilder line = new StringBuilder(String.format(
+                        "%5d  round %2d  %-10s depth %2d  %8d nodes  %6.0fms", analysis.index, snapshot.round(),
+                        snapshot.isMrXTurn() ? "Mr X" : "detectives", analysis.depth,
+                        report == null ? 0 : report.getNodes(), report == null ? 0 : report.getElapsedNanos() / 1e6));
+                for (ScoredMove scored : analysis.moves.subList(0, Math.min(shown, analysis.moves.size()))) {
+                    line.append(String.format("%n       %10.2f  %s", scored.score, scored.principalVariation));
+                }
+                System.out.println(line);
+            });
+        }
+        final double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d positions in %.1fs, %.0f per minute, %.0f nodes per second%n", jobs.size(), seconds,
+                jobs.size() / seconds * 60, total[0] / seconds);
+    }
+}
@@ -0,0 +1,260 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.google.common.collect.ImmutableList;
+import uk.ac.bris.cs.scotlandyard.model.Board;
+import uk.ac.bris.cs.scotlandyard.model.GameSetup;
+import uk.ac.bris.cs.scotlandyard.model.LogEntry;
+import uk.ac.bris.cs.scotlandyard.model.Move;
+import uk.ac.bris.cs.scotlandyard.model.Piece;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * A position an AI moved from, the move it played and what the search cost, kept as the primitive
+ * arrays of a {@link SearchState} rather than the model's collections. {@link Serializer} writes it
+ * with Kryo's variable length ints, which puts a whole position in a few dozen bytes:
+ * <pre>
+ *  time (ms), detectives present (bit per {@link Piece.Detective} ordinal)
+ *  location of every player, Mr X's 0 when the side to move does not know it
+ *  {@link SearchState#TICKET_KINDS} ticket counts per player, pieces still to move (bit per player)
+ *  log size, each entry as revealed location << 3 | ticket ordinal
+ *  move played (see {@link Moves}), budget and time taken (microseconds), depth, nodes
+ *  winner of the game, as {@link SearchState#winner()}, {@link SearchState#NO_WINNER} if unknown
+ * </pre>
+ * The board itself is not stored; {@link SnapshotLog} records it once per file. Snapshots an AI takes
+ * while playing cannot know how the game ends; {@link Tournament} records whole games, with Mr X's
+ * location and the winner, to tune the evaluation on.
+ */
+public final class PositionSnapshot {
+
+    private static final Ticket[] TICKETS = Ticket.values();
+    private static final Piece.Detective[] DETECTIVES = Piece.Detective.values();
+    private static final int LOG_TICKET_BITS = 3;
+
+    public final long time;
+    private final int detectives;
+    private final int[] locations;
+    private final int[] tickets;
+    public final int remaining;
+    private final int[] log;
+    public final int move;
+    public final long budgetNanos;
+    public final long elapsedNanos;
+    public final int depth;
+    public final long nodes;
+    public final int winner;
+
+    private PositionSnapshot(long time, int detectives, int[] locations, int[] tickets, int remaining, int[] log,
+            int move, long budgetNanos, long elapsedNanos, int depth, long nodes, int winner) {
+        this.time = time;
+        this.detectives = detectives;
+        this.locations = locations;
+        this.tickets = tickets;
+        this.remaining = remaining;
+        this.log = log;
+        this.move = move;
+        this.budgetNanos = budgetNanos;
+        this.elapsedNanos = elapsedNanos;
+        this.depth = depth;
+        this.nodes = nodes;
+        this.winner = winner;
+    }
+
+    /**
+     * @param move   the move played from the board
+     * @param report what finding the move cost, or null if it was not searched for
+     */
+    @Nonnull
+    public static PositionSnapshot capture(@Nonnull Board board, @Nonnull Move move, long budgetNanos,
+            @Nullable SearchReport report) {
+        // only Mr X knows where he is, and then he is the one moving
+        return capture(board, move.commencedBy().isMrX() ? move.source() : 0, move, budgetNanos, report);
+    }
+
+    /**
+     * @param mrXLocation where Mr X is, or 0 if the side to move does not know
+     * @param move        the move played from the board
+     * @param report      what finding the move cost, or null if it was not searched for
+     */
+    @Nonnull
+    public static PositionSnapshot capture(@Nonnull Board board, int mrXLocation, @Nonnull Move move,
+            long budgetNanos, @Nullable SearchReport report) {
+        final SearchState state = SearchState.fromBoard(board, mrXLocation);
+        final int players = state.playerCount();
+        int detectives = 0;
+        final int[] locations = new int[players];
+        final int[] tickets = new int[players * SearchState.TICKET_KINDS];
+        for (int p = 0; p < players; p++) {
+            final Piece piece = state.piece(p);
+            if (piece.isDetective()) detectives |= 1 << ((Piece.Detective) piece).ordinal();
+            locations[p] = state.location(p);
+            for (Ticket ticket : TICKETS) {
+                tickets[p * SearchState.TICKET_KINDS + ticket.ordinal()] = state.tickets(p, ticket);
+            }
+        }
+        final ImmutableList<LogEntry> entries = board.getMrXTravelLog();
+        final int[] log = new int[entries.size()];
+        for (int i = 0; i < log.length; i++) {
+            log[i] = entries.get(i).location().orElse(0) << LOG_TICKET_BITS | entries.get(i).ticket().ordinal();
+        }
+        return new PositionSnapshot(System.currentTimeMillis(), detectives, locations, tickets, state.remaining(),
+                log, Moves.fromMove(move, state), budgetNanos,
+                report == null ? 0 : report.getElapsedNanos(),
+                report == null ? 0 : report.getDepth(),
+                report == null ? 0 : report.getNodes(),
+                SearchState.NO_WINNER);
+    }
+
+    /**
+     * @param winner {@link SearchState#MRX_WINS} or {@link SearchState#DETECTIVES_WIN}
+     * @return this snapshot labelled with how its game ended
+     */
+    @Nonnull
+    public PositionSnapshot withWinner(int winner) {
+        return new PositionSnapshot(time, detectives, locations, tickets, remaining, log, move, budgetNanos,
+                elapsedNanos, depth, nodes, winner);
+    }
+
+    /**
+     * Rebuilds the position, without going through a {@link Board}.
+     *
+     * @param setup       the board the snapshot was taken on
+     * @param mrXLocation where to put Mr X if the snapshot does not know, see {@link #mrXKnown()}
+     */
+    @Nonnull
+    public SearchState toSearchState(@Nonnull GameSetup setup, int mrXLocation) {
+        final Piece[] pieces = new Piece[locations.length];
+        pieces[SearchState.MRX] = Piece.MrX.MRX;
+        for (int d = 0, p = 1; d < DETECTIVES.length; d++) {
+            if ((detectives & 1 << d) != 0) pieces[p++] = DETECTIVES[d];
+        }
+        final int[] located = locations.clone();
+        if (!mrXKnown()) located[SearchState.MRX] = mrXLocation;
+        final ImmutableList.Builder<LogEntry> entries = ImmutableList.builder();
+        for (int entry : log) {
+            final Ticket ticket = TICKETS[entry & ((1 << LOG_TICKET_BITS) - 1)];
+            final int location = entry >>> LOG_TICKET_BITS;
+            entries.add(location == 0 ? LogEntry.hidden(ticket) : LogEntry.reveal(ticket, location));
+        }
+        return SearchState.of(setup, pieces, located, tickets, remaining, entries.build());
+    }
+
+    /**
+     * @return the move played, in the state rebuilt by {@link #toSearchState}
+     */
+    @Nonnull
+    public Move move(@Nonnull SearchState state) {
+        return Moves.toMove(move, state);
+    }
+
+    /**
+     * @return whether Mr X's location was known, which it is when he was the one to move or the
+     * snapshot was taken by someone watching the whole game
+     */
+    public boolean mrXKnown() {
+        return locations[SearchState.MRX] != 0;
+    }
+
+    public boolean isMrXTurn() {
+        return (remaining & 1 << SearchState.MRX) != 0;
+    }
+
+    /**
+     * @return the number of moves Mr X had made
+     */
+    public int round() {
+        return log.length;
+    }
+
+    /**
+     * Writes snapshots with variable length ints, the board left to the caller.
+     */
+    public static final class Serializer extends com.esotericsoftware.kryo.Serializer<PositionSnapshot> {
+
+        /**
+         * Format written; version 1 had no winner
+         */
+        public static final int VERSION = 2;
+
+        private static final int MAX_PLAYERS = 1 + DETECTIVES.length;
+        private static final int MAX_LOG = 1 << 10;  // far beyond any game, to catch a corrupt length
+
+        private final int version;
+
+        public Serializer() {
+            this(VERSION);
+        }
+
+        /**
+         * @param version format to read, 1 or 2; only the current one can be written
+         */
+        public Serializer(int version) {
+            if (version < 1 || version > VERSION)
+                throw new IllegalArgumentException("Unknown snapshot format " + version);
+            this.version = version;
+            setImmutable(true);
+        }
+
+        @Override
+        public void write(Kryo kryo, Output output, PositionSnapshot snapshot) {
+            if (version != VERSION) throw new IllegalStateException("Cannot write snapshot format " + version);
+            output.writeVarLong(snapshot.time, true);
+            output.writeVarInt(snapshot.detectives, true);
+            for (int location : snapshot.locations) {
+                output.writeVarInt(location, true);
+            }
+            for (int count : snapshot.tickets) {
+                output.writeVarInt(count, true);
+            }
+            output.writeVarInt(snapshot.remaining, true);
+            output.writeVarInt(snapshot.log.length, true);
+            for (int entry : snapshot.log) {
+                output.writeVarInt(entry, true);
+            }
+            output.writeVarInt(snapshot.move, true);
+            output.writeVarLong(snapshot.budgetNanos / 1000, true);
+            output.writeVarLong(snapshot.elapsedNanos / 1000, true);
+            output.writeVarInt(snapshot.depth, true);
+            output.writeVarLong(snapshot.nodes, true);
+            output.writeVarInt(snapshot.winner, true);
+        }
+
+        @Override
+        public PositionSnapshot read(Kryo kryo, Input input, Class<? extends PositionSnapshot> type) {
+            final long time = input.readVarLong(true);
+            final int detectives = input.readVarInt(true);
+            final int players = 1 + Integer.bitCount(detectives);
+            if (players > MAX_PLAYERS) throw new IllegalArgumentException("Not a snapshot: " + players + " players");
+            final int[] locations = new int[players];
+            for (int p = 0; p < players; p++) {
+                locations[p] = input.readVarInt(true);
+            }
+            final int[] tickets = new int[players * SearchState.TICKET_KINDS];
+            for (int i = 0; i < tickets.length; i++) {
+                tickets[i] = input.readVarInt(true);
+            }
+            final int remaining = input.readVarInt(true);
+            final int logSize = input.readVarInt(true);
+            if (logSize > MAX_LOG) throw new IllegalArgumentException("Not a snapshot: log of " + logSize);
+            final int[] log = new int[logSize];
+            for (int i = 0; i < log.length; i++) {
+                log[i] = input.readVarInt(true);
+            }
+            final int move = input.readVarInt(true);
+            final long budgetNanos = input.readVarLong(true) * 1000;
+            final long elapsedNanos = input.readVarLong(true) * 1000;
+            final int depth = input.readVarInt(true);
+            final long nodes = input.readVarLong(true);
+            final int winner = version < 2 ? SearchState.NO_WINNER : input.readVarInt(true);
+            if (winner > SearchState.DETECTIVES_WIN)
+                throw new IllegalArgumentException("Not a snapshot: winner " + winner);
+            return new PositionSnapshot(time, detectives, locations, tickets, remaining, log, move, budgetNanos,
+                    elapsedNanos, depth, nodes, winner);
+        }
+    }
+}
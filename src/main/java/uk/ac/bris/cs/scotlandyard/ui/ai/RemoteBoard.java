@@ -0,0 +1,87 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import uk.ac.bris.cs.scotlandyard.event.StateChanged;
+import uk.ac.bris.cs.scotlandyard.model.Board;
+import uk.ac.bris.cs.scotlandyard.model.GameSetup;
+import uk.ac.bris.cs.scotlandyard.model.LogEntry;
+import uk.ac.bris.cs.scotlandyard.model.Move;
+import uk.ac.bris.cs.scotlandyard.model.Piece;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard;
+
+import javax.annotation.Nonnull;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * The board as a websocket judge describes it, one {@link StateChanged} at a time, for the AIs to
+ * search from as they would from the local model. Every player's tickets must come with the message:
+ * what a player holds cannot be rebuilt from the moves a judge shows, as a detective's ticket is not
+ * named and Mr X's double moves and the tickets detectives hand him are not logged.
+ */
+final class RemoteBoard implements Board {
+
+    private final GameSetup setup;
+    private final ImmutableSet<Piece> players;
+    private final StateChanged state;
+
+    /**
+     * @param players every piece in the game
+     * @throws IllegalArgumentException if the judge left out the tickets of any of the players
+     */
+    RemoteBoard(@Nonnull GameSetup setup, @Nonnull ImmutableSet<Piece> players, @Nonnull StateChanged state) {
+        final Set<Piece> missing = Sets.difference(players, state.tickets().keySet());
+        if (!missing.isEmpty())
+            throw new IllegalArgumentException("The judge left out the tickets of " + missing);
+        this.setup = setup;
+        this.players = players;
+        this.state = state;
+    }
+
+    @Nonnull
+    @Override
+    public GameSetup getSetup() {
+        return setup;
+    }
+
+    @Nonnull
+    @Override
+    public ImmutableSet<Piece> getPlayers() {
+        return players;
+    }
+
+    @Nonnull
+    @Override
+    public Optional<Integer> getDetectiveLocation(Piece.Detective detective) {
+        return Optional.ofNullable(state.detectiveLocations().get(detective));
+    }
+
+    @Nonnull
+    @Override
+    public Optional<TicketBoard> getPlayerTickets(Piece piece) {
+        if (!players.contains(piece)) return Optional.empty();
+        final ImmutableMap<ScotlandYard.Ticket, Integer> tickets = state.tickets().get(piece);
+        return Optional.of(ticket -> tickets.getOrDefault(ticket, 0));
+    }
+
+    @Nonnull
+    @Override
+    public ImmutableList<LogEntry> getMrXTravelLog() {
+        return state.mrXTravelLog();
+    }
+
+    @Nonnull
+    @Override
+    public ImmutableSet<Piece> getWinner() {
+        return state.winner();
+    }
+
+    @Nonnull
+    @Override
+    public ImmutableSet<Move> getAvailableMoves() {
+        return state.availableMoves();
+    }
+}
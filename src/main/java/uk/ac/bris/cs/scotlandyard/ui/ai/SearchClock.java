@@ -0,0 +1,174 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import io.atlassian.fugue.Pair;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time manager for one turn. Start it as soon as {@code pickMove} is called, then {@link #plan} the
+ * budget for the root before searching.
+ * <p>
+ * The hard deadline is the turn's timeout less a safety margin; once it passes every search thread
+ * is stopped through a shared abort flag, which nodes read cheaply and only compare against the
+ * monotonic clock every {@link #CHECK_INTERVAL} nodes. The soft deadline decides whether another
+ * iteration is worth starting. It depends on the phase of the game and moves towards the hard
+ * deadline whenever the best root move changes between iterations.
+ * <p>
+ * Analysis, which wants the same answer however busy the machine is, can limit the nodes of each
+ * search thread instead of the time, checked as often as the clock.
+ * <p>
+ * A {@link #slice} stops at its own deadline and also whenever the clock it was cut from is aborted,
+ * which it reads as often as the clock.
+ */
+public final class SearchClock {
+
+    static final int CHECK_INTERVAL = 1024;  // nodes between clock reads, a power of two
+
+    // shares of the usable time to spend, by phase
+    private static final double OPENING_SHARE = 0.3;   // Mr X has not surfaced yet
+    private static final double NORMAL_SHARE = 0.6;
+    private static final double CRITICAL_SHARE = 0.9;  // a reveal is about to happen or just happened
+    private static final double INSTABILITY_SHARE = 0.2; // added each time the best move changes
+    private static final int ITERATION_GROWTH = 3;  // rough cost of an iteration relative to the previous one
+
+    private final long start;
+    private final long usable;
+    private volatile long softDeadline;  // read by helper threads
+    private final long hardDeadline;
+    private final long nodeLimit;  // per search thread
+    @Nullable
+    private final SearchClock parent;  // the clock a slice was cut from
+    private volatile boolean aborted;
+    private long lastIteration;
+
+    private SearchClock(long start, long usable, long nodeLimit) {
+        this(start, usable, nodeLimit, null);
+    }
+
+    private SearchClock(long start, long usable, long nodeLimit, @Nullable SearchClock parent) {
+        this.parent = parent;
+        this.start = start;
+        this.usable = usable;
+        this.hardDeadline = start + usable;
+        this.softDeadline = hardDeadline;
+        this.nodeLimit = nodeLimit;
+    }
+
+    /**
+     * @param timeoutPair the turn's time limit, as given to {@code pickMove}
+     */
+    @Nonnull
+    public static SearchClock start(@Nonnull Pair<Long, TimeUnit> timeoutPair) {
+        final long budget = timeoutPair.right().toNanos(timeoutPair.left());
+        final long margin = Math.min(TimeUnit.MILLISECONDS.toNanos(SearchConfig.safetyMarginMillis()), budget / 4);
+        return new SearchClock(System.nanoTime(), Math.max(0, budget - margin), Long.MAX_VALUE);
+    }
+
+    /**
+     * @return a clock that only stops when aborted, for searching on the opponent's time
+     */
+    @Nonnull
+    public static SearchClock unbounded() {
+        // far enough ahead never to pass, near enough for deadline arithmetic not to overflow
+        return new SearchClock(System.nanoTime(), Long.MAX_VALUE / 4, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param nodes nodes each search thread may visit, counted from the start of its search
+     * @return a clock that stops a search once one of its threads has visited that many nodes, give or
+     * take {@link #CHECK_INTERVAL}, however long it takes
+     */
+    @Nonnull
+    public static SearchClock limitNodes(long nodes) {
+        if (nodes < 1) throw new IllegalArgumentException("Node limit must be positive, got " + nodes);
+        return new SearchClock(System.nanoTime(), Long.MAX_VALUE / 4, nodes);
+    }
+
+    /**
+     * @return a clock for one of {@code parts} equal shares of the time left, starting now, which is
+     * aborted along with this one
+     */
+    @Nonnull
+    public SearchClock slice(int parts) {
+        final long now = System.nanoTime();
+        return new SearchClock(now, Math.max(0, hardDeadline - now) / parts, nodeLimit, this);
+    }
+
+    /**
+     * Sets the soft deadline from the phase of the game at the root.
+     */
+    public void plan(@Nonnull SearchState root) {
+        softDeadline = start + (long) (usable * phaseShare(root));
+    }
+
+    private static double phaseShare(SearchState root) {
+        final List<Boolean> reveals = root.getSetup().moves;
+        final int round = root.logSize();
+        if (!reveals.subList(0, Math.min(round, reveals.size())).contains(true)) {
+            // nothing is known about Mr X yet, so deep searches have little to work with
+            return round < reveals.size() && reveals.get(round) && root.isMrXTurn() ? CRITICAL_SHARE : OPENING_SHARE;
+        }
+        if (root.isMrXTurn()) {
+            // Mr X's next move decides what the detectives get to see
+            return round < reveals.size() && reveals.get(round) ? CRITICAL_SHARE : NORMAL_SHARE;
+        }
+        return reveals.get(round - 1) ? CRITICAL_SHARE : NORMAL_SHARE;
+    }
+
+    /**
+     * Called by the main search thread after each completed iteration. An unstable best move earns
+     * more time, while an iteration that cannot finish before the hard deadline is not started at all.
+     */
+    void iterationCompleted(boolean bestMoveChanged) {
+        final long now = System.nanoTime();
+        long soft = softDeadline;
+        if (bestMoveChanged) {
+            soft = Math.min(hardDeadline, soft + (long) (usable * INSTABILITY_SHARE));
+        }
+        final long iteration = now - (lastIteration == 0 ? start : lastIteration);
+        if (now + iteration * ITERATION_GROWTH - hardDeadline > 0) {
+            soft = now;
+        }
+        lastIteration = now;
+        softDeadline = soft;
+    }
+
+    /**
+     * @return whether there is time for another iteration
+     */
+    boolean canStartIteration() {
+        return !isAborted() && System.nanoTime() - softDeadline < 0;
+    }
+
+    /**
+     * Counts a node for the given thread and reports whether the search has to stop.
+     */
+    boolean shouldAbort(@Nonnull SearchContext context) {
+        if (aborted) return true;
+        if ((++context.nodes & (CHECK_INTERVAL - 1)) != 0) return false;
+        if (System.nanoTime() - hardDeadline >= 0 || context.nodes >= nodeLimit
+                || parent != null && parent.isAborted()) {
+            aborted = true;
+        }
+        return aborted;
+    }
+
+    /**
+     * Stops every thread searching against this clock.
+     */
+    public void abort() {
+        aborted = true;
+    }
+
+    public boolean isAborted() {
+        if (!aborted && parent != null && parent.isAborted()) aborted = true;
+        return aborted;
+    }
+
+    public long elapsed(@Nonnull TimeUnit unit) {
+        return unit.convert(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,242 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Tunables for the search engines, read from system properties named
+ * {@code scotlandyard.ai.<setting>} so that they can be changed per deployment without a rebuild.
+ */
+public final class SearchConfig {
+
+    private static final String PREFIX = "scotlandyard.ai.";
+
+    /**
+     * Search engines a side can be played by, see {@link SearchEngine}
+     */
+    public enum Engine {
+        ALPHA_BETA, ISMCTS
+    }
+
+    private SearchConfig() {
+    }
+
+    /**
+     * @return memory budget of each AI's transposition table, {@code scotlandyard.ai.ttMegabytes}
+     */
+    public static int transpositionTableMegabytes() {
+        return Integer.getInteger(PREFIX + "ttMegabytes", 64);
+    }
+
+    /**
+     * @return deepest iteration of the alpha-beta search in plies, one piece moving per ply,
+     * {@code scotlandyard.ai.maxDepth}
+     */
+    public static int maxDepth() {
+        return Integer.getInteger(PREFIX + "maxDepth", 12);
+    }
+
+    /**
+     * @return half width of the window each iteration of the alpha-beta search starts with, around the
+     * previous iteration's score, {@code scotlandyard.ai.aspirationWindow}; 0 for a full window
+     */
+    public static double aspirationWindow() {
+        return Double.parseDouble(System.getProperty(PREFIX + "aspirationWindow", "50"));
+    }
+
+    /**
+     * @return moves searched at full depth at each node before the rest are searched one or two plies
+     * shallower, {@code scotlandyard.ai.lateMoveReductions}; 0 to search every move at full depth
+     */
+    public static int lateMoveReductions() {
+        return Integer.getInteger(PREFIX + "lateMoveReductions", 2);
+    }
+
+    /**
+     * @return whether the alpha-beta search below the root gives Mr X one move per destination and
+     * only tries his double moves when his single moves do worse than the static evaluation,
+     * {@code scotlandyard.ai.collapseMrXMoves}
+     */
+    public static boolean collapseMrXMoves() {
+        return Boolean.parseBoolean(System.getProperty(PREFIX + "collapseMrXMoves", "true"));
+    }
+
+    /**
+     * @return most threads one search runs on: the one calling {@code pickMove} and up to this many
+     * less one {@link SearchThreads} helpers, which every AI in the process shares,
+     * {@code scotlandyard.ai.threads}
+     */
+    public static int threads() {
+        return Integer.getInteger(PREFIX + "threads", Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @return time kept back from each turn's timeout for returning the move,
+     * {@code scotlandyard.ai.safetyMarginMillis}
+     */
+    public static long safetyMarginMillis() {
+        return Long.getLong(PREFIX + "safetyMarginMillis", 1000);
+    }
+
+    /**
+     * @return whether the alpha-beta engine keeps searching on the opponent's time, on one core,
+     * {@code scotlandyard.ai.ponder}; off unless asked for, as the opponent may need the core
+     */
+    public static boolean ponder() {
+        return Boolean.parseBoolean(System.getProperty(PREFIX + "ponder", "false"));
+    }
+
+    /**
+     * @return locations of Mr X the detectives search separately when he is hidden,
+     * {@code scotlandyard.ai.determinizations}
+     */
+    public static int determinizations() {
+        return Integer.getInteger(PREFIX + "determinizations", 4);
+    }
+
+    /**
+     * @return engine playing Mr X, {@code scotlandyard.ai.mrXEngine}: {@code alpha_beta} or {@code ismcts}
+     */
+    public static Engine mrXEngine() {
+        return engine("mrXEngine");
+    }
+
+    /**
+     * @return engine playing the detectives, {@code scotlandyard.ai.detectivesEngine}
+     */
+    public static Engine detectivesEngine() {
+        return engine("detectivesEngine");
+    }
+
+    private static Engine engine(String setting) {
+        final String value = System.getProperty(PREFIX + setting, Engine.ALPHA_BETA.name());
+        try {
+            return Engine.valueOf(value.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown engine " + value + " for " + PREFIX + setting
+                    + ", expected one of " + Arrays.toString(Engine.values()), e);
+        }
+    }
+
+    /**
+     * @return UCT exploration constant of the ISMCTS engine, {@code scotlandyard.ai.mctsExploration}
+     */
+    public static double mctsExploration() {
+        return Double.parseDouble(System.getProperty(PREFIX + "mctsExploration", "0.7"));
+    }
+
+    /**
+     * @return tree size at which the ISMCTS engine stops adding nodes, {@code scotlandyard.ai.mctsMaxNodes}
+     */
+    public static int mctsMaxNodes() {
+        return Integer.getInteger(PREFIX + "mctsMaxNodes", 1_000_000);
+    }
+
+    /**
+     * @return chance of a uniformly random move in ISMCTS playouts instead of the greedy one,
+     * {@code scotlandyard.ai.playoutEpsilon}
+     */
+    public static double playoutEpsilon() {
+        return Double.parseDouble(System.getProperty(PREFIX + "playoutEpsilon", "0.2"));
+    }
+
+    /**
+     * @return rounds before the end of the game within which positions are solved exactly,
+     * {@code scotlandyard.ai.endgameRounds}; 0 turns the endgame solver off
+     */
+    public static int endgameRounds() {
+        return Integer.getInteger(PREFIX + "endgameRounds", 2);
+    }
+
+    /**
+     * @return nodes the endgame solver may visit for one move before leaving it to the search,
+     * {@code scotlandyard.ai.endgameNodes}
+     */
+    public static long endgameNodes() {
+        return Long.getLong(PREFIX + "endgameNodes", 1_000_000);
+    }
+
+    /**
+     * @return file the solved endgame positions are kept in between runs, {@code scotlandyard.ai.endgameFile};
+     * null to keep them in memory only
+     */
+    public static String endgameFile() {
+        return System.getProperty(PREFIX + "endgameFile");
+    }
+
+    /**
+     * @return size of the endgame table, {@code scotlandyard.ai.endgameMegabytes}
+     */
+    public static int endgameMegabytes() {
+        return Integer.getInteger(PREFIX + "endgameMegabytes", 16);
+    }
+
+    /**
+     * @return opening book written by {@link OpeningBookBuilder}, {@code scotlandyard.ai.bookFile}; null
+     * to search every move
+     */
+    public static String bookFile() {
+        return System.getProperty(PREFIX + "bookFile");
+    }
+
+    /**
+     * @return file a {@link PositionSnapshot} of every move played is appended to, see
+     * {@link SnapshotLog}, {@code scotlandyard.ai.snapshotFile}; null to keep none
+     */
+    public static String snapshotFile() {
+        return System.getProperty(PREFIX + "snapshotFile");
+    }
+
+    /**
+     * @return file each search's {@link SearchReport} is appended to as a line of JSON,
+     * {@code scotlandyard.ai.reportFile}; null to only publish the metrics over JMX
+     */
+    public static String reportFile() {
+        return System.getProperty(PREFIX + "reportFile");
+    }
+
+    /**
+     * Evaluation weights, one per {@link Evaluator} feature. Each is read from
+     * {@code scotlandyard.ai.weights.<feature>}, then from the properties file named by
+     * {@code scotlandyard.ai.weightsFile} (keys are the feature names, as {@link EvaluationTuner}
+     * writes them), then defaults to the built-in weight.
+     *
+     * @return the weights, indexed by the feature constants of {@link Evaluator}
+     * @throws IllegalArgumentException if the file has a {@code version} other than
+     *                                  {@link Evaluator#WEIGHTS_VERSION}, or a weight is negative or
+     *                                  not finite, which would make the evaluation reward the
+     *                                  detectives or give NaN
+     */
+    public static double[] weights() {
+        final Properties file = new Properties();
+        final String path = System.getProperty(PREFIX + "weightsFile");
+        if (path != null) {
+            try (Reader reader = Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8)) {
+                file.load(reader);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot read evaluation weights from " + path, e);
+            }
+            final String version = file.getProperty("version");
+            if (version != null && !version.trim().equals(Integer.toString(Evaluator.WEIGHTS_VERSION)))
+                throw new IllegalArgumentException("Evaluation weights " + path + " have version " + version.trim()
+                        + ", expected " + Evaluator.WEIGHTS_VERSION);
+        }
+        final double[] weights = new double[Evaluator.FEATURES];
+        for (int f = 0; f < weights.length; f++) {
+            final String name = Evaluator.NAMES[f];
+            final String value = System.getProperty(PREFIX + "weights." + name, file.getProperty(name));
+            weights[f] = value == null ? Evaluator.DEFAULT_WEIGHTS[f] : Double.parseDouble(value.trim());
+            if (!Double.isFinite(weights[f]) || weights[f] < 0)
+                throw new IllegalArgumentException("Evaluation weight " + name + " must be finite and not negative, got "
+                        + value);
+        }
+        return weights;
+    }
+}
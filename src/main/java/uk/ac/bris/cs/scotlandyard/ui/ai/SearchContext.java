@@ -0,0 +1,91 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import java.util.Arrays;
+
+/**
+ * Scratch space owned by one search thread, so the shared {@link GameTree} never allocates per node.
+ * Also holds the move ordering heuristics, which are only ever updated by their own thread.
+ */
+final class SearchContext {
+
+    static final int MAX_PLY = 64;
+    static final int KILLERS_PER_PLY = 2;
+
+    private static final int HISTORY_MAX = 1 << 28;
+
+    final MoveBuffer moves = new MoveBuffer();
+    final TranspositionTable.Entry entry = new TranspositionTable.Entry();
+    boolean timedOut;
+
+    // counters of the current search, read by SearchReport once the thread is done
+    long nodes;
+    long leaves;
+    long ttProbes;
+    long ttHits;
+    final long[] cutoffs = new long[SearchReport.CUTOFF_SLOTS];
+
+    // outcome of this thread's part of the current search
+    int completedDepth;
+    int bestMove;
+    double rootValue;  // of the last root search, for the next iteration's aspiration window
+
+    // ordering keys, parallel to the move buffer
+    int[] orderKeys = new int[4096];
+
+    // two most recent moves that caused a cutoff at each ply
+    private final int[] killers = new int[MAX_PLY * KILLERS_PER_PLY];
+
+    // cutoff counts keyed by (player, destination, ticket), see historyIndex
+    private final int[] history = new int[Zobrist.MAX_PLAYERS * BoardGraph.MAX_NODES * SearchState.TICKET_KINDS];
+
+    /**
+     * Forgets the killers of the previous search and halves the history, so recent cutoffs count more.
+     */
+    void newSearch() {
+        timedOut = false;
+        nodes = 0;
+        leaves = 0;
+        ttProbes = 0;
+        ttHits = 0;
+        Arrays.fill(cutoffs, 0);
+        Arrays.fill(killers, Moves.NONE);
+        for (int i = 0; i < history.length; i++) {
+            history[i] >>= 1;
+        }
+    }
+
+    /* double moves are keyed by their final destination and the double ticket */
+    private static int historyIndex(int move) {
+        final int ticket = Moves.isDouble(move) ? SearchState.DOUBLE : Moves.ticket1(move);
+        return (Moves.player(move) * BoardGraph.MAX_NODES + Moves.destination(move)) * SearchState.TICKET_KINDS
+                + ticket;
+    }
+
+    int history(int move) {
+        return history[historyIndex(move)];
+    }
+
+    boolean isKiller(int ply, int move) {
+        if (ply >= MAX_PLY) return false;
+        final int base = ply * KILLERS_PER_PLY;
+        return killers[base] == move || killers[base + 1] == move;
+    }
+
+    /**
+     * Records a move that caused a beta cutoff at the given ply and remaining depth.
+     *
+     * @param tried position of the move in the order it was tried
+     */
+    void cutoff(int ply, int depth, int move, int tried) {
+        cutoffs[Math.min(tried, SearchReport.CUTOFF_SLOTS - 1)]++;
+        final int index = historyIndex(move);
+        history[index] = Math.min(HISTORY_MAX, history[index] + depth * depth);
+        if (ply < MAX_PLY) {
+            final int base = ply * KILLERS_PER_PLY;
+            if (killers[base] != move) {
+                killers[base + 1] = killers[base];
+                killers[base] = move;
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import uk.ac.bris.cs.scotlandyard.model.Board;
+import uk.ac.bris.cs.scotlandyard.model.Move;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.List;
+
+/**
+ * Chooses moves for whichever side is to move on the board. {@link MrXAI} and {@link DetectivesAI}
+ * delegate to one engine each, picked by {@link SearchConfig#mrXEngine()} and
+ * {@link SearchConfig#detectivesEngine()}.
+ */
+public interface SearchEngine extends AutoCloseable {
+
+    /**
+     * @param clock started when the move was asked for
+     * @return one of the board's available moves
+     */
+    @Nonnull
+    Move pickMove(@Nonnull Board board, @Nonnull SearchClock clock);
+
+    /**
+     * Plans the rest of the detectives' round as one joint move: the move to play now followed by one
+     * move for each detective after it, in the order they are to be played. Mr X's plan, and the plan
+     * of engines that cannot look ahead, is just the move to play.
+     *
+     * @param clock started when the move was asked for
+     * @return at least one move, the first of which is available on the board
+     */
+    @Nonnull
+    default List<Move> planRound(@Nonnull Board board, @Nonnull SearchClock clock) {
+        return List.of(pickMove(board, clock));
+    }
+
+    /**
+     * @return what the last {@link #pickMove} or {@link #planRound} cost, or null before the first
+     */
+    @Nullable
+    SearchReport lastReport();
+
+    /**
+     * Releases the engine's threads; it must not be used afterwards.
+     */
+    @Override
+    void close();
+
+    @Nonnull
+    static SearchEngine create(@Nonnull SearchConfig.Engine engine) {
+        switch (engine) {
+            case ALPHA_BETA:
+                return new AlphaBetaEngine();
+            case ISMCTS:
+                return new IsmctsEngine();
+            default:
+                throw new IllegalArgumentException("Unknown engine " + engine);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import uk.ac.bris.cs.scotlandyard.model.Move;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Search statistics of one side, published over JMX as
+ * {@code uk.ac.bris.cs.scotlandyard.ai:type=Search,side=<side>} and, when
+ * {@link SearchConfig#reportFile()} is set, appended to that file as one JSON line per search. Each
+ * {@link SearchReport} is recorded once per move, so none of this touches the search itself.
+ */
+public final class SearchMetrics implements SearchMetricsMBean {
+
+    private static final String DOMAIN = "uk.ac.bris.cs.scotlandyard.ai";
+    private static final Map<String, SearchMetrics> SIDES = new ConcurrentHashMap<>();
+    private static BufferedWriter log;  // guarded by SearchMetrics.class
+    private static String logPath;
+
+    private final String side;
+    private long searches;
+    private long totalNodes;
+    private long totalNanos;
+    private long maxNanos;
+    private volatile SearchReport last;
+
+    private SearchMetrics(String side) {
+        this.side = side;
+    }
+
+    /**
+     * @return the metrics of the side, registered with the platform MBean server on first use
+     */
+    @Nonnull
+    public static SearchMetrics forSide(@Nonnull String side) {
+        return SIDES.computeIfAbsent(side, s -> {
+            final SearchMetrics metrics = new SearchMetrics(s);
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(metrics,
+                        new ObjectName(DOMAIN + ":type=Search,side=" + ObjectName.quote(s)));
+            } catch (JMException e) {
+                throw new IllegalStateException("Cannot register search metrics for " + s, e);
+            }
+            return metrics;
+        });
+    }
+
+    /**
+     * Adds a search to the totals and logs it.
+     *
+     * @param move the move played, for the log
+     */
+    public void record(@Nullable SearchReport report, @Nonnull Move move) {
+        if (report == null) return;
+        synchronized (this) {
+            searches++;
+            totalNodes += report.getNodes();
+            totalNanos += report.getElapsedNanos();
+            maxNanos = Math.max(maxNanos, report.getElapsedNanos());
+        }
+        last = report;
+        final String path = SearchConfig.reportFile();
+        if (path != null) {
+            append(path, "{\"side\":\"" + side + "\",\"time\":" + System.currentTimeMillis()
+                    + ",\"move\":\"" + move.toString().replace("\\", "\\\\").replace("\"", "\\\"")
+                    + "\",\"report\":" + report.toJson() + "}");
+        }
+    }
+
+    private static synchronized void append(String path, String line) {
+        try {
+            if (log == null || !path.equals(logPath)) {
+                if (log != null) log.close();
+                log = Files.newBufferedWriter(Paths.get(path), StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                logPath = path;
+            }
+            log.write(line);
+            log.newLine();
+            log.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write search report to " + path, e);
+        }
+    }
+
+    @Override
+    public synchronized long getSearches() {
+        return searches;
+    }
+
+    @Override
+    public synchronized long getTotalNodes() {
+        return totalNodes;
+    }
+
+    @Override
+    public synchronized long getTotalMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(totalNanos);
+    }
+
+    @Override
+    public synchronized long getMaxMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxNanos);
+    }
+
+    @Override
+    public long getLastMillis() {
+        final SearchReport report = last;
+        return report == null ? 0 : TimeUnit.NANOSECONDS.toMillis(report.getElapsedNanos());
+    }
+
+    @Override
+    public int getLastDepth() {
+        final SearchReport report = last;
+        return report == null ? 0 : report.getDepth();
+    }
+
+    @Override
+    public double getLastNodesPerSecond() {
+        final SearchReport report = last;
+        return report == null ? 0.0 : report.getNodesPerSecond();
+    }
+
+    @Override
+    public double getLastBranchingFactor() {
+        final SearchReport report = last;
+        return report == null ? 0.0 : report.getBranchingFactor();
+    }
+
+    @Override
+    public double getLastTtHitRate() {
+        final SearchReport report = last;
+        return report == null ? 0.0 : report.getTtHitRate();
+    }
+
+    @Override
+    public double getLastFirstMoveCutoffRate() {
+        final SearchReport report = last;
+        return report == null ? 0.0 : report.getFirstMoveCutoffRate();
+    }
+
+    /**
+     * @return the report of the last search recorded, or null before the first
+     */
+    @Nullable
+    public SearchReport getLastReport() {
+        return last;
+    }
+}
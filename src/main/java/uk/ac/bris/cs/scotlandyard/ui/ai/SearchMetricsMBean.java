@@ -0,0 +1,28 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+/**
+ * Management interface of {@link SearchMetrics}: totals since the AI was loaded and the figures of
+ * the last search.
+ */
+public interface SearchMetricsMBean {
+
+    long getSearches();
+
+    long getTotalNodes();
+
+    long getTotalMillis();
+
+    long getMaxMillis();
+
+    long getLastMillis();
+
+    int getLastDepth();
+
+    double getLastNodesPerSecond();
+
+    double getLastBranchingFactor();
+
+    double getLastTtHitRate();
+
+    double getLastFirstMoveCutoffRate();
+}
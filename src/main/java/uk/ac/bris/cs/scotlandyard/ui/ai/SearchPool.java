@@ -0,0 +1,136 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed number of threads shared by every game an {@link AiServer} hosts, so that searches compete
+ * for cores instead of oversubscribing them. Admission goes through a fair semaphore with a permit for
+ * every thread and every queue slot, so searches start in the order they asked.
+ * <p>
+ * Games are admitted the same way: a session holds one of as many game permits as there are threads
+ * and queue slots from joining the judge's pool until its game is over. A game searches for one side
+ * at a time, so the games admitted can never ask for more searches than the pool takes without
+ * waiting, and the sessions left without a permit are the backpressure the server passes on by not
+ * joining new games.
+ */
+final class SearchPool implements AutoCloseable {
+
+    private static final AtomicInteger POOL_COUNT = new AtomicInteger();
+
+    private final ExecutorService executor;
+    private final Semaphore admission;
+    private final Semaphore games;
+    private final int threads;
+    private final int capacity;
+    private final AtomicLong searches = new AtomicLong();
+    private final AtomicLong starved = new AtomicLong();
+    private final AtomicLong waitedNanos = new AtomicLong();
+
+    /**
+     * @param threads searches running at once
+     * @param queue   searches waiting for a thread before more are refused
+     */
+    SearchPool(int threads, int queue) {
+        if (threads < 1 || queue < 0)
+            throw new IllegalArgumentException("Need at least one thread and a queue of 0 or more");
+        this.threads = threads;
+        this.capacity = threads + queue;
+        this.admission = new Semaphore(capacity, true);
+        this.games = new Semaphore(capacity, true);
+        final int pool = POOL_COUNT.incrementAndGet();
+        final AtomicInteger count = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "search-" + pool + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Runs the search on the pool and waits for it. The search is handed what is left of the budget
+     * once it starts, divided among the searches then waiting for each thread, so that a queue of
+     * searches finishes within the budget of every one of them instead of the last ones timing out.
+     *
+     * @param budgetNanos time the caller has, counted from now
+     * @return the search's result, or null if no slot came free in time to search at all
+     */
+    @Nullable
+    <T> T run(long budgetNanos, @Nonnull Search<T> search) throws InterruptedException {
+        final long asked = System.nanoTime();
+        // the caller needs the same margin as a search to answer in time
+        final long margin = Math.min(TimeUnit.MILLISECONDS.toNanos(SearchConfig.safetyMarginMillis()), budgetNanos / 4);
+        if (!admission.tryAcquire(budgetNanos - margin, TimeUnit.NANOSECONDS)) {
+            starved.incrementAndGet();
+            return null;
+        }
+        try {
+            final Callable<T> task = () -> {
+                final long waited = System.nanoTime() - asked;
+                waitedNanos.addAndGet(waited);
+                final int sharing = Math.max(1, (pending() + threads - 1) / threads);
+                return search.run(Math.max(0, budgetNanos - waited) / sharing);
+            };
+            final Future<T> result = executor.submit(task);
+            searches.incrementAndGet();
+            try {
+                return result.get();
+            } catch (InterruptedException e) {
+                result.cancel(true);
+                throw e;
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Search failed", e.getCause());
+            }
+        } finally {
+            admission.release();
+        }
+    }
+
+    /**
+     * Waits for room for another game, which the caller holds until {@link #leaveGame}.
+     */
+    void enterGame() throws InterruptedException {
+        games.acquire();
+    }
+
+    void leaveGame() {
+        games.release();
+    }
+
+    /**
+     * @return searches admitted and not yet finished, running or queued
+     */
+    int pending() {
+        return capacity - admission.availablePermits();
+    }
+
+    @Nonnull
+    String summary() {
+        final long done = searches.get();
+        return String.format("%d searches, %.1fms mean wait, %d starved, %d pending, %d games in play",
+                done, done == 0 ? 0 : waitedNanos.get() / 1e6 / done, starved.get(), pending(),
+                capacity - games.availablePermits());
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * A search given the time it has left
+     */
+    @FunctionalInterface
+    interface Search<T> {
+        T run(long nanos) throws Exception;
+    }
+}
@@ -0,0 +1,273 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What one {@code pickMove} cost: counters summed over every search thread and every search made for
+ * the move (the alpha-beta detectives search several of Mr X's possible locations), plus the
+ * iterations of the calling thread. The counters are plain fields of each thread's own state, so
+ * collecting them costs a few increments per node.
+ */
+public final class SearchReport {
+
+    /**
+     * Cutoffs are counted by the index of the move that caused them; moves from this index on share
+     * the last slot
+     */
+    public static final int CUTOFF_SLOTS = 8;
+
+    /**
+     * One completed iteration of the calling thread
+     */
+    public static final class Iteration {
+        public final int search;  // which of the report's searches it belongs to
+        public final int depth;
+        public final long nodes;
+        public final long nanos;
+
+        Iteration(int search, int depth, long nodes, long nanos) {
+            this.search = search;
+            this.depth = depth;
+            this.nodes = nodes;
+            this.nanos = nanos;
+        }
+    }
+
+    private final String engine;
+    private final int searches;
+    private final int threads;
+    private final long elapsedNanos;
+    private final int depth;
+    private final long nodes;
+    private final long leaves;
+    private final long ttProbes;
+    private final long ttHits;
+    private final long[] cutoffs;
+    private final List<Iteration> iterations;
+
+    private SearchReport(Builder builder, long elapsedNanos) {
+        this.engine = builder.engine;
+        this.searches = builder.searches;
+        this.threads = builder.threads;
+        this.elapsedNanos = elapsedNanos;
+        this.depth = builder.searches == 0 ? 0 : builder.depth;
+        this.nodes = builder.nodes;
+        this.leaves = builder.leaves;
+        this.ttProbes = builder.ttProbes;
+        this.ttHits = builder.ttHits;
+        this.cutoffs = builder.cutoffs.clone();
+        this.iterations = Collections.unmodifiableList(new ArrayList<>(builder.iterations));
+    }
+
+    /**
+     * Collects the counters of the searches made for one move. Only used by the thread that calls
+     * {@code pickMove}, after the helper threads have finished.
+     */
+    static final class Builder {
+        private final String engine;
+        private int threads = 1;
+        private int searches;
+        private int depth = Integer.MAX_VALUE;
+        private long nodes;
+        private long leaves;
+        private long ttProbes;
+        private long ttHits;
+        private final long[] cutoffs = new long[CUTOFF_SLOTS];
+        private final List<Iteration> iterations = new ArrayList<>();
+
+        Builder(String engine) {
+            this.engine = engine;
+        }
+
+        /**
+         * Starts counting another search.
+         */
+        void search() {
+            searches++;
+        }
+
+        /**
+         * @param used threads a search ran on, of which the report keeps the most
+         */
+        void threads(int used) {
+            threads = Math.max(threads, used);
+        }
+
+        void iteration(int depth, long nodes, long nanos) {
+            iterations.add(new Iteration(searches - 1, depth, nodes, nanos));
+        }
+
+        /**
+         * @param completedDepth deepest iteration of the search that finished; the report keeps the
+         *                       shallowest over all searches, the depth every one of them reached
+         */
+        void completed(int completedDepth) {
+            depth = Math.min(depth, completedDepth);
+        }
+
+        void add(SearchContext context) {
+            nodes += context.nodes;
+            leaves += context.leaves;
+            ttProbes += context.ttProbes;
+            ttHits += context.ttHits;
+            for (int i = 0; i < CUTOFF_SLOTS; i++) {
+                cutoffs[i] += context.cutoffs[i];
+            }
+        }
+
+        void add(long nodes, long leaves) {
+            this.nodes += nodes;
+            this.leaves += leaves;
+        }
+
+        @Nonnull
+        SearchReport build(@Nonnull SearchClock clock) {
+            return new SearchReport(this, clock.elapsed(TimeUnit.NANOSECONDS));
+        }
+    }
+
+    @Nonnull
+    public String getEngine() {
+        return engine;
+    }
+
+    public int getSearches() {
+        return searches;
+    }
+
+    /**
+     * @return most threads any of the searches ran on, as many as the shared helpers allowed
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * @return depth completed by every search, in plies; for ISMCTS the depth of the deepest path
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    public long getNodes() {
+        return nodes;
+    }
+
+    /**
+     * @return leaves evaluated, or playouts for ISMCTS
+     */
+    public long getLeaves() {
+        return leaves;
+    }
+
+    public long getTtProbes() {
+        return ttProbes;
+    }
+
+    public long getTtHits() {
+        return ttHits;
+    }
+
+    /**
+     * @return cutoffs by the index of the move causing them, see {@link #CUTOFF_SLOTS}
+     */
+    @Nonnull
+    public long[] getCutoffs() {
+        return cutoffs.clone();
+    }
+
+    @Nonnull
+    public List<Iteration> getIterations() {
+        return iterations;
+    }
+
+    public double getNodesPerSecond() {
+        return elapsedNanos == 0 ? 0.0 : nodes * 1e9 / elapsedNanos;
+    }
+
+    public double getTtHitRate() {
+        return ttProbes == 0 ? 0.0 : (double) ttHits / ttProbes;
+    }
+
+    /**
+     * @return share of cutoffs caused by the first move tried, a measure of move ordering
+     */
+    public double getFirstMoveCutoffRate() {
+        final long total = Arrays.stream(cutoffs).sum();
+        return total == 0 ? 0.0 : (double) cutoffs[0] / total;
+    }
+
+    /**
+     * @return geometric mean of the growth in nodes from one iteration to the next, over consecutive
+     * iterations of the same search; 0 when no search completed two
+     */
+    public double getBranchingFactor() {
+        double logSum = 0.0;
+        int count = 0;
+        for (int i = 1; i < iterations.size(); i++) {
+            final Iteration previous = iterations.get(i - 1);
+            final Iteration iteration = iterations.get(i);
+            if (iteration.search == previous.search && previous.nodes > 0 && iteration.nodes > 0) {
+                logSum += Math.log((double) iteration.nodes / previous.nodes);
+                count++;
+            }
+        }
+        return count == 0 ? 0.0 : Math.exp(logSum / count);
+    }
+
+    /**
+     * @return the report as one line of JSON
+     */
+    @Nonnull
+    public String toJson() {
+        final StringBuilder json = new StringBuilder(256)
+                .append("{\"engine\":\"").append(engine).append('"')
+                .append(",\"searches\":").append(searches)
+                .append(",\"threads\":").append(threads)
+                .append(",\"elapsedMicros\":").append(elapsedNanos / 1000)
+                .append(",\"depth\":").append(depth)
+                .append(",\"nodes\":").append(nodes)
+                .append(",\"leaves\":").append(leaves)
+                .append(",\"nodesPerSecond\":").append(Math.round(getNodesPerSecond()))
+                .append(",\"branchingFactor\":").append(round(getBranchingFactor()))
+                .append(",\"ttProbes\":").append(ttProbes)
+                .append(",\"ttHits\":").append(ttHits)
+                .append(",\"ttHitRate\":").append(round(getTtHitRate()))
+                .append(",\"cutoffs\":[");
+        for (int i = 0; i < CUTOFF_SLOTS; i++) {
+            json.append(i == 0 ? "" : ",").append(cutoffs[i]);
+        }
+        json.append("],\"iterations\":[");
+        for (int i = 0; i < iterations.size(); i++) {
+            final Iteration iteration = iterations.get(i);
+            json.append(i == 0 ? "{" : ",{")
+                    .append("\"search\":").append(iteration.search)
+                    .append(",\"depth\":").append(iteration.depth)
+                    .append(",\"nodes\":").append(iteration.nodes)
+                    .append(",\"micros\":").append(iteration.nanos / 1000)
+                    .append('}');
+        }
+        return json.append("]}").toString();
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 1000) / 1000.0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SearchReport{engine=%s, depth=%d, nodes=%d, nps=%.0f, ebf=%.2f, ttHitRate=%.3f, "
+                        + "firstMoveCutoffs=%.3f, elapsed=%dms}",
+                engine, depth, nodes, getNodesPerSecond(), getBranchingFactor(), getTtHitRate(),
+                getFirstMoveCutoffRate(), elapsedNanos / 1_000_000);
+    }
+}
@@ -0,0 +1,821 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import uk.ac.bris.cs.scotlandyard.model.Board;
+import uk.ac.bris.cs.scotlandyard.model.GameSetup;
+import uk.ac.bris.cs.scotlandyard.model.LogEntry;
+import uk.ac.bris.cs.scotlandyard.model.Move;
+import uk.ac.bris.cs.scotlandyard.model.Piece;
+import uk.ac.bris.cs.scotlandyard.model.Player;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Mutable, search-only game state. Player data lives in primitive arrays indexed by player (Mr X is
+ * always index 0, detectives follow in {@link Piece.Detective} order) and the pieces still to move
+ * in this round are a bitmask, so {@link #make(int)} and {@link #unmake(int)} run in constant time
+ * without allocating. Moves are encoded as ints, see {@link Moves}.
+ * <p>
+ * A state is built from a {@link Board} at the root of a search and can be turned back into an
+ * {@link ImmutableGameState} at any point. It is not thread safe; every search thread works on its
+ * own {@link #copy()}.
+ */
+public final class SearchState {
+
+    public static final int NO_WINNER = 0;
+    public static final int MRX_WINS = 1;
+    public static final int DETECTIVES_WIN = 2;
+
+    static final int MRX = 0;
+    static final int TICKET_KINDS = Ticket.values().length;
+
+    static final int DOUBLE = Ticket.DOUBLE.ordinal();
+    private static final int[] TRAVEL_TICKETS = {
+            Ticket.TAXI.ordinal(), Ticket.BUS.ordinal(), Ticket.UNDERGROUND.ordinal(), Ticket.SECRET.ordinal()};
+    private static final int UNKNOWN = -1;
+    private static final Ticket[] TICKETS = Ticket.values();
+
+    private final GameSetup setup;
+    private final DistanceOracle distances;
+    private final BoardGraph graph;
+    private final Piece[] pieces;
+    private final boolean[] reveal;     // reveal[round] = whether Mr X is revealed after that round's move
+
+    private final int[] locations;
+    private final long[] occupied;      // bitset of the nodes detectives stand on
+    private final int[] tickets;        // tickets[player * TICKET_KINDS + ticket ordinal]
+    private int remaining;              // bit p set when player p still has to move this round
+
+    private final ImmutableList<LogEntry> rootLog;
+    private final int[] logTickets;     // ticket ordinal of every log entry
+    private final int[] logLocations;   // Mr X's location after every log entry (0 if never known)
+    private int logSize;                // log cursor
+
+    private final int[] undo;           // remaining masks overwritten by make, popped by unmake
+    private int undoSize;
+
+    private long hash;                  // Zobrist hash, kept up to date by make and unmake
+
+    // winner() is worked out when asked for and kept until the next change; of the stuck players it
+    // only looks again at those whose location or tickets changed since
+    private int winner = UNKNOWN;
+    private int stuck;                  // bit p set when player p holds no ticket for any edge from its node
+    private int changed;                // bit p set when player p moved or its tickets changed since stuck was set
+
+    // ticket-limited distance from each detective to Mr X for the evaluation, kept up to date by make and unmake
+    private final int[] mrXDistances;
+
+    // destinations already generated by the current call to generateMrXSingles or generateMrXDoubles
+    private final int[] generated;
+    private int generation;
+    private final int[] preference = new int[TRAVEL_TICKETS.length];
+
+    private SearchState(GameSetup setup, Piece[] pieces, int[] locations, int[] tickets, int remaining,
+            ImmutableList<LogEntry> rootLog) {
+        this.setup = setup;
+        this.distances = DistanceOracle.of(setup);
+        this.graph = BoardGraph.of(setup);
+        this.pieces = pieces;
+        this.locations = locations;
+        this.tickets = tickets;
+        this.remaining = remaining;
+        this.rootLog = rootLog;
+
+        this.occupied = new long[(graph.size() + 63) >>> 6];
+        for (int d = 1; d < locations.length; d++) {
+            occupied[locations[d] >>> 6] |= 1L << locations[d];
+        }
+        this.reveal = new boolean[setup.moves.size()];
+        for (int i = 0; i < reveal.length; i++) {
+            reveal[i] = setup.moves.get(i);
+        }
+
+        this.logTickets = new int[setup.moves.size()];
+        this.logLocations = new int[setup.moves.size()];
+        for (LogEntry entry : rootLog) {
+            logTickets[logSize] = entry.ticket().ordinal();
+            logLocations[logSize] = entry.location().orElse(0);
+            logSize++;
+        }
+        // every move pushes exactly one mask, and there is at most one move per player per round
+        this.undo = new int[(setup.moves.size() + 1) * pieces.length];
+        if (pieces.length > Zobrist.MAX_PLAYERS)
+            throw new IllegalArgumentException("At most " + Zobrist.MAX_PLAYERS + " players are supported");
+        this.hash = computeHash();
+        this.mrXDistances = new int[pieces.length];
+        updateDistances(MRX);
+        this.generated = new int[graph.size()];
+        this.changed = (1 << pieces.length) - 1;
+    }
+
+    private SearchState(SearchState state) {
+        this.setup = state.setup;
+        this.distances = state.distances;
+        this.graph = state.graph;
+        this.pieces = state.pieces;
+        this.reveal = state.reveal;
+        this.locations = state.locations.clone();
+        this.occupied = state.occupied.clone();
+        this.tickets = state.tickets.clone();
+        this.remaining = state.remaining;
+        this.rootLog = state.rootLog;
+        this.logTickets = state.logTickets.clone();
+        this.logLocations = state.logLocations.clone();
+        this.logSize = state.logSize;
+        this.undo = state.undo.clone();
+        this.undoSize = state.undoSize;
+        this.hash = state.hash;
+        this.mrXDistances = state.mrXDistances.clone();
+        this.generated = new int[state.generated.length];
+        this.winner = state.winner;
+        this.stuck = state.stuck;
+        this.changed = state.changed;
+    }
+
+    /**
+     * Builds the search state for the given board.
+     *
+     * @param board the board to search from
+     * @param mrXLocation where Mr X is (or is assumed to be), as the board only knows it when revealed
+     */
+    @Nonnull
+    public static SearchState fromBoard(@Nonnull Board board, int mrXLocation) {
+        List<Piece> players = new ArrayList<>();
+        players.add(Piece.MrX.MRX);
+        board.getPlayers().stream()
+                .filter(Piece::isDetective)
+                .sorted(Comparator.comparingInt(p -> ((Piece.Detective) p).ordinal()))
+                .forEach(players::add);
+        Piece[] pieces = players.toArray(new Piece[0]);
+
+        int[] locations = new int[pieces.length];
+        int[] tickets = new int[pieces.length * TICKET_KINDS];
+        int remaining = 0;
+        for (int p = 0; p < pieces.length; p++) {
+            final Piece piece = pieces[p];
+            locations[p] = piece.isMrX()
+                    ? mrXLocation
+                    : board.getDetectiveLocation((Piece.Detective) piece).orElseThrow();
+            Board.TicketBoard ticketBoard = board.getPlayerTickets(piece).orElseThrow();
+            for (Ticket t : TICKETS) {
+                tickets[p * TICKET_KINDS + t.ordinal()] = ticketBoard.getCount(t);
+            }
+            if (board.getAvailableMoves().stream().anyMatch(m -> m.commencedBy().equals(piece))) {
+                remaining |= 1 << p;
+            }
+        }
+        return new SearchState(board.getSetup(), pieces, locations, tickets, remaining, board.getMrXTravelLog());
+    }
+
+    /**
+     * Builds a search state from its parts, as stored by {@link PositionSnapshot}.
+     *
+     * @param pieces    Mr X first, then the detectives in {@link Piece.Detective} order
+     * @param locations by player, Mr X's being where he is or is assumed to be
+     * @param tickets   by player and ticket ordinal, {@code tickets[player * TICKET_KINDS + ordinal]}
+     * @param remaining bit p set when player p still has to move this round
+     */
+    @Nonnull
+    static SearchState of(@Nonnull GameSetup setup, @Nonnull Piece[] pieces, @Nonnull int[] locations,
+            @Nonnull int[] tickets, int remaining, @Nonnull ImmutableList<LogEntry> log) {
+        if (locations.length != pieces.length || tickets.length != pieces.length * TICKET_KINDS)
+            throw new IllegalArgumentException("Need a location and " + TICKET_KINDS + " tickets per piece");
+        return new SearchState(setup, pieces.clone(), locations.clone(), tickets.clone(), remaining, log);
+    }
+
+    /**
+     * @return an independent copy sharing only the immutable tables
+     */
+    @Nonnull
+    public SearchState copy() {
+        return new SearchState(this);
+    }
+
+    /**
+     * @return the equivalent immutable game state; the log contains every move made since the root
+     */
+    @Nonnull
+    public ImmutableGameState toGameState() {
+        ImmutableList.Builder<LogEntry> log = ImmutableList.<LogEntry>builder().addAll(rootLog);
+        for (int i = rootLog.size(); i < logSize; i++) {
+            log.add(reveal[i]
+                    ? LogEntry.reveal(TICKETS[logTickets[i]], logLocations[i])
+                    : LogEntry.hidden(TICKETS[logTickets[i]]));
+        }
+        List<Player> players = new ArrayList<>();
+        ImmutableSet.Builder<Piece> toMove = ImmutableSet.builder();
+        for (int p = 0; p < pieces.length; p++) {
+            ImmutableMap.Builder<Ticket, Integer> ticketMap = ImmutableMap.builder();
+            for (Ticket t : TICKETS) {
+                ticketMap.put(t, tickets[p * TICKET_KINDS + t.ordinal()]);
+            }
+            players.add(new Player(pieces[p], ticketMap.build(), locations[p]));
+            if ((remaining & (1 << p)) != 0) toMove.add(pieces[p]);
+        }
+        return ImmutableGameState.of(setup, toMove.build(), log.build(), players.get(MRX),
+                players.subList(1, players.size()));
+    }
+
+    /* ---------------------------------------------------------------- moves */
+
+    /**
+     * Applies the encoded move (see {@link Moves}). The move must be legal in this state.
+     */
+    public void make(int move) {
+        undo[undoSize++] = remaining;
+        final int player = Moves.player(move);
+        if (Moves.isDouble(move)) {
+            addTickets(DOUBLE, -1);
+            moveSingle(MRX, Moves.ticket1(move), Moves.destination1(move));
+            moveSingle(MRX, Moves.ticket2(move), Moves.destination2(move));
+        } else {
+            moveSingle(player, Moves.ticket1(move), Moves.destination1(move));
+        }
+    }
+
+    /**
+     * Reverts the last move applied with {@link #make(int)}, which must be the given move.
+     */
+    public void unmake(int move) {
+        if (Moves.isDouble(move)) {
+            undoSingle(MRX, Moves.ticket2(move), Moves.destination1(move));
+            undoSingle(MRX, Moves.ticket1(move), Moves.source(move));
+            addTickets(DOUBLE, 1);
+        } else {
+            undoSingle(Moves.player(move), Moves.ticket1(move), Moves.source(move));
+        }
+        setRemaining(undo[--undoSize]);
+    }
+
+    /**
+     * Puts Mr X on another node without making a move, to try out one of his possible locations.
+     * His travel log is unchanged.
+     */
+    public void relocateMrX(int node) {
+        setLocation(MRX, node);
+        updateDistances(MRX);
+    }
+
+    /**
+     * @see #make(int)
+     */
+    public void make(@Nonnull Move move) {
+        make(Moves.fromMove(move, this));
+    }
+
+    /**
+     * @see #unmake(int)
+     */
+    public void unmake(@Nonnull Move move) {
+        unmake(Moves.fromMove(move, this));
+    }
+
+    private void moveSingle(int player, int ticket, int destination) {
+        addTickets(player * TICKET_KINDS + ticket, -1);
+        if (player == MRX) {
+            setLocation(MRX, destination);
+            logTickets[logSize] = ticket;
+            logLocations[logSize] = destination;
+            setLogSize(logSize + 1);
+            setRemaining(detectiveMask());
+        } else {
+            occupied[locations[player] >>> 6] &= ~(1L << locations[player]);
+            occupied[destination >>> 6] |= 1L << destination;
+            setLocation(player, destination);
+            addTickets(ticket, 1); // detectives hand their used tickets to Mr X
+            setRemaining(remaining & ~(1 << player));
+            if (remaining == 0 || !hasAnyMove(remaining)) setRemaining(1 << MRX);
+        }
+        updateDistances(player);
+    }
+
+    private void undoSingle(int player, int ticket, int source) {
+        addTickets(player * TICKET_KINDS + ticket, 1);
+        if (player == MRX) {
+            setLocation(MRX, source);
+            setLogSize(logSize - 1);
+        } else {
+            occupied[locations[player] >>> 6] &= ~(1L << locations[player]);
+            occupied[source >>> 6] |= 1L << source;
+            setLocation(player, source);
+            addTickets(ticket, -1);
+        }
+        updateDistances(player);
+    }
+
+    /* refreshes the distances to Mr X that depend on where the player is or on the tickets it holds */
+    private void updateDistances(int player) {
+        if (player == MRX) {
+            for (int d = 1; d < pieces.length; d++) {
+                mrXDistances[d] = ticketDistance(d, locations[MRX]);
+            }
+        } else {
+            mrXDistances[player] = ticketDistance(player, locations[MRX]);
+        }
+    }
+
+    private int ticketDistance(int player, int to) {
+        final int base = player * TICKET_KINDS;
+        return distances.distance(locations[player], to,
+                tickets[base + Ticket.TAXI.ordinal()], tickets[base + Ticket.BUS.ordinal()],
+                tickets[base + Ticket.UNDERGROUND.ordinal()], tickets[base + Ticket.SECRET.ordinal()]);
+    }
+
+    /* the setters below keep the hash in step with the fields */
+
+    private void addTickets(int index, int delta) {
+        hash ^= Zobrist.tickets(index, tickets[index]);
+        tickets[index] += delta;
+        hash ^= Zobrist.tickets(index, tickets[index]);
+        changed |= 1 << (index / TICKET_KINDS);
+        winner = UNKNOWN;
+    }
+
+    private void setLocation(int player, int node) {
+        hash ^= Zobrist.location(player, locations[player]) ^ Zobrist.location(player, node);
+        locations[player] = node;
+        changed |= 1 << player;
+        winner = UNKNOWN;
+    }
+
+    private void setRemaining(int mask) {
+        hash ^= Zobrist.remaining(remaining) ^ Zobrist.remaining(mask);
+        remaining = mask;
+        winner = UNKNOWN;
+    }
+
+    private void setLogSize(int size) {
+        hash ^= Zobrist.round(logSize) ^ Zobrist.round(size);
+        logSize = size;
+        winner = UNKNOWN;
+    }
+
+    private long computeHash() {
+        long h = Zobrist.remaining(remaining) ^ Zobrist.round(logSize);
+        for (int p = 0; p < pieces.length; p++) {
+            h ^= Zobrist.location(p, locations[p]);
+        }
+        for (int i = 0; i < tickets.length; i++) {
+            h ^= Zobrist.tickets(i, tickets[i]);
+        }
+        return h;
+    }
+
+    /**
+     * Pushes every legal move for the pieces still to move onto the buffer. Whether the game is
+     * already over is not checked, see {@link #winner()}.
+     *
+     * @return the number of moves pushed
+     */
+    public int generateMoves(@Nonnull MoveBuffer out) {
+        final int start = out.size();
+        for (int p = 0; p < pieces.length; p++) {
+            if ((remaining & (1 << p)) != 0) generateMoves(p, out);
+        }
+        return out.size() - start;
+    }
+
+    /**
+     * Pushes the moves the search considers, which treat a round of detective moves as one joint
+     * action. Only the first detective still to move (by index) that can move is generated, so the
+     * same detective moves are never searched again in another order. On Mr X's turn this is
+     * {@link #generateMoves(MoveBuffer)}.
+     * <p>
+     * The order does decide which nodes are free, though: a detective can only move onto another's
+     * node once that one has moved away, and may find every node it could go to taken by those moving
+     * first. So the moves of the other detectives still to move that leave or take a node the first
+     * one could move to are pushed as well, after its own. Every round the game allows is then
+     * searched, most of them once.
+     * <p>
+     * Moves ending next to a team mate are dropped when another move of the same detective gets at
+     * least as close to Mr X without crowding: two detectives guarding the same spot do the work of
+     * one.
+     *
+     * @return the number of moves pushed
+     */
+    public int generateJointMoves(@Nonnull MoveBuffer out) {
+        return generateJointMoves(out, true);
+    }
+
+    /**
+     * Like {@link #generateJointMoves(MoveBuffer)}, keeping crowded moves when Mr X's location is
+     * only a placeholder, as there is nothing to measure how close they get against.
+     */
+    public int generateJointMoves(@Nonnull MoveBuffer out, boolean mrXLocationKnown) {
+        if (isMrXTurn()) return generateMoves(out);
+        final int start = out.size();
+        int player = MRX;
+        for (int p = 1; p < pieces.length && out.size() == start; p++) {
+            if ((remaining & (1 << p)) != 0) {
+                generateMoves(p, out);
+                player = p;
+            }
+        }
+        if (mrXLocationKnown) pruneCrowded(player, start, out);
+        if (out.size() > start) generateInterfering(player, out);
+        return out.size() - start;
+    }
+
+    /* the moves of the other detectives still to move that, made first, change where the player can go:
+     * leaving a node it could move to, taking one, or leaving one for a detective that does */
+    private void generateInterfering(int player, MoveBuffer out) {
+        final int mark = nextGeneration();
+        markReach(player, mark);
+        int leaving = 0;  // detectives whose moves all count, as their leaving frees a node that matters
+        for (boolean grown = true; grown; ) {
+            grown = false;
+            for (int d = 1; d < pieces.length; d++) {
+                if (d == player || (remaining & (1 << d)) == 0 || (leaving & (1 << d)) != 0) continue;
+                if (generated[locations[d]] == mark) {
+                    leaving |= 1 << d;
+                    markReach(d, mark);
+                    grown = true;
+                }
+            }
+        }
+        for (int d = 1; d < pieces.length; d++) {
+            if (d == player || (remaining & (1 << d)) == 0) continue;
+            final int first = out.size();
+            generateMoves(d, out);
+            if ((leaving & (1 << d)) != 0) continue;
+            int kept = first;
+            for (int i = first; i < out.size(); i++) {
+                final int move = out.get(i);
+                if (generated[Moves.destination1(move)] == mark) out.set(kept++, move);
+            }
+            out.release(kept);
+        }
+    }
+
+    /* marks the nodes the detective could move to, held by another or not */
+    private void markReach(int detective, int mark) {
+        final int base = detective * TICKET_KINDS;
+        for (int t : TRAVEL_TICKETS) {
+            if (tickets[base + t] == 0) continue;
+            for (int n : graph.neighbours(locations[detective], t)) {
+                generated[n] = mark;
+            }
+        }
+    }
+
+    private void pruneCrowded(int player, int start, MoveBuffer out) {
+        final int target = locations[MRX];
+        int closest = Integer.MAX_VALUE;
+        for (int i = start; i < out.size(); i++) {
+            final int destination = Moves.destination1(out.get(i));
+            if (!isCrowded(player, destination)) {
+                closest = Math.min(closest, distances.distance(destination, target));
+            }
+        }
+        if (closest == Integer.MAX_VALUE) return;
+        int kept = start;
+        for (int i = start; i < out.size(); i++) {
+            final int move = out.get(i);
+            final int destination = Moves.destination1(move);
+            if (isCrowded(player, destination) && distances.distance(destination, target) >= closest) continue;
+            out.set(kept++, move);
+        }
+        out.release(kept);
+    }
+
+    /* whether another detective stands next to the node */
+    private boolean isCrowded(int player, int node) {
+        for (int d = 1; d < pieces.length; d++) {
+            if (d != player && distances.distance(locations[d], node) <= 1) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Pushes Mr X's single moves with one move per destination. Moves differing only in the ticket
+     * spent lead to positions the search can only tell apart by Mr X's ticket counts, so each
+     * destination gets the ticket he can best spare: the transport ticket he holds most of, and a
+     * secret ticket only when nothing else gets him there. Hiding his transport from the detectives
+     * is worth nothing to a search that knows where he is, so the full set is only needed at the
+     * root.
+     *
+     * @return the number of moves pushed
+     */
+    public int generateMrXSingles(@Nonnull MoveBuffer out) {
+        final int start = out.size();
+        final int source = locations[MRX];
+        final int mark = nextGeneration();
+        for (int t : ticketPreference()) {
+            if (tickets[t] == 0) continue;
+            for (int destination : graph.neighbours(source, t)) {
+                if (isOccupied(destination) || generated[destination] == mark) continue;
+                generated[destination] = mark;
+                out.add(Moves.single(MRX, source, t, destination));
+            }
+        }
+        return out.size() - start;
+    }
+
+    /**
+     * Pushes Mr X's double moves with one move per final destination, choosing the tickets as
+     * {@link #generateMrXSingles} does. Where he stops on the way is not part of the position.
+     *
+     * @return the number of moves pushed, 0 if he cannot move twice
+     */
+    public int generateMrXDoubles(@Nonnull MoveBuffer out) {
+        if (!canDouble()) return 0;
+        final int start = out.size();
+        final int source = locations[MRX];
+        final int mark = nextGeneration();
+        final int[] preference = ticketPreference();
+        for (int t1 : preference) {
+            if (tickets[t1] == 0) continue;
+            for (int via : graph.neighbours(source, t1)) {
+                if (isOccupied(via)) continue;
+                for (int t2 : preference) {
+                    if (tickets[t2] < (t1 == t2 ? 2 : 1)) continue;
+                    for (int destination : graph.neighbours(via, t2)) {
+                        if (isOccupied(destination) || generated[destination] == mark) continue;
+                        generated[destination] = mark;
+                        out.add(Moves.doubleMove(MRX, source, t1, via, t2, destination));
+                    }
+                }
+            }
+        }
+        return out.size() - start;
+    }
+
+    /**
+     * @return whether Mr X holds a double ticket and has at least two rounds left to use it in
+     */
+    public boolean canDouble() {
+        return tickets[DOUBLE] > 0 && reveal.length - logSize >= 2;
+    }
+
+    private int nextGeneration() {
+        if (++generation == 0) {
+            Arrays.fill(generated, 0);
+            generation = 1;
+        }
+        return generation;
+    }
+
+    /* Mr X's travel tickets, the ones he holds most of first and the secret ticket last */
+    private int[] ticketPreference() {
+        System.arraycopy(TRAVEL_TICKETS, 0, preference, 0, TRAVEL_TICKETS.length);
+        // an insertion sort of the transport tickets, which come before the secret one
+        for (int i = 1; i < preference.length - 1; i++) {
+            for (int j = i; j > 0 && tickets[preference[j]] > tickets[preference[j - 1]]; j--) {
+                final int t = preference[j];
+                preference[j] = preference[j - 1];
+                preference[j - 1] = t;
+            }
+        }
+        return preference;
+    }
+
+    /**
+     * @return all legal moves for the pieces still to move (none once the game is over), decoded;
+     * meant for tools, the search itself uses {@link #generateMoves(MoveBuffer)}
+     */
+    @Nonnull
+    public List<Move> availableMoves() {
+        MoveBuffer buffer = new MoveBuffer(256);
+        if (winner() == NO_WINNER) generateMoves(buffer);
+        List<Move> moves = new ArrayList<>(buffer.size());
+        for (int i = 0; i < buffer.size(); i++) {
+            moves.add(Moves.toMove(buffer.get(i), this));
+        }
+        return moves;
+    }
+
+    private void generateMoves(int player, MoveBuffer out) {
+        final int source = locations[player];
+        final int base = player * TICKET_KINDS;
+        final boolean canDouble = player == MRX && canDouble();
+        for (int t1 : TRAVEL_TICKETS) {
+            if (tickets[base + t1] == 0) continue;
+            for (int dest1 : graph.neighbours(source, t1)) {
+                if (isOccupied(dest1)) continue;
+                out.add(Moves.single(player, source, t1, dest1));
+                if (!canDouble) continue;
+                for (int t2 : TRAVEL_TICKETS) {
+                    if (tickets[base + t2] < (t1 == t2 ? 2 : 1)) continue;
+                    for (int dest2 : graph.neighbours(dest1, t2)) {
+                        if (isOccupied(dest2)) continue;
+                        out.add(Moves.doubleMove(player, source, t1, dest1, t2, dest2));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of single moves the pieces still to move have; cheaper than generating them
+     */
+    public int mobility() {
+        int count = 0;
+        for (int p = 0; p < pieces.length; p++) {
+            if ((remaining & (1 << p)) == 0) continue;
+            final int base = p * TICKET_KINDS;
+            for (int t : TRAVEL_TICKETS) {
+                if (tickets[base + t] == 0) continue;
+                for (int n : graph.neighbours(locations[p], t)) {
+                    if (!isOccupied(n)) count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return whether a detective stands on the node
+     */
+    public boolean isOccupied(int node) {
+        return (occupied[node >>> 6] & (1L << node)) != 0;
+    }
+
+    private boolean canMove(int player) {
+        final int source = locations[player];
+        final int usable = graph.ticketMask(source) & heldTickets(player);
+        for (int t : TRAVEL_TICKETS) {
+            if ((usable & (1 << t)) != 0 && graph.hasFreeNeighbour(source, t, occupied)) return true;
+        }
+        return false;
+    }
+
+    private boolean hasAnyMove(int mask) {
+        refreshStuck();
+        mask &= ~stuck;
+        for (int p = 0; p < pieces.length; p++) {
+            if ((mask & (1 << p)) != 0 && canMove(p)) return true;
+        }
+        return false;
+    }
+
+    /* a bit per travel ticket ordinal the player holds at least one of */
+    private int heldTickets(int player) {
+        final int base = player * TICKET_KINDS;
+        int held = 0;
+        for (int t : TRAVEL_TICKETS) {
+            if (tickets[base + t] > 0) held |= 1 << t;
+        }
+        return held;
+    }
+
+    /* brings the stuck bits of the players that changed up to date */
+    private void refreshStuck() {
+        for (int mask = changed; mask != 0; mask &= mask - 1) {
+            final int p = Integer.numberOfTrailingZeros(mask);
+            if ((graph.ticketMask(locations[p]) & heldTickets(p)) == 0) stuck |= 1 << p;
+            else stuck &= ~(1 << p);
+        }
+        changed = 0;
+    }
+
+    private int detectiveMask() {
+        return ((1 << pieces.length) - 1) & ~(1 << MRX);
+    }
+
+    /* ---------------------------------------------------------------- winner */
+
+    /**
+     * Follows the rules of {@link ImmutableGameState#getWinner()}. Worked out on the first call after
+     * a change and kept until the next: a capture is a bit of the occupancy, the last round a compare
+     * of the log cursor, and whether a player is stuck is only looked at again once its location or
+     * tickets change.
+     *
+     * @return {@link #NO_WINNER}, {@link #MRX_WINS} or {@link #DETECTIVES_WIN}
+     */
+    public int winner() {
+        if (winner == UNKNOWN) winner = computeWinner();
+        return winner;
+    }
+
+    private int computeWinner() {
+        if (isOccupied(locations[MRX])) return DETECTIVES_WIN;
+        if (isMrXTurn()) {
+            if (logSize == reveal.length) return MRX_WINS;
+            if (!canMove(MRX)) return DETECTIVES_WIN;
+        }
+        // detectives are only stuck when they hold no ticket for any edge, occupied or not
+        refreshStuck();
+        return (stuck & detectiveMask()) == detectiveMask() ? MRX_WINS : NO_WINNER;
+    }
+
+    /* ---------------------------------------------------------------- accessors */
+
+    /**
+     * @return the Zobrist hash of the locations, tickets, pieces still to move and round
+     */
+    public long hash() {
+        return hash;
+    }
+
+    /**
+     * @return a hash of what the detectives can see: the position less Mr X's location, mixed with
+     * the tickets of his travel log and the locations it reveals. Stable between runs like
+     * {@link #hash()}.
+     */
+    public long observedHash() {
+        long h = hash ^ Zobrist.location(MRX, locations[MRX]);
+        for (int i = 0; i < logSize; i++) {
+            final int seen = logTickets[i] * BoardGraph.MAX_NODES + (reveal[i] ? logLocations[i] : 0) + 1;
+            h = (h ^ seen) * 0x9E37_79B9_7F4A_7C15L;
+        }
+        return h;
+    }
+
+    /**
+     * @param move one of Mr X's moves from this position
+     * @return what the detectives see of it: its tickets and any location it reveals, equal for the
+     * moves they cannot tell apart
+     */
+    public int observedMove(int move) {
+        int seen = Moves.ticket1(move) + 1;
+        if (reveal[logSize]) seen |= Moves.destination1(move) << 3;
+        if (Moves.isDouble(move)) {
+            seen |= (Moves.ticket2(move) + 1) << 11;
+            if (reveal[logSize + 1]) seen |= Moves.destination2(move) << 14;
+        }
+        return seen;
+    }
+
+    public boolean isMrXTurn() {
+        return (remaining & (1 << MRX)) != 0;
+    }
+
+    public int remaining() {
+        return remaining;
+    }
+
+    public int playerCount() {
+        return pieces.length;
+    }
+
+    @Nonnull
+    public Piece piece(int player) {
+        return pieces[player];
+    }
+
+    public int indexOf(@Nonnull Piece piece) {
+        for (int p = 0; p < pieces.length; p++) {
+            if (pieces[p].equals(piece)) return p;
+        }
+        throw new IllegalArgumentException(piece + " is not in this game");
+    }
+
+    public int location(int player) {
+        return locations[player];
+    }
+
+    public int mrXLocation() {
+        return locations[MRX];
+    }
+
+    /**
+     * @return moves detective {@code d} needs to reach Mr X with the tickets it holds, see
+     * {@link DistanceOracle#distance(int, int, int, int, int, int)}
+     */
+    public int mrXDistance(int d) {
+        return mrXDistances[d];
+    }
+
+    /**
+     * @return moves detective {@code from} needs to reach detective {@code to} with the tickets it
+     * holds; unlike {@link #mrXDistance(int)} this is looked up on every call
+     */
+    public int detectiveDistance(int from, int to) {
+        return ticketDistance(from, locations[to]);
+    }
+
+    public int tickets(int player, @Nonnull Ticket ticket) {
+        return tickets[player * TICKET_KINDS + ticket.ordinal()];
+    }
+
+    /**
+     * @return the number of moves Mr X has made, which is the size of his travel log
+     */
+    public int logSize() {
+        return logSize;
+    }
+
+    @Nonnull
+    public GameSetup getSetup() {
+        return setup;
+    }
+
+    @Nonnull
+    public DistanceOracle getDistances() {
+        return distances;
+    }
+
+    @Override
+    public String toString() {
+        return "SearchState{locations=" + Arrays.toString(locations)
+                + ", remaining=" + Integer.toBinaryString(remaining)
+                + ", round=" + logSize + "/" + reveal.length + "}";
+    }
+}
@@ -0,0 +1,91 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The helper threads every search in the process shares: {@link SearchConfig#threads()} less the
+ * thread that calls the search. Each search leases at most its share, the helpers divided evenly
+ * among the searches running at the time, so AIs searching at once in one JVM split the machine
+ * instead of each running a pool as wide as it, while a search running alone, as the two sides of a
+ * game take turns, gets all of them. A lease never waits: a search finding the helpers taken runs
+ * with fewer, down to its calling thread alone.
+ */
+final class SearchThreads {
+
+    private static final Object LOCK = new Object();
+    private static SearchThreads shared;  // guarded by LOCK
+
+    private final int helpers;
+    private final ExecutorService executor;  // null without helpers
+    private final Semaphore free;
+    private final AtomicInteger searching = new AtomicInteger();
+
+    /**
+     * @param helpers threads searching besides the callers
+     */
+    SearchThreads(int helpers) {
+        if (helpers < 0) throw new IllegalArgumentException("Negative number of helpers " + helpers);
+        this.helpers = helpers;
+        this.free = new Semaphore(helpers);
+        if (helpers == 0) {
+            this.executor = null;
+        } else {
+            final AtomicInteger count = new AtomicInteger();
+            this.executor = Executors.newFixedThreadPool(helpers, runnable -> {
+                Thread thread = new Thread(runnable, "search-helper-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * @return the helpers of the process, sized by {@link SearchConfig#threads()} when first used
+     */
+    @Nonnull
+    static SearchThreads shared() {
+        synchronized (LOCK) {
+            if (shared == null) shared = new SearchThreads(Math.max(0, SearchConfig.threads() - 1));
+            return shared;
+        }
+    }
+
+    /**
+     * Counts a search in the division of the helpers until it calls {@link #release}, which it must
+     * however many it got.
+     *
+     * @param wanted most helpers the search can use
+     * @return helpers leased, each to be given a task with {@link #submit} and given back once its
+     * task is done
+     */
+    int lease(int wanted) {
+        final int share = helpers / searching.incrementAndGet();
+        for (int n = Math.min(wanted, share); n > 0; n--) {
+            if (free.tryAcquire(n)) return n;
+        }
+        return 0;
+    }
+
+    void release(int leased) {
+        free.release(leased);
+        searching.decrementAndGet();
+    }
+
+    /**
+     * Runs a task on a leased helper, which is always idle.
+     */
+    @Nonnull
+    Future<?> submit(@Nonnull Runnable task) {
+        if (executor == null) throw new IllegalStateException("No helpers to run on");
+        return executor.submit(task);
+    }
+
+    int helpers() {
+        return helpers;
+    }
+}
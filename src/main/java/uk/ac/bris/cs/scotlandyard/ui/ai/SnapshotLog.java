@@ -0,0 +1,257 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import io.atlassian.fugue.Pair;
+import uk.ac.bris.cs.scotlandyard.model.Board;
+import uk.ac.bris.cs.scotlandyard.model.GameSetup;
+import uk.ac.bris.cs.scotlandyard.model.Move;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * An append-only file of {@link PositionSnapshot}s, one for every move an AI plays when
+ * {@link SearchConfig#snapshotFile()} is set, to replay slow or bad moves and to benchmark and tune
+ * on real positions. A header records the board the positions belong to; a torn record at the end,
+ * left by a process that died mid-write, is dropped when reading.
+ * <pre>
+ *  header   magic and format version, board fingerprint  2 longs
+ *  record   {@link PositionSnapshot.Serializer}, repeated
+ * </pre>
+ * Files of an older format can still be read, but not appended to.
+ * Run it as
+ * <pre>
+ * java -cp ... uk.ac.bris.cs.scotlandyard.ui.ai.SnapshotLog --file snapshots.bin --replay 1000
+ * </pre>
+ * to list the positions of a file and, with {@code --replay}, search each again for the given time
+ * and show where the move or the cost changed.
+ */
+public final class SnapshotLog implements AutoCloseable {
+
+    private static final long MAGIC = 0x5C07_1A4D_5A95_0000L;
+    private static final long VERSION_MASK = 0xFFFF;
+    private static final PositionSnapshot.Serializer SERIALIZER = new PositionSnapshot.Serializer();
+    private static final Map<String, SnapshotLog> SHARED = new ConcurrentHashMap<>();
+
+    private final Path path;
+    private final long fingerprint;
+    private final Kryo kryo = new Kryo();  // guarded by this, as is output
+    private final Output output;
+
+    private SnapshotLog(Path path, long fingerprint, Output output) {
+        this.path = path;
+        this.fingerprint = fingerprint;
+        this.output = output;
+    }
+
+    /**
+     * Opens the file for appending, creating it if missing.
+     *
+     * @throws IllegalArgumentException if the file holds positions of another board or in an older
+     *                                  format
+     */
+    @Nonnull
+    public static SnapshotLog open(@Nonnull Path path, @Nonnull GameSetup setup) {
+        final long fingerprint = BoardGraph.fingerprint(setup);
+        try {
+            final boolean exists = Files.exists(path) && Files.size(path) > 0;
+            if (exists && checkHeader(path, fingerprint) != PositionSnapshot.Serializer.VERSION)
+                throw new IllegalArgumentException("Snapshot file " + path + " has an older format");
+            final Output output = new Output(Files.newOutputStream(path,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND));
+            if (!exists) {
+                output.writeLong(MAGIC | PositionSnapshot.Serializer.VERSION);
+                output.writeLong(fingerprint);
+                output.flush();
+            }
+            return new SnapshotLog(path, fingerprint, output);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open snapshot file " + path, e);
+        }
+    }
+
+    /**
+     * @return the file named by {@link SearchConfig#snapshotFile()}, shared by every AI in the
+     * process, or null if there is none
+     * @throws IllegalArgumentException if the file holds positions of another board
+     */
+    @Nullable
+    public static SnapshotLog shared(@Nonnull GameSetup setup) {
+        final String file = SearchConfig.snapshotFile();
+        if (file == null) return null;
+        final SnapshotLog log = SHARED.computeIfAbsent(file, f -> open(Paths.get(f), setup));
+        if (log.fingerprint != BoardGraph.fingerprint(setup))
+            throw new IllegalArgumentException("Snapshot file " + file + " holds positions of another board");
+        return log;
+    }
+
+    /**
+     * Appends the move an AI plays to the {@link #shared} file, if there is one.
+     *
+     * @param report the search that chose the move, or null if none did
+     */
+    static void record(@Nonnull Board board, @Nonnull Move move, @Nonnull Pair<Long, TimeUnit> timeoutPair,
+            @Nullable SearchReport report) {
+        final SnapshotLog log = shared(board.getSetup());
+        if (log != null) {
+            log.append(PositionSnapshot.capture(board, move, timeoutPair.right().toNanos(timeoutPair.left()), report));
+        }
+    }
+
+    /**
+     * @return the format version of the file
+     */
+    private static int checkHeader(Path path, long fingerprint) throws IOException {
+        try (Input input = new Input(Files.newInputStream(path))) {
+            final long magic = input.readLong();
+            final int version = (int) (magic & VERSION_MASK);
+            if ((magic & ~VERSION_MASK) != MAGIC || version < 1 || version > PositionSnapshot.Serializer.VERSION)
+                throw new IllegalArgumentException(path + " is not a snapshot file");
+            if (input.readLong() != fingerprint)
+                throw new IllegalArgumentException("Snapshot file " + path + " holds positions of another board");
+            return version;
+        } catch (KryoException e) {
+            throw new IllegalArgumentException(path + " is not a snapshot file", e);
+        }
+    }
+
+    /**
+     * Appends the snapshot and writes it through, so a crash loses at most the record being written.
+     */
+    public synchronized void append(@Nonnull PositionSnapshot snapshot) {
+        try {
+            kryo.writeObject(output, snapshot, SERIALIZER);
+            output.flush();
+        } catch (KryoException e) {
+            throw new UncheckedIOException("Cannot write snapshot to " + path,
+                    e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e));
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        output.close();
+    }
+
+    /**
+     * Reads every snapshot in the file.
+     *
+     * @throws IllegalArgumentException if the file holds positions of another board
+     */
+    @Nonnull
+    public static List<PositionSnapshot> read(@Nonnull Path path, @Nonnull GameSetup setup) {
+        final List<PositionSnapshot> snapshots = new ArrayList<>();
+        stream(path, setup, snapshots::add);
+        return snapshots;
+    }
+
+    /**
+     * Hands every snapshot in the file to the consumer in order, without holding them, for files too
+     * large to read at once.
+     *
+     * @return the number of snapshots read
+     * @throws IllegalArgumentException if the file holds positions of another board
+     */
+    public static long stream(@Nonnull Path path, @Nonnull GameSetup setup,
+            @Nonnull Consumer<? super PositionSnapshot> consumer) {
+        final PositionSnapshot.Serializer serializer;
+        try {
+            final int version = checkHeader(path, BoardGraph.fingerprint(setup));
+            serializer = version == PositionSnapshot.Serializer.VERSION
+                    ? SERIALIZER : new PositionSnapshot.Serializer(version);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read snapshot file " + path, e);
+        }
+        long count = 0;
+        final Kryo kryo = new Kryo();
+        try (InputStream stream = Files.newInputStream(path); Input input = new Input(stream, 1 << 16)) {
+            input.skip(2 * Long.BYTES);
+            while (!input.end()) {
+                final PositionSnapshot snapshot;
+                try {
+                    snapshot = kryo.readObject(input, PositionSnapshot.class, serializer);
+                } catch (KryoException | IllegalArgumentException e) {
+                    break;  // torn at the end
+                }
+                consumer.accept(snapshot);
+                count++;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read snapshot file " + path, e);
+        }
+        return count;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path file = Paths.get("snapshots.bin");
+        long replay = 0;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            final String value = args[i + 1];
+            switch (args[i]) {
+                case "--file":
+                    file = Paths.get(value);
+                    break;
+                case "--replay":
+                    replay = Long.parseLong(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        if (args.length % 2 != 0)
+            throw new IllegalArgumentException("Option " + args[args.length - 1] + " has no value");
+        // the replayed searches should only have their own time
+        System.setProperty("scotlandyard.ai.ponder", "false");
+
+        final GameSetup setup = new GameSetup(ScotlandYard.standardGraph(), ScotlandYard.STANDARD24MOVES);
+        final List<PositionSnapshot> snapshots = read(file, setup);
+        final SearchEngine mrX = replay > 0 ? SearchEngine.create(SearchConfig.mrXEngine()) : null;
+        final SearchEngine detectives = replay > 0 ? SearchEngine.create(SearchConfig.detectivesEngine()) : null;
+        int changed = 0;
+        try {
+            for (int i = 0; i < snapshots.size(); i++) {
+                final PositionSnapshot snapshot = snapshots.get(i);
+                // the detectives' engine never reads Mr X's location, so any node will do
+                final SearchState state = snapshot.toSearchState(setup, 0);
+                final Move played = snapshot.move(state);
+                String line = String.format("%5d  round %2d  %-10s %-40s depth %2d  %8d nodes  %6.0fms of %6.0fms",
+                        i, snapshot.round(), snapshot.isMrXTurn() ? "Mr X" : "detectives", played,
+                        snapshot.depth, snapshot.nodes, snapshot.elapsedNanos / 1e6, snapshot.budgetNanos / 1e6);
+                if (replay > 0) {
+                    final SearchEngine engine = snapshot.isMrXTurn() ? mrX : detectives;
+                    final Move move = engine.pickMove(state.toGameState(),
+                            SearchClock.start(new Pair<>(replay, TimeUnit.MILLISECONDS)));
+                    final SearchReport report = engine.lastReport();
+                    final boolean same = move.equals(played);
+                    if (!same) changed++;
+                    line += String.format("  ->  %s%-40s depth %2d  %8d nodes  %6.0fms", same ? "  " : "! ", move,
+                            report == null ? 0 : report.getDepth(), report == null ? 0 : report.getNodes(),
+                            report == null ? 0 : report.getElapsedNanos() / 1e6);
+                }
+                System.out.println(line);
+            }
+        } finally {
+            if (mrX != null) mrX.close();
+            if (detectives != null) detectives.close();
+        }
+        System.out.println(snapshots.size() + " positions, " + Files.size(file) + " bytes"
+                + (replay > 0 ? ", " + changed + " moves changed on replay" : ""));
+    }
+}
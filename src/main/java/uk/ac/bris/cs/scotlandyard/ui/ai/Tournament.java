@@ -0,0 +1,354 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import io.atlassian.fugue.Pair;
+import uk.ac.bris.cs.scotlandyard.model.Ai;
+import uk.ac.bris.cs.scotlandyard.model.GameSetup;
+import uk.ac.bris.cs.scotlandyard.model.Move;
+import uk.ac.bris.cs.scotlandyard.model.Piece;
+import uk.ac.bris.cs.scotlandyard.model.Player;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Headless self-play between two engine variants, a candidate and a baseline, on
+ * {@link ImmutableGameState}. Games come in pairs: both games of a pair start from the same random
+ * position, seeded from the pair's index, with the variants swapping sides, so the imbalance between
+ * Mr X and the detectives cancels out. Games run concurrently on a bounded pool and every move gets
+ * the same time budget.
+ * <p>
+ * The candidate's score gives an Elo difference with a 95% interval and a sequential probability
+ * ratio test of {@code elo0} against {@code elo1}; once the test accepts either hypothesis no new
+ * pairs are started. Run it as
+ * <pre>
+ * java -cp ... uk.ac.bris.cs.scotlandyard.ui.ai.Tournament --candidate ismcts --baseline alpha_beta \
+ *     --pairs 500 --parallel 4 --millis 200
+ * </pre>
+ * Search threads and table size default to 1 and 16MB per engine and pondering is off, so concurrent
+ * games do not starve each other; other {@code scotlandyard.ai.*} settings apply to both variants.
+ * <p>
+ * With {@code --positions file} every position played is appended to a {@link SnapshotLog}, with Mr X's
+ * location and the winner of its game, for {@link EvaluationTuner} to fit the evaluation to.
+ */
+public final class Tournament {
+
+    private static final double SPRT_ALPHA = 0.05;
+    private static final double SPRT_BETA = 0.05;
+
+    private final SearchConfig.Engine candidate;
+    private final SearchConfig.Engine baseline;
+    private final int pairs;
+    private final int parallel;
+    private final long millis;
+    private final long seed;
+    private final double elo0;
+    private final double elo1;
+    private final GameSetup setup;
+    @Nullable
+    private final SnapshotLog positions;
+
+    // results, guarded by this
+    private int wins;
+    private int losses;
+    private int mrXWins;
+    private int forfeits;
+    private int overruns;
+    private final List<Long> candidateLatencies = new ArrayList<>();
+    private final List<Long> baselineLatencies = new ArrayList<>();
+    private volatile boolean decided;
+
+    /**
+     * @param pairs    pairs of games to play at most
+     * @param parallel pairs of games played at once
+     * @param millis   time budget of every move
+     * @param seed     seed of the first pair's starting position
+     * @param elo0     Elo difference of the null hypothesis of the SPRT
+     * @param elo1     Elo difference of the alternative hypothesis
+     * @param positions file to record every position played in, or null
+     */
+    public Tournament(@Nonnull SearchConfig.Engine candidate, @Nonnull SearchConfig.Engine baseline, int pairs,
+            int parallel, long millis, long seed, double elo0, double elo1, @Nullable Path positions) {
+        if (pairs < 1 || parallel < 1 || millis < 1)
+            throw new IllegalArgumentException("Need at least one pair, one game at a time and 1ms per move");
+        this.candidate = candidate;
+        this.baseline = baseline;
+        this.pairs = pairs;
+        this.parallel = parallel;
+        this.millis = millis;
+        this.seed = seed;
+        this.elo0 = elo0;
+        this.elo1 = elo1;
+        try {
+            this.setup = new GameSetup(ScotlandYard.standardGraph(), ScotlandYard.STANDARD24MOVES);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.positions = positions == null ? null : SnapshotLog.open(positions, setup);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        SearchConfig.Engine candidate = SearchConfig.Engine.ALPHA_BETA;
+        SearchConfig.Engine baseline = SearchConfig.Engine.ALPHA_BETA;
+        int pairs = 100;
+        int parallel = Runtime.getRuntime().availableProcessors();
+        long millis = 200;
+        long seed = 0;
+        double elo0 = 0;
+        double elo1 = 10;
+        Path positions = null;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            final String value = args[i + 1];
+            switch (args[i]) {
+                case "--candidate":
+                    candidate = engine(value);
+                    break;
+                case "--baseline":
+                    baseline = engine(value);
+                    break;
+                case "--pairs":
+                    pairs = Integer.parseInt(value);
+                    break;
+                case "--parallel":
+                    parallel = Integer.parseInt(value);
+                    break;
+                case "--millis":
+                    millis = Long.parseLong(value);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(value);
+                    break;
+                case "--elo0":
+                    elo0 = Double.parseDouble(value);
+                    break;
+                case "--elo1":
+                    elo1 = Double.parseDouble(value);
+                    break;
+                case "--positions":
+                    positions = Paths.get(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        if (args.length % 2 != 0)
+            throw new IllegalArgumentException("Option " + args[args.length - 1] + " has no value");
+        defaultProperty("scotlandyard.ai.threads", "1");
+        defaultProperty("scotlandyard.ai.ttMegabytes", "16");
+        // both sides share the machine, so pondering would only take time from the side to move
+        defaultProperty("scotlandyard.ai.ponder", "false");
+
+        final Tournament tournament = new Tournament(candidate, baseline, pairs, parallel, millis, seed, elo0, elo1,
+                positions);
+        tournament.run();
+        System.out.println(tournament.summary());
+    }
+
+    private static void defaultProperty(String key, String value) {
+        if (System.getProperty(key) == null) System.setProperty(key, value);
+    }
+
+    private static SearchConfig.Engine engine(String value) {
+        return SearchConfig.Engine.valueOf(value.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+    }
+
+    /**
+     * Plays the pairs, stopping early once the SPRT has decided.
+     */
+    public void run() throws InterruptedException {
+        final ExecutorService pool = Executors.newFixedThreadPool(parallel);
+        final AtomicInteger finished = new AtomicInteger();
+        try {
+            final List<Future<?>> games = new ArrayList<>(pairs);
+            for (int pair = 0; pair < pairs; pair++) {
+                final long pairSeed = seed + pair;
+                // both games of a pair or neither, so that the sides stay balanced
+                games.add(pool.submit(() -> {
+                    if (decided) return;
+                    play(pairSeed, true);
+                    play(pairSeed, false);
+                    final int done = finished.addAndGet(2);
+                    if (done % 10 == 0) System.err.println(done + " games: " + progress());
+                }));
+            }
+            for (Future<?> game : games) {
+                game.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Game failed", e.getCause());
+        } finally {
+            pool.shutdownNow();
+            if (positions != null) positions.close();
+        }
+    }
+
+    private void play(long gameSeed, boolean candidateIsMrX) {
+        ImmutableGameState state = randomStart(setup, new Random(gameSeed));
+
+        final Ai mrX = new MrXAI(candidateIsMrX ? candidate : baseline);
+        final Ai detectivesAi = new DetectivesAI(candidateIsMrX ? baseline : candidate);
+        // every piece moves at most once per round
+        final long[] latencies = new long[setup.moves.size() * state.getPlayers().size()];
+        final boolean[] byCandidate = new boolean[latencies.length];
+        final List<PositionSnapshot> played = new ArrayList<>(positions == null ? 0 : latencies.length);
+        int moves = 0;
+        int overrun = 0;
+        boolean forfeit = false;
+        boolean mrXWon;
+        mrX.onStart();
+        detectivesAi.onStart();
+        try {
+            final Pair<Long, TimeUnit> budget = new Pair<>(millis, TimeUnit.MILLISECONDS);
+            while (true) {
+                if (!state.getWinner().isEmpty()) {
+                    mrXWon = state.getWinner().contains(Piece.MrX.MRX);
+                    break;
+                }
+                final boolean mrXToMove = state.getAvailableMoves().iterator().next().commencedBy().isMrX();
+                final long start = System.nanoTime();
+                final Move move = (mrXToMove ? mrX : detectivesAi).pickMove(state, budget);
+                final long elapsed = System.nanoTime() - start;
+                latencies[moves] = elapsed;
+                byCandidate[moves++] = mrXToMove == candidateIsMrX;
+                if (elapsed > TimeUnit.MILLISECONDS.toNanos(millis)) overrun++;
+                if (!state.getAvailableMoves().contains(move)) {
+                    // an illegal move loses the game for the side that made it
+                    forfeit = true;
+                    mrXWon = !mrXToMove;
+                    break;
+                }
+                if (positions != null) {
+                    played.add(PositionSnapshot.capture(state, state.getMrXLocation(), move,
+                            TimeUnit.MILLISECONDS.toNanos(millis), null));
+                }
+                state = state.newState(move);
+            }
+        } finally {
+            mrX.onTerminate();
+            detectivesAi.onTerminate();
+        }
+        record(candidateIsMrX, mrXWon, forfeit, overrun, latencies, byCandidate, moves);
+        final int winner = mrXWon ? SearchState.MRX_WINS : SearchState.DETECTIVES_WIN;
+        for (PositionSnapshot snapshot : played) {
+            positions.append(snapshot.withWinner(winner));
+        }
+    }
+
+    /**
+     * @return a game at its first move with every piece on a random standard starting location
+     */
+    @Nonnull
+    static ImmutableGameState randomStart(@Nonnull GameSetup setup, @Nonnull Random random) {
+        final List<Integer> locations = new ArrayList<>(ScotlandYard.DETECTIVE_LOCATIONS);
+        Collections.shuffle(locations, random);
+        final Piece.Detective[] pieces = Piece.Detective.values();
+        final List<Player> detectives = new ArrayList<>(pieces.length);
+        for (int i = 0; i < pieces.length; i++) {
+            detectives.add(new Player(pieces[i], ScotlandYard.defaultDetectiveTickets(), locations.get(i)));
+        }
+        final int mrXLocation = ScotlandYard.MRX_LOCATIONS.get(random.nextInt(ScotlandYard.MRX_LOCATIONS.size()));
+        return ImmutableGameState.of(setup, ImmutableSet.of(Piece.MrX.MRX), ImmutableList.of(),
+                new Player(Piece.MrX.MRX, ScotlandYard.defaultMrXTickets(), mrXLocation), detectives);
+    }
+
+    private synchronized void record(boolean candidateIsMrX, boolean mrXWon, boolean forfeit, int overrun,
+            long[] latencies, boolean[] byCandidate, int moves) {
+        if (mrXWon == candidateIsMrX) wins++;
+        else losses++;
+        if (mrXWon) mrXWins++;
+        if (forfeit) forfeits++;
+        overruns += overrun;
+        for (int i = 0; i < moves; i++) {
+            (byCandidate[i] ? candidateLatencies : baselineLatencies).add(latencies[i]);
+        }
+        final double llr = llr();
+        if (llr <= Math.log(SPRT_BETA / (1 - SPRT_ALPHA)) || llr >= Math.log((1 - SPRT_BETA) / SPRT_ALPHA)) {
+            decided = true;
+        }
+    }
+
+    /* expected score of a player the given number of Elo points stronger */
+    private static double expectedScore(double elo) {
+        return 1.0 / (1.0 + Math.pow(10.0, -elo / 400.0));
+    }
+
+    private static double elo(double score) {
+        return -400.0 * Math.log10(1.0 / score - 1.0);
+    }
+
+    /**
+     * @return log-likelihood ratio of elo1 against elo0 for the games so far; games have no draws
+     */
+    private double llr() {
+        final double p0 = expectedScore(elo0);
+        final double p1 = expectedScore(elo1);
+        return wins * Math.log(p1 / p0) + losses * Math.log((1 - p1) / (1 - p0));
+    }
+
+    private static double clamp(double score, double epsilon) {
+        return Math.min(1 - epsilon, Math.max(epsilon, score));
+    }
+
+    private static long percentile(List<Long> sorted, double p) {
+        if (sorted.isEmpty()) return 0;
+        return sorted.get(Math.min(sorted.size() - 1, (int) Math.ceil(p * sorted.size()) - 1));
+    }
+
+    private synchronized String progress() {
+        return String.format("%d-%d, LLR %.2f", wins, losses, llr());
+    }
+
+    /**
+     * @return win rates, Elo difference, SPRT result and move latencies of the games played so far
+     */
+    @Nonnull
+    public synchronized String summary() {
+        final int games = wins + losses;
+        final StringBuilder out = new StringBuilder();
+        out.append(String.format("%s (candidate) vs %s (baseline), %d games, %dms per move%n",
+                candidate, baseline, games, millis));
+        if (games == 0) return out.toString();
+        final double score = (double) wins / games;
+        // 95% interval of the score, clamped so that the Elo bounds stay finite
+        final double margin = 1.96 * Math.sqrt(score * (1 - score) / games);
+        final double epsilon = 0.5 / games;
+        out.append(String.format("candidate score %d-%d (%.1f%%), Elo %+.1f [%+.1f, %+.1f]%n",
+                wins, losses, 100 * score,
+                elo(clamp(score, epsilon)), elo(clamp(score - margin, epsilon)), elo(clamp(score + margin, epsilon))));
+        out.append(String.format("Mr X wins %.1f%%, forfeits %d, moves over budget %d%n",
+                100.0 * mrXWins / games, forfeits, overruns));
+        final double llr = llr();
+        final double lower = Math.log(SPRT_BETA / (1 - SPRT_ALPHA));
+        final double upper = Math.log((1 - SPRT_BETA) / SPRT_ALPHA);
+        out.append(String.format("SPRT elo0=%.1f elo1=%.1f: LLR %.2f [%.2f, %.2f] %s%n", elo0, elo1, llr, lower,
+                upper, llr >= upper ? "H1 accepted" : llr <= lower ? "H0 accepted" : "undecided"));
+        for (String name : new String[]{"candidate", "baseline"}) {
+            final Long[] sorted = (name.equals("candidate") ? candidateLatencies : baselineLatencies)
+                    .toArray(new Long[0]);
+            Arrays.sort(sorted);
+            final List<Long> latencies = Arrays.asList(sorted);
+            out.append(String.format("%s latency p50 %.1fms, p99 %.1fms, max %.1fms over %d moves%n", name,
+                    percentile(latencies, 0.50) / 1e6, percentile(latencies, 0.99) / 1e6,
+                    percentile(latencies, 1.0) / 1e6, latencies.size()));
+        }
+        return out.toString();
+    }
+}
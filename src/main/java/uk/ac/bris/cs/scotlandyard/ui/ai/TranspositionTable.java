@@ -0,0 +1,181 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed-size transposition table shared by every search thread without locking.
+ * <p>
+ * Each entry takes three longs: {@code key ^ meta ^ value}, {@code meta} and {@code value}. A reader
+ * copies all three and only trusts them if the first still matches, so an entry torn by a concurrent
+ * write just reads as a miss. Buckets hold two entries: the first keeps the deepest (or newest
+ * generation) result, the second is always replaced.
+ * <pre>
+ *  meta bits  0-30  best move, see {@link Moves}
+ *  meta bits 31-38  depth
+ *  meta bits 39-40  bound
+ *  meta bits 41-48  generation
+ *  meta bit  49     set on every stored entry
+ * </pre>
+ */
+public final class TranspositionTable {
+
+    public static final int EXACT = 0;
+    public static final int LOWER_BOUND = 1;
+    public static final int UPPER_BOUND = 2;
+
+    private static final int LONGS_PER_ENTRY = 3;
+    private static final int LONGS_PER_BUCKET = 2 * LONGS_PER_ENTRY;
+    private static final long USED = 1L << 49;
+
+    private final long[] table;
+    private final int buckets;
+    private volatile int generation;
+
+    private final LongAdder probes = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder collisions = new LongAdder();
+    private final LongAdder stores = new LongAdder();
+    private final LongAdder overwrites = new LongAdder();
+
+    /**
+     * Result of a successful {@link #probe(long, Entry)}; reuse one per search thread
+     */
+    public static final class Entry {
+        public int move;
+        public int depth;
+        public int bound;
+        public double value;
+    }
+
+    /**
+     * @param megabytes memory budget for the table
+     */
+    public TranspositionTable(int megabytes) {
+        if (megabytes <= 0)
+            throw new IllegalArgumentException("Transposition table needs at least 1MB, got " + megabytes);
+        long longs = (long) megabytes * 1024 * 1024 / Long.BYTES;
+        this.buckets = (int) Math.min(longs / LONGS_PER_BUCKET, Integer.MAX_VALUE / LONGS_PER_BUCKET);
+        this.table = new long[buckets * LONGS_PER_BUCKET];
+    }
+
+    /**
+     * Starts a new search; entries from older searches become the first to be replaced.
+     */
+    public void newSearch() {
+        generation = (generation + 1) & 0xFF;
+    }
+
+    private int bucket(long key) {
+        return (int) ((key >>> 1) % buckets) * LONGS_PER_BUCKET;
+    }
+
+    /**
+     * @return whether the position was found, in which case {@code out} holds its entry
+     */
+    public boolean probe(long key, @Nonnull Entry out) {
+        probes.increment();
+        final int bucket = bucket(key);
+        boolean occupied = false;
+        for (int slot = bucket; slot < bucket + LONGS_PER_BUCKET; slot += LONGS_PER_ENTRY) {
+            long check = table[slot];
+            long meta = table[slot + 1];
+            long value = table[slot + 2];
+            if ((meta & USED) == 0) continue;
+            if ((check ^ meta ^ value) != key) {
+                occupied = true;
+                continue;
+            }
+            out.move = (int) (meta & 0x7FFF_FFFFL);
+            out.depth = (int) ((meta >>> 31) & 0xFF);
+            out.bound = (int) ((meta >>> 39) & 0x3);
+            out.value = Double.longBitsToDouble(value);
+            hits.increment();
+            return true;
+        }
+        if (occupied) collisions.increment();
+        return false;
+    }
+
+    public void store(long key, int move, int depth, int bound, double value) {
+        stores.increment();
+        final long meta = (move & 0x7FFF_FFFFL)
+                | (long) Math.min(depth, 0xFF) << 31
+                | (long) bound << 39
+                | (long) generation << 41
+                | USED;
+        final long bits = Double.doubleToRawLongBits(value);
+        final int bucket = bucket(key);
+
+        // depth-preferred slot first, unless it holds a deeper result from this search
+        int slot = bucket;
+        long oldMeta = table[slot + 1];
+        boolean sameKey = (table[slot] ^ oldMeta ^ table[slot + 2]) == key;
+        boolean stale = ((oldMeta >>> 41) & 0xFF) != generation;
+        if ((oldMeta & USED) != 0 && !sameKey && !stale && ((oldMeta >>> 31) & 0xFF) > depth) {
+            slot = bucket + LONGS_PER_ENTRY;
+            oldMeta = table[slot + 1];
+            sameKey = (table[slot] ^ oldMeta ^ table[slot + 2]) == key;
+        }
+        if ((oldMeta & USED) != 0 && !sameKey) overwrites.increment();
+        table[slot + 1] = meta;
+        table[slot + 2] = bits;
+        table[slot] = key ^ meta ^ bits;
+    }
+
+    public void clear() {
+        Arrays.fill(table, 0L);
+        probes.reset();
+        hits.reset();
+        collisions.reset();
+        stores.reset();
+        overwrites.reset();
+    }
+
+    /**
+     * @return the number of buckets; keys equal modulo {@code 2 * buckets()} share one
+     */
+    int buckets() {
+        return buckets;
+    }
+
+    /**
+     * @return the table itself, laid out as described above, for tests to inspect or tear entries
+     */
+    long[] slots() {
+        return table;
+    }
+
+    public long probes() {
+        return probes.sum();
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return probes that missed because other positions occupied the bucket
+     */
+    public long collisions() {
+        return collisions.sum();
+    }
+
+    public long stores() {
+        return stores.sum();
+    }
+
+    /**
+     * @return stores that replaced an entry for a different position
+     */
+    public long overwrites() {
+        return overwrites.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("TranspositionTable{buckets=%d, probes=%d, hits=%d, collisions=%d, stores=%d, overwrites=%d}",
+                buckets, probes(), hits(), collisions(), stores(), overwrites());
+    }
+}
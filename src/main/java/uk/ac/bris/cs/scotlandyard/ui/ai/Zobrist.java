@@ -0,0 +1,65 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import java.util.SplittableRandom;
+
+/**
+ * Zobrist keys for {@link SearchState} hashing. A position hashes to the XOR of one key per player
+ * location, per player ticket count, per piece still to move and one for the round, so a move only
+ * touches a handful of keys. The keys come from a fixed seed, which keeps hashes stable between runs
+ * and lets them be written to disk.
+ */
+final class Zobrist {
+
+    static final int MAX_PLAYERS = 8;      // player indices are 3 bits in an encoded move
+    static final int MAX_TICKET_COUNT = 63; // larger counts share the key of this one
+    static final int MAX_ROUNDS = 256;
+
+    private static final int TICKET_KINDS = SearchState.TICKET_KINDS;
+
+    private static final long[] LOCATIONS = new long[MAX_PLAYERS * BoardGraph.MAX_NODES];
+    private static final long[] TICKETS = new long[MAX_PLAYERS * TICKET_KINDS * (MAX_TICKET_COUNT + 1)];
+    private static final long[] REMAINING = new long[1 << MAX_PLAYERS]; // one key per whole mask
+    private static final long[] ROUNDS = new long[MAX_ROUNDS];
+
+    static {
+        SplittableRandom random = new SplittableRandom(0x5C07_1A4D_1A4DL);
+        fill(LOCATIONS, random);
+        fill(TICKETS, random);
+        fill(ROUNDS, random);
+        long[] bits = new long[MAX_PLAYERS];
+        fill(bits, random);
+        for (int mask = 0; mask < REMAINING.length; mask++) {
+            for (int p = 0; p < MAX_PLAYERS; p++) {
+                if ((mask & (1 << p)) != 0) REMAINING[mask] ^= bits[p];
+            }
+        }
+    }
+
+    private Zobrist() {
+    }
+
+    private static void fill(long[] keys, SplittableRandom random) {
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = random.nextLong();
+        }
+    }
+
+    static long location(int player, int node) {
+        return LOCATIONS[player * BoardGraph.MAX_NODES + node];
+    }
+
+    /**
+     * @param index the player's ticket slot, {@code player * TICKET_KINDS + ticket ordinal}
+     */
+    static long tickets(int index, int count) {
+        return TICKETS[index * (MAX_TICKET_COUNT + 1) + Math.min(count, MAX_TICKET_COUNT)];
+    }
+
+    static long remaining(int mask) {
+        return REMAINING[mask];
+    }
+
+    static long round(int logSize) {
+        return ROUNDS[Math.min(logSize, MAX_ROUNDS - 1)];
+    }
+}
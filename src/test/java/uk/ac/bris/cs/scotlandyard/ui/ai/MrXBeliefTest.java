@@ -0,0 +1,82 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import org.junit.Test;
+import uk.ac.bris.cs.scotlandyard.model.GameSetup;
+import uk.ac.bris.cs.scotlandyard.model.LogEntry;
+import uk.ac.bris.cs.scotlandyard.model.Move;
+import uk.ac.bris.cs.scotlandyard.model.Piece;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks the bitset belief against replaying Mr X's travel log one node at a time over the graph,
+ * in every position of a few random games.
+ */
+public class MrXBeliefTest {
+
+    private static final int GAMES = 16;
+
+    @Test
+    public void fromBoardMatchesReplay() throws IOException {
+        final GameSetup setup = SearchStateTest.standardSetup();
+        final Random random = new Random(7);
+        for (int game = 0; game < GAMES; game++) {
+            ImmutableGameState state = Tournament.randomStart(setup, random);
+            int mrXLocation = state.getAvailableMoves().iterator().next().source();
+            while (state.getWinner().isEmpty()) {
+                final MrXBelief belief = MrXBelief.fromBoard(state);
+                final String when = "game " + game + " after " + state.getMrXTravelLog().size() + " entries";
+                assertThat(belief.toArray()).as("belief %s", when).containsExactly(replay(state));
+                assertThat(belief.contains(mrXLocation)).as("Mr X's location %s", when).isTrue();
+                final List<Move> moves = new ArrayList<>(state.getAvailableMoves());
+                final Move played = moves.get(random.nextInt(moves.size()));
+                if (played.commencedBy().isMrX()) {
+                    mrXLocation = played.accept(new Move.FunctionalVisitor<>(m -> m.destination, m -> m.destination2));
+                }
+                state = state.newState(played);
+            }
+        }
+    }
+
+    /* the nodes the log leads to from Mr X's starting nodes, or from anywhere if none does, less the detectives */
+    private static int[] replay(ImmutableGameState state) {
+        final GameSetup setup = state.getSetup();
+        Set<Integer> possible = follow(setup, state.getMrXTravelLog(), ScotlandYard.MRX_LOCATIONS);
+        if (possible.isEmpty()) possible = follow(setup, state.getMrXTravelLog(), setup.graph.nodes());
+        for (Piece piece : state.getPlayers()) {
+            if (piece.isDetective()) possible.remove(state.getDetectiveLocation((Piece.Detective) piece).orElseThrow());
+        }
+        return possible.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static Set<Integer> follow(GameSetup setup, List<LogEntry> log, Iterable<Integer> starts) {
+        Set<Integer> possible = new TreeSet<>();
+        starts.forEach(possible::add);
+        for (LogEntry entry : log) {
+            final Set<Integer> next = new TreeSet<>();
+            if (entry.location().isPresent()) {
+                next.add(entry.location().get());
+            } else {
+                for (int node : possible) {
+                    for (int neighbour : setup.graph.adjacentNodes(node)) {
+                        final boolean usable = entry.ticket() == Ticket.SECRET
+                                || setup.graph.edgeValue(node, neighbour).orElseThrow().stream()
+                                        .anyMatch(transport -> transport.requiredTicket() == entry.ticket());
+                        if (usable) next.add(neighbour);
+                    }
+                }
+            }
+            possible = next;
+        }
+        return possible;
+    }
+}
@@ -0,0 +1,172 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import org.junit.Test;
+import uk.ac.bris.cs.scotlandyard.model.GameSetup;
+import uk.ac.bris.cs.scotlandyard.model.Move;
+import uk.ac.bris.cs.scotlandyard.model.Piece;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Plays random games on {@link ImmutableGameState} and a {@link SearchState} side by side: every legal
+ * move made on the search state has to give the position {@link ImmutableGameState#newState} gives, and
+ * unmaking it the position before.
+ */
+public class SearchStateTest {
+
+    private static final int GAMES = 8;
+
+    static GameSetup standardSetup() throws IOException {
+        return new GameSetup(ScotlandYard.standardGraph(), ScotlandYard.STANDARD24MOVES);
+    }
+
+    /**
+     * Calls the check with every legal move of every position of a few random games, the search state
+     * in the position the move is made from.
+     */
+    static void forEveryMove(MoveCheck check) throws IOException {
+        final GameSetup setup = standardSetup();
+        final Random random = new Random(42);
+        for (int game = 0; game < GAMES; game++) {
+            ImmutableGameState state = Tournament.randomStart(setup, random);
+            int mrXLocation = state.getAvailableMoves().iterator().next().source();
+            final SearchState searched = SearchState.fromBoard(state, mrXLocation);
+            while (state.getWinner().isEmpty()) {
+                // the set's order is not part of its contract, so go by the encoded moves
+                final List<Move> moves = state.getAvailableMoves().stream()
+                        .sorted(Comparator.comparingInt(move -> Moves.fromMove(move, searched)))
+                        .collect(Collectors.toList());
+                for (Move move : moves) {
+                    check.check(state, mrXLocation, searched, move);
+                }
+                final Move played = moves.get(random.nextInt(moves.size()));
+                final int encoded = Moves.fromMove(played, searched);
+                searched.make(encoded);
+                state = state.newState(played);
+                if (Moves.player(encoded) == SearchState.MRX) mrXLocation = Moves.destination(encoded);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    interface MoveCheck {
+        void check(ImmutableGameState state, int mrXLocation, SearchState searched, Move move);
+    }
+
+    @Test
+    public void makeMatchesAdvanceAndUnmakeRestores() throws IOException {
+        forEveryMove((state, mrXLocation, searched, move) -> {
+            final int encoded = Moves.fromMove(move, searched);
+            searched.make(encoded);
+            assertSamePosition(searched, state.newState(move),
+                    move.commencedBy().isMrX() ? Moves.destination(encoded) : mrXLocation, "after " + move);
+            searched.unmake(encoded);
+            assertSamePosition(searched, state, mrXLocation, "after undoing " + move);
+        });
+    }
+
+    @Test
+    public void hashIsKeptIncrementallyAndRestoredByUnmake() throws IOException {
+        forEveryMove((state, mrXLocation, searched, move) -> {
+            final long before = searched.hash();
+            final int encoded = Moves.fromMove(move, searched);
+            searched.make(encoded);
+            assertThat(searched.hash()).as("hash after %s", move)
+                    .isEqualTo(rebuilt(searched, state.newState(move)).hash());
+            searched.unmake(encoded);
+            assertThat(searched.hash()).as("hash after undoing %s", move).isEqualTo(before);
+        });
+    }
+
+    /* the same position built from scratch, keeping the players to move as fromBoard may not for stuck ones */
+    private static SearchState rebuilt(SearchState searched, ImmutableGameState expected) {
+        final Piece[] pieces = new Piece[searched.playerCount()];
+        final int[] locations = new int[pieces.length];
+        final int[] tickets = new int[pieces.length * SearchState.TICKET_KINDS];
+        for (int p = 0; p < pieces.length; p++) {
+            pieces[p] = searched.piece(p);
+            locations[p] = searched.location(p);
+            for (Ticket ticket : Ticket.values()) {
+                tickets[p * SearchState.TICKET_KINDS + ticket.ordinal()] = searched.tickets(p, ticket);
+            }
+        }
+        return SearchState.of(expected.getSetup(), pieces, locations, tickets, searched.remaining(),
+                expected.getMrXTravelLog());
+    }
+
+    @Test
+    public void jointMovesEndRoundsAsTheGameDoes() throws IOException {
+        final Random random = new Random(11);
+        final MoveBuffer buffer = new MoveBuffer(256);
+        for (int game = 0; game < 3; game++) {
+            final ImmutableGameState start = Tournament.randomStart(standardSetup(), random);
+            final SearchState state = SearchState.fromBoard(start, start.getAvailableMoves().iterator().next().source());
+            while (state.winner() == SearchState.NO_WINNER) {
+                if (!state.isMrXTurn()) {
+                    final Set<Long> ordered = new HashSet<>();
+                    roundEnds(state, false, buffer, new HashSet<>(), ordered);
+                    final Set<Long> joint = new HashSet<>();
+                    roundEnds(state, true, buffer, new HashSet<>(), joint);
+                    assertThat(joint).as("round ends of joint moves").containsExactlyInAnyOrderElementsOf(ordered);
+                }
+                buffer.release(0);
+                final int count = state.generateMoves(buffer);
+                state.make(buffer.get(random.nextInt(count)));
+            }
+        }
+    }
+
+    /* hashes of the positions the round can end in, with the game's moves in any order or with joint moves;
+       a capture counts once however the others stand, as joint moves make it once they have moved */
+    private static void roundEnds(SearchState state, boolean joint, MoveBuffer buffer, Set<Long> seen, Set<Long> ends) {
+        if (!seen.add(state.hash())) return;
+        if (state.winner() != SearchState.NO_WINNER) {
+            ends.add((long) state.winner());
+            return;
+        }
+        if (state.isMrXTurn()) {
+            ends.add(state.hash());
+            return;
+        }
+        final int mark = buffer.size();
+        final int count = joint ? state.generateJointMoves(buffer, false) : state.generateMoves(buffer);
+        for (int i = mark; i < mark + count; i++) {
+            final int move = buffer.get(i);
+            state.make(move);
+            roundEnds(state, joint, buffer, seen, ends);
+            state.unmake(move);
+        }
+        buffer.release(mark);
+    }
+
+    static void assertSamePosition(SearchState actual, ImmutableGameState expected, int mrXLocation, String when) {
+        for (int p = 0; p < actual.playerCount(); p++) {
+            final Piece piece = actual.piece(p);
+            final int location = piece.isMrX()
+                    ? mrXLocation
+                    : expected.getDetectiveLocation((Piece.Detective) piece).orElseThrow();
+            assertThat(actual.location(p)).as("%s location %s", piece, when).isEqualTo(location);
+            for (Ticket ticket : Ticket.values()) {
+                assertThat(actual.tickets(p, ticket)).as("%s %s tickets %s", piece, ticket, when)
+                        .isEqualTo(expected.getPlayerTickets(piece).orElseThrow().getCount(ticket));
+            }
+        }
+        assertThat(actual.logSize()).as("log size %s", when).isEqualTo(expected.getMrXTravelLog().size());
+        final int winner = expected.getWinner().isEmpty() ? SearchState.NO_WINNER
+                : expected.getWinner().contains(Piece.MrX.MRX) ? SearchState.MRX_WINS
+                : SearchState.DETECTIVES_WIN;
+        assertThat(actual.winner()).as("winner %s", when).isEqualTo(winner);
+        assertThat(actual.availableMoves()).as("moves %s", when)
+                .containsExactlyInAnyOrderElementsOf(expected.getAvailableMoves());
+    }
+}
@@ -0,0 +1,91 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import org.junit.Test;
+import uk.ac.bris.cs.scotlandyard.model.GameSetup;
+import uk.ac.bris.cs.scotlandyard.model.Move;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Appends the positions of a random game to a {@link SnapshotLog} file and reads them back.
+ */
+public class SnapshotLogTest {
+
+    // a multiple of the microseconds the file keeps
+    private static final long BUDGET = 1_234_000;
+
+    @Test
+    public void readsBackWhatWasAppended() throws IOException {
+        final GameSetup setup = SearchStateTest.standardSetup();
+        final Path file = Files.createTempFile("snapshots", ".bin");
+        try {
+            final List<PositionSnapshot> written = writeGame(file, setup);
+            assertThat(written.size()).isGreaterThan(1);
+            check(setup, SnapshotLog.read(file, setup), written);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void tornLastRecordIsDropped() throws IOException {
+        final GameSetup setup = SearchStateTest.standardSetup();
+        final Path file = Files.createTempFile("snapshots", ".bin");
+        try {
+            final List<PositionSnapshot> written = writeGame(file, setup);
+            // a process that died while writing the last record
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(channel.size() - 1);
+            }
+            check(setup, SnapshotLog.read(file, setup), written.subList(0, written.size() - 1));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /* plays a random game, appending every position with the move played from it */
+    private static List<PositionSnapshot> writeGame(Path file, GameSetup setup) {
+        final Random random = new Random(5);
+        final List<PositionSnapshot> written = new ArrayList<>();
+        try (SnapshotLog log = SnapshotLog.open(file, setup)) {
+            ImmutableGameState state = Tournament.randomStart(setup, random);
+            while (state.getWinner().isEmpty()) {
+                final List<Move> moves = new ArrayList<>(state.getAvailableMoves());
+                final Move played = moves.get(random.nextInt(moves.size()));
+                final PositionSnapshot snapshot = PositionSnapshot.capture(state, played, BUDGET, null)
+                        .withWinner(SearchState.MRX_WINS);
+                log.append(snapshot);
+                written.add(snapshot);
+                state = state.newState(played);
+            }
+        }
+        return written;
+    }
+
+    private static void check(GameSetup setup, List<PositionSnapshot> read, List<PositionSnapshot> written) {
+        assertThat(read.size()).isEqualTo(written.size());
+        for (int i = 0; i < written.size(); i++) {
+            final PositionSnapshot expected = written.get(i);
+            final PositionSnapshot actual = read.get(i);
+            final String which = "snapshot " + i;
+            // the placeholder for Mr X is only used where the snapshot does not know where he is
+            assertThat(actual.toSearchState(setup, 1).hash()).as("position of %s", which)
+                    .isEqualTo(expected.toSearchState(setup, 1).hash());
+            assertThat(actual.mrXKnown()).as("Mr X known in %s", which).isEqualTo(expected.mrXKnown());
+            assertThat(actual.move).as("move of %s", which).isEqualTo(expected.move);
+            assertThat(actual.round()).as("round of %s", which).isEqualTo(expected.round());
+            assertThat(actual.time).as("time of %s", which).isEqualTo(expected.time);
+            assertThat(actual.budgetNanos).as("budget of %s", which).isEqualTo(BUDGET);
+            assertThat(actual.winner).as("winner of %s", which).isEqualTo(SearchState.MRX_WINS);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import org.junit.Test;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TranspositionTableTest {
+
+    private static final int MOVE = Moves.single(1, 13, 0, 14);
+
+    @Test
+    public void probeReturnsWhatWasStored() {
+        final TranspositionTable table = new TranspositionTable(1);
+        table.store(0x1234_5678_9ABCL, MOVE, 7, TranspositionTable.LOWER_BOUND, -0.375);
+        final TranspositionTable.Entry entry = new TranspositionTable.Entry();
+        assertThat(table.probe(0x1234_5678_9ABCL, entry)).isTrue();
+        assertThat(entry.move).isEqualTo(MOVE);
+        assertThat(entry.depth).isEqualTo(7);
+        assertThat(entry.bound).isEqualTo(TranspositionTable.LOWER_BOUND);
+        assertThat(entry.value).isEqualTo(-0.375);
+        assertThat(table.probe(0x1234_5678_9ABDL, entry)).isFalse();
+    }
+
+    @Test
+    public void deeperEntryOfTheSearchIsKeptInItsBucket() {
+        final TranspositionTable table = new TranspositionTable(1);
+        final long deep = 2;
+        final long other = deep + 2L * table.buckets();  // same bucket
+        table.store(deep, MOVE, 9, TranspositionTable.EXACT, 1.0);
+        table.store(other, MOVE, 3, TranspositionTable.EXACT, 2.0);
+        final TranspositionTable.Entry entry = new TranspositionTable.Entry();
+        assertThat(table.probe(deep, entry)).isTrue();
+        assertThat(entry.depth).isEqualTo(9);
+        assertThat(table.probe(other, entry)).isTrue();
+        assertThat(entry.depth).isEqualTo(3);
+    }
+
+    @Test
+    public void tornEntryReadsAsMiss() {
+        final TranspositionTable table = new TranspositionTable(1);
+        final long key = 0x0F0F_0F0FL;
+        table.store(key, MOVE, 5, TranspositionTable.EXACT, 0.5);
+        final long[] slots = table.slots();
+        int slot = -1;
+        for (int i = 0; i < slots.length; i += 3) {
+            if (slots[i + 1] != 0) slot = i;
+        }
+        // another writer's value landed, but not the check word that goes with it
+        slots[slot + 2] = Double.doubleToRawLongBits(0.75);
+        assertThat(table.probe(key, new TranspositionTable.Entry())).isFalse();
+    }
+
+    @Test
+    public void concurrentWritesNeverReadTorn() throws InterruptedException {
+        final TranspositionTable table = new TranspositionTable(1);
+        final long key = 0x5555_AAAAL;
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicLong torn = new AtomicLong();
+        final AtomicLong hits = new AtomicLong();
+        final Thread reader = new Thread(() -> {
+            final TranspositionTable.Entry entry = new TranspositionTable.Entry();
+            while (!done.get()) {
+                // every write stores a depth equal to its value, so a mixed entry shows
+                if (table.probe(key, entry)) {
+                    hits.incrementAndGet();
+                    if (entry.value != entry.depth) torn.incrementAndGet();
+                }
+            }
+        });
+        reader.start();
+        final SplittableRandom random = new SplittableRandom(7);
+        for (int i = 0; i < 2_000_000; i++) {
+            final int depth = random.nextInt(1, 200);
+            table.store(key, MOVE, depth, TranspositionTable.EXACT, depth);
+        }
+        done.set(true);
+        reader.join();
+        assertThat(hits.get()).isPositive();
+        assertThat(torn.get()).isZero();
+    }
+}